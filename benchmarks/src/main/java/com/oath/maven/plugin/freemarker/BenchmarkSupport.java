@@ -0,0 +1,103 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.template.Configuration;
+
+/**
+ * Helpers shared by the benchmarks to lay out generator trees on disk and to stand in for Maven.
+ */
+final class BenchmarkSupport {
+
+  /** A time before any file written by a benchmark, so that outputs are always newer than their inputs. */
+  static final long PAST = System.currentTimeMillis() - 3_600_000;
+
+  private BenchmarkSupport() {
+  }
+
+  static void write(Path file, String content) throws IOException {
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Writes a file and dates it in the past.
+   */
+  static void writeInput(Path file, String content) throws IOException {
+    write(file, content);
+    file.toFile().setLastModified(PAST);
+  }
+
+  static void deleteTree(Path dir) throws IOException {
+    if (dir != null && Files.exists(dir)) {
+      try (Stream<Path> paths = Files.walk(dir)) {
+        paths.sorted(Comparator.reverseOrder())
+            .map(Path::toFile)
+            .forEach(File::delete);
+      }
+    }
+  }
+
+  /**
+   * A json generator file whose data model holds a list of the given number of rows.
+   */
+  static String generatorJson(String templateName, int rows) {
+    StringBuilder json = new StringBuilder(64 + rows * 64);
+    json.append("{\"templateName\": \"").append(templateName).append("\", \"dataModel\": {\"title\": \"Rows\", \"rows\": [");
+    for (int i = 0; i < rows; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append("{\"name\": \"row").append(i).append("\", \"value\": ").append(i).append(", \"enabled\": ")
+          .append(i % 2 == 0).append('}');
+    }
+    return json.append("]}}").toString();
+  }
+
+  /**
+   * A template listing the rows of {@link #generatorJson(String, int)}.
+   */
+  static String rowsTemplate() {
+    return "${title} (${(pomProperties.pomVar)!\"none\"})\n<#list rows as row>${row.name}: ${row.value} ${row.enabled?c}\n</#list>";
+  }
+
+  static Configuration createConfiguration(Path templateDir) throws IOException {
+    Configuration config = new TrackingConfiguration(Configuration.VERSION_2_3_23);
+    config.setDefaultEncoding("UTF-8");
+    config.setTemplateLoader(new FileTemplateLoader(templateDir.toFile()));
+    return config;
+  }
+
+  /**
+   * A session holding a single project, whose pom is the given file.
+   */
+  @SuppressWarnings("deprecation")
+  static MavenSession createSession(Path pomFile) throws IOException {
+    writeInput(pomFile, "<project/>");
+    MavenProject project = new MavenProject();
+    project.setFile(pomFile.toFile());
+    project.getProperties().setProperty("pomVar", "pom value");
+    MavenSession session = new MavenSession(null, null, new DefaultMavenExecutionRequest(),
+        new DefaultMavenExecutionResult());
+    session.setProjects(Collections.singletonList(project));
+    session.setAllProjects(Collections.singletonList(project));
+    session.setCurrentProject(project);
+    return session;
+  }
+}
@@ -0,0 +1,94 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.execution.MavenSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import freemarker.template.Configuration;
+
+/**
+ * Walk of a generator tree whose outputs are all up to date: the per-file overhead of the visitor (parsing and
+ * staleness check) without rendering.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeneratingFileVisitorBenchmark {
+
+  /** Number of generator files, 100 per directory. */
+  @Param({"100", "1000"})
+  public int generators;
+
+  @Param({"false", "true"})
+  public boolean parallel;
+
+  private Path dir;
+  private Path dataDir;
+  private Configuration config;
+  private MavenSession session;
+  private Map<String, OutputGeneratorPropertiesProvider> providers;
+  private ExecutorService executor;
+
+  @Setup
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("visitor-benchmark");
+    dataDir = dir.resolve("data");
+    Path templateDir = dir.resolve("template");
+    BenchmarkSupport.writeInput(templateDir.resolve("rows.ftl"), BenchmarkSupport.rowsTemplate());
+    String json = BenchmarkSupport.generatorJson("rows.ftl", 10);
+    for (int i = 0; i < generators; i++) {
+      BenchmarkSupport.writeInput(dataDir.resolve("dir" + (i / 100)).resolve("rows" + i + ".txt.json"), json);
+    }
+    config = BenchmarkSupport.createConfiguration(templateDir);
+    session = BenchmarkSupport.createSession(dir.resolve("pom.xml"));
+    providers = new HashMap<>();
+    providers.put(".json", JsonPropertiesProvider.create(dataDir.toFile(), templateDir.toFile(),
+        dir.resolve("output").toFile()));
+    if (parallel) {
+      executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+    // Generate every output once, so that the measured walks find them up to date.
+    walk();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    BenchmarkSupport.deleteTree(dir);
+  }
+
+  @Benchmark
+  public void walk() throws IOException {
+    GenerationContext context = GenerationContext.builder().addExecutor(executor).create();
+    GeneratingFileVisitor visitor = GeneratingFileVisitor.create(config, session, providers, context);
+    Files.walkFileTree(dataDir, visitor);
+    visitor.awaitCompletion();
+  }
+}
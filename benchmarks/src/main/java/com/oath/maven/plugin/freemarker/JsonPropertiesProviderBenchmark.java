@@ -0,0 +1,67 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of a json generator file into the properties of an output generator, at several data model sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonPropertiesProviderBenchmark {
+
+  /** Number of rows in the data model; each row is about 50 bytes of json. */
+  @Param({"10", "1000", "100000"})
+  public int rows;
+
+  @Param({"MAP", "STREAMING"})
+  public JsonPropertiesProvider.ParsingMode parsingMode;
+
+  private Path dir;
+  private Path generatorFile;
+  private JsonPropertiesProvider provider;
+
+  @Setup
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("json-benchmark");
+    Path dataDir = dir.resolve("data");
+    generatorFile = dataDir.resolve("rows.txt.json");
+    BenchmarkSupport.write(generatorFile, BenchmarkSupport.generatorJson("rows.ftl", rows));
+    provider = JsonPropertiesProvider.create(dataDir.toFile(), dir.resolve("template").toFile(),
+        dir.resolve("output").toFile(), parsingMode);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    BenchmarkSupport.deleteTree(dir);
+  }
+
+  @Benchmark
+  public OutputGenerator.OutputGeneratorBuilder providePropertiesFromFile() {
+    OutputGenerator.OutputGeneratorBuilder builder = OutputGenerator.builder();
+    provider.providePropertiesFromFile(generatorFile, builder);
+    return builder;
+  }
+}
@@ -0,0 +1,121 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import freemarker.template.Configuration;
+
+/**
+ * {@link OutputGenerator#generate(Configuration)} for a stale output (render and write) and for an up to date one
+ * (staleness check only), with both the timestamp and the build manifest staleness checks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputGeneratorBenchmark {
+
+  public enum Output { STALE, UP_TO_DATE }
+
+  public enum Staleness { TIMESTAMP, MANIFEST }
+
+  @Param({"STALE", "UP_TO_DATE"})
+  public Output output;
+
+  @Param({"TIMESTAMP", "MANIFEST"})
+  public Staleness staleness;
+
+  @Param({"100"})
+  public int rows;
+
+  @Param({"false", "true"})
+  public boolean writeIfChanged;
+
+  private Path dir;
+  private File outputFile;
+  private Configuration config;
+  private OutputGenerator generator;
+
+  @Setup
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("output-generator-benchmark");
+    Path templateDir = dir.resolve("template");
+    Path dataDir = dir.resolve("data");
+    Path generatorFile = dataDir.resolve("rows.txt.json");
+    BenchmarkSupport.writeInput(templateDir.resolve("rows.ftl"), BenchmarkSupport.rowsTemplate());
+    BenchmarkSupport.writeInput(generatorFile, BenchmarkSupport.generatorJson("rows.ftl", rows));
+    config = BenchmarkSupport.createConfiguration(templateDir);
+    JsonPropertiesProvider provider = JsonPropertiesProvider.create(dataDir.toFile(), templateDir.toFile(),
+        dir.resolve("output").toFile());
+
+    File manifestFile = dir.resolve("state/manifest.json").toFile();
+    generator = createGenerator(provider, generatorFile, manifestFile);
+    outputFile = generator.outputLocation.toFile();
+    if (output == Output.UP_TO_DATE) {
+      generator.generate(config);
+      if (staleness == Staleness.MANIFEST) {
+        // The manifest only considers outputs recorded by a previous build.
+        generator.context.manifest.save();
+        generator = createGenerator(provider, generatorFile, manifestFile);
+      }
+    }
+  }
+
+  private OutputGenerator createGenerator(JsonPropertiesProvider provider, Path generatorFile, File manifestFile) {
+    GenerationContext.GenerationContextBuilder context = GenerationContext.builder().addWriteIfChanged(writeIfChanged);
+    if (staleness == Staleness.MANIFEST) {
+      BuildManifest manifest = BuildManifest.create(manifestFile, dir, "benchmark");
+      manifest.load();
+      context.addBuildManifest(manifest);
+    }
+    OutputGenerator.OutputGeneratorBuilder builder = OutputGenerator.builder()
+        .addGeneratorLocation(generatorFile)
+        .addPomLastModifiedTimestamp(BenchmarkSupport.PAST)
+        .addGenerationContext(context.create());
+    provider.providePropertiesFromFile(generatorFile, builder);
+    return builder.create();
+  }
+
+  @Setup(Level.Invocation)
+  public void makeStale() {
+    if (output == Output.STALE) {
+      // Dated before its inputs rather than deleted, so that writeIfChanged compares with the existing content.
+      outputFile.setLastModified(BenchmarkSupport.PAST - 1000);
+      if (staleness == Staleness.MANIFEST) {
+        generator.context.manifest.recordFailed(generator);
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    BenchmarkSupport.deleteTree(dir);
+  }
+
+  @Benchmark
+  public void generate() {
+    generator.generate(config);
+  }
+}
@@ -0,0 +1,345 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.descriptor.MojoDescriptor;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * End-to-end scale test: runs {@link FreeMarkerMojo#execute()} in-process on synthetic generator trees of increasing
+ * size, and records wall time, allocations and peak heap for three scenarios:
+ * <ul>
+ * <li><b>COLD</b>: no outputs and no state from a previous build.</li>
+ * <li><b>NO_OP</b>: the same build again, every output is up to date. With <code>skipIfUnchanged</code>, the
+ * execution is skipped as a whole.</li>
+ * <li><b>ONE_PERCENT_CHANGED</b>: one generator file in a hundred changed since the previous build.</li>
+ * </ul>
+ *
+ * <p>Options are given as <code>name=value</code> arguments, see {@link Options}. For instance:</p>
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.oath.maven.plugin.freemarker.ScaleHarness generators=1000,10000 parallel=true
+ * </pre>
+ *
+ * <p>Allocations are summed over every thread, from per-thread counters sampled every few milliseconds; the last
+ * allocations of worker threads that end between two samples are missed. Peak heap is the sum of the peak usage of
+ * the heap memory pools, measured after a GC.</p>
+ */
+public class ScaleHarness {
+
+  enum Scenario { COLD, NO_OP, ONE_PERCENT_CHANGED }
+
+  /**
+   * Options of the harness, with their default values. The options that set a parameter of the goal default to the
+   * default of that parameter, so that the plugin is measured as shipped.
+   */
+  static class Options {
+    /** Sizes of the generator trees, one run each. */
+    List<Integer> generators = new ArrayList<>();
+    /** Generator files per directory, and sub-directories per directory. */
+    int fanOut = 100;
+    /** Levels of directories above the generator files. */
+    int depth = 2;
+    /** Rows in the data model of each generator file, about 50 bytes of json each. */
+    int rows = 20;
+    /** Number of distinct templates, which all include a common one. */
+    int templates = 5;
+    boolean parallel = false;
+    boolean writeIfChanged = false;
+    boolean cacheConfiguration = false;
+    boolean skipIfUnchanged = false;
+    /** In megabytes, 0 disables the cache. */
+    int parsedDataCacheSize = 0;
+    /** In megabytes. */
+    int referencedDataCacheSize = 64;
+    /** Where the trees are created; deleted beforehand. */
+    Path workDirectory = Paths.get("target/scale-harness");
+    /** Where the results are written, as json. */
+    Path results = Paths.get("target/scale-results.json");
+
+    static Options parse(String[] args) {
+      Options options = new Options();
+      for (String arg : args) {
+        int eq = arg.indexOf('=');
+        if (eq < 0) {
+          throw new IllegalArgumentException("Expected name=value: " + arg);
+        }
+        String name = arg.substring(0, eq);
+        String value = arg.substring(eq + 1);
+        switch (name) {
+          case "generators":
+            for (String size : value.split(",")) {
+              options.generators.add(Integer.parseInt(size.trim()));
+            }
+            break;
+          case "fanOut": options.fanOut = Integer.parseInt(value); break;
+          case "depth": options.depth = Integer.parseInt(value); break;
+          case "rows": options.rows = Integer.parseInt(value); break;
+          case "templates": options.templates = Integer.parseInt(value); break;
+          case "parallel": options.parallel = Boolean.parseBoolean(value); break;
+          case "writeIfChanged": options.writeIfChanged = Boolean.parseBoolean(value); break;
+          case "cacheConfiguration": options.cacheConfiguration = Boolean.parseBoolean(value); break;
+          case "skipIfUnchanged": options.skipIfUnchanged = Boolean.parseBoolean(value); break;
+          case "parsedDataCacheSize": options.parsedDataCacheSize = Integer.parseInt(value); break;
+          case "referencedDataCacheSize": options.referencedDataCacheSize = Integer.parseInt(value); break;
+          case "workDirectory": options.workDirectory = Paths.get(value); break;
+          case "results": options.results = Paths.get(value); break;
+          default: throw new IllegalArgumentException("Unknown option: " + name);
+        }
+      }
+      if (options.generators.isEmpty()) {
+        options.generators.add(1_000);
+        options.generators.add(10_000);
+        options.generators.add(100_000);
+      }
+      return options;
+    }
+  }
+
+  /** One line of the results. */
+  static class Result {
+    int generators;
+    Scenario scenario;
+    long wallMillis;
+    long allocatedBytes;
+    double allocationRateMBPerSecond;
+    long peakHeapBytes;
+  }
+
+  private final Options options;
+
+  ScaleHarness(Options options) {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = Options.parse(args);
+    List<Result> results = new ScaleHarness(options).run();
+    Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    Files.createDirectories(options.results.toAbsolutePath().getParent());
+    try (Writer writer = Files.newBufferedWriter(options.results, StandardCharsets.UTF_8)) {
+      gson.toJson(results, writer);
+    }
+    System.out.println();
+    System.out.println(String.format("%10s %-20s %10s %14s %12s %14s", "generators", "scenario", "wall ms",
+        "allocated MB", "alloc MB/s", "peak heap MB"));
+    for (Result result : results) {
+      System.out.println(String.format("%10d %-20s %10d %14.1f %12.1f %14.1f", result.generators, result.scenario,
+          result.wallMillis, result.allocatedBytes / 1e6, result.allocationRateMBPerSecond, result.peakHeapBytes / 1e6));
+    }
+    System.out.println("Results written to " + options.results);
+  }
+
+  List<Result> run() throws Exception {
+    List<Result> results = new ArrayList<>();
+    for (int generators : options.generators) {
+      Path root = options.workDirectory.resolve("generators-" + generators);
+      BenchmarkSupport.deleteTree(root);
+      createCorpus(root, generators);
+      results.add(measure(root, generators, Scenario.COLD));
+      results.add(measure(root, generators, Scenario.NO_OP));
+      changeOnePercent(root, generators);
+      results.add(measure(root, generators, Scenario.ONE_PERCENT_CHANGED));
+      BenchmarkSupport.deleteTree(root);
+    }
+    return results;
+  }
+
+  private void createCorpus(Path root, int generators) throws IOException {
+    Path templateDir = root.resolve("src/main/freemarker/template");
+    BenchmarkSupport.writeInput(templateDir.resolve("common.ftl"),
+        "<#macro header title>// Generated from ${title} (${(pomProperties.pomVar)!\"none\"})</#macro>");
+    for (int t = 0; t < options.templates; t++) {
+      BenchmarkSupport.writeInput(templateDir.resolve("t" + t + ".ftl"), "<#include \"common.ftl\">"
+          + "<@header title=\"t" + t + "\"/>\n" + BenchmarkSupport.rowsTemplate());
+    }
+    Path generatorDir = root.resolve("src/main/freemarker/generator");
+    for (int i = 0; i < generators; i++) {
+      BenchmarkSupport.writeInput(generatorFile(generatorDir, i),
+          BenchmarkSupport.generatorJson("t" + (i % options.templates) + ".ftl", options.rows));
+    }
+  }
+
+  /**
+   * Spreads the generator files over <code>depth</code> levels of directories, <code>fanOut</code> per directory.
+   */
+  private Path generatorFile(Path generatorDir, int index) {
+    Path dir = generatorDir;
+    long divisor = options.fanOut;
+    for (int level = 0; level < options.depth; level++) {
+      divisor *= options.fanOut;
+    }
+    for (int level = options.depth; level > 0; level--) {
+      divisor /= options.fanOut;
+      dir = dir.resolve("d" + ((index / divisor) % options.fanOut));
+    }
+    return dir.resolve("Generated" + index + ".java.json");
+  }
+
+  private void changeOnePercent(Path root, int generators) throws IOException {
+    Path generatorDir = root.resolve("src/main/freemarker/generator");
+    for (int i = 0; i < generators; i += 100) {
+      BenchmarkSupport.write(generatorFile(generatorDir, i),
+          BenchmarkSupport.generatorJson("t" + (i % options.templates) + ".ftl", options.rows + 1));
+    }
+  }
+
+  private Result measure(Path root, int generators, Scenario scenario) throws Exception {
+    FreeMarkerMojo mojo = createMojo(root);
+    System.gc();
+    List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+        heapPools.add(pool);
+      }
+    }
+    AllocationSampler sampler = new AllocationSampler();
+    sampler.start();
+    long start = System.nanoTime();
+    mojo.execute();
+    long wallNanos = System.nanoTime() - start;
+    long allocatedBytes = sampler.finish();
+
+    Result result = new Result();
+    result.generators = generators;
+    result.scenario = scenario;
+    result.wallMillis = wallNanos / 1_000_000;
+    result.allocatedBytes = allocatedBytes;
+    result.allocationRateMBPerSecond = wallNanos == 0 ? 0 : allocatedBytes / 1e6 / (wallNanos / 1e9);
+    for (MemoryPoolMXBean pool : heapPools) {
+      result.peakHeapBytes += pool.getPeakUsage().getUsed();
+    }
+    System.out.println(generators + " generators, " + scenario + ": " + result.wallMillis + " ms");
+    return result;
+  }
+
+  private FreeMarkerMojo createMojo(Path root) throws Exception {
+    MavenSession session = BenchmarkSupport.createSession(root.resolve("pom.xml"));
+    MojoExecution execution = new MojoExecution(new MojoDescriptor());
+    execution.setLifecyclePhase("generate-sources");
+
+    Path source = root.resolve("src/main/freemarker");
+    FreeMarkerMojo mojo = new FreeMarkerMojo();
+    mojo.setLog(new QuietLog());
+    set(mojo, "freeMarkerVersion", "2.3.23");
+    set(mojo, "sourceDirectory", source.toFile());
+    set(mojo, "templateDirectory", source.resolve("template").toFile());
+    set(mojo, "generatorDirectory", source.resolve("generator").toFile());
+    set(mojo, "outputDirectory", root.resolve("target/generated-sources/freemarker").toFile());
+    set(mojo, "stateDirectory", root.resolve("target/freemarker-maven-plugin").toFile());
+    set(mojo, "jsonParsingMode", JsonPropertiesProvider.ParsingMode.MAP);
+    set(mojo, "removeOrphanedOutputs", false);
+    set(mojo, "parallel", options.parallel);
+    set(mojo, "writeIfChanged", options.writeIfChanged);
+    set(mojo, "cacheConfiguration", options.cacheConfiguration);
+    set(mojo, "skipIfUnchanged", options.skipIfUnchanged);
+    set(mojo, "parsedDataCacheSize", options.parsedDataCacheSize);
+    set(mojo, "referencedDataCacheSize", options.referencedDataCacheSize);
+    set(mojo, "session", session);
+    set(mojo, "mojo", execution);
+    return mojo;
+  }
+
+  /**
+   * Sets a parameter the way Maven does, since the mojo has no setters.
+   */
+  private static void set(FreeMarkerMojo mojo, String name, Object value) throws ReflectiveOperationException {
+    Field field = FreeMarkerMojo.class.getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(mojo, value);
+  }
+
+  /**
+   * Keeps the per-generator debug logging out of the measurements.
+   */
+  private static class QuietLog extends SystemStreamLog {
+    @Override
+    public boolean isDebugEnabled() {
+      return false;
+    }
+
+    @Override
+    public void debug(CharSequence content) {
+    }
+
+    @Override
+    public void debug(CharSequence content, Throwable error) {
+    }
+
+    @Override
+    public void debug(Throwable error) {
+    }
+  }
+
+  /**
+   * Samples the allocation counters of every live thread, keeping the last value seen for each thread.
+   */
+  private static class AllocationSampler extends Thread {
+    private final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final Map<Long, Long> baseline = new HashMap<>();
+    private final Map<Long, Long> latest = new HashMap<>();
+    private volatile boolean running = true;
+
+    AllocationSampler() {
+      setDaemon(true);
+      sample(baseline);
+    }
+
+    @Override
+    public void run() {
+      while (running) {
+        sample(latest);
+        try {
+          Thread.sleep(5);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+
+    private synchronized void sample(Map<Long, Long> into) {
+      long[] ids = threads.getAllThreadIds();
+      long[] allocated = threads.getThreadAllocatedBytes(ids);
+      for (int i = 0; i < ids.length; i++) {
+        if (allocated[i] >= 0 && ids[i] != getId()) {
+          into.put(ids[i], allocated[i]);
+        }
+      }
+    }
+
+    /**
+     * @return The bytes allocated by all threads since the sampler was created.
+     */
+    synchronized long finish() {
+      running = false;
+      sample(latest);
+      long total = 0;
+      for (Map.Entry<Long, Long> entry : latest.entrySet()) {
+        total += entry.getValue() - baseline.getOrDefault(entry.getKey(), 0L);
+      }
+      return total;
+    }
+  }
+}
@@ -0,0 +1,449 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import freemarker.template.Configuration;
+
+/**
+ * Persistent record of the inputs and output of every generated file, used to decide whether an output is up to
+ * date based on content hashes instead of timestamps.
+ *
+ * <p>For each output, the manifest stores hashes of the generator file, of the templates (the main template and the
+ * ones it includes or imports, directly or not), of the execution-wide configuration (FreeMarker version and
+ * settings, pom properties) and of the output itself. An output is up to date when all of these still match.
+ * Timestamps are only used to avoid re-hashing an output that has not been touched since it was recorded.</p>
+ *
+ * <p>When renders are tracked with a {@link DataAccessTracker}, the manifest also stores the paths of the data that
+ * the render read, along with a fingerprint of the values found there. An output whose generator file or pom
+ * properties changed is then still up to date when reading the same paths gives the same values, as long as the
+ * FreeMarker version and settings and the templates are unchanged.</p>
+ *
+ * <p>Since it knows which generator file each output comes from, the manifest is also used to delete the outputs of
+ * generator files that were removed or renamed. It also records the files referenced by the data model of each
+ * output, so that incremental builds find the generator files affected by a changed template or referenced file.</p>
+ *
+ * <p>Paths are stored relative to a base directory (normally the project's base directory), so the manifest stays
+ * valid when the project is checked out or restored in another location.</p>
+ *
+ * <p>The checks and updates are thread safe; {@link #load()}, {@link #save()} and {@link #nextBuild()} are not meant
+ * to run concurrently with them.</p>
+ */
+public class BuildManifest {
+
+  static final int VERSION = 1;
+
+  /** Why an output has to be generated again. */
+  public enum Reason {
+    /** There is no record of a previous generation of this output, or its last generation failed. */
+    NEW_OUTPUT,
+    /** The output file was deleted or changed since it was generated. */
+    OUTPUT_CHANGED,
+    /** The FreeMarker version or settings, or the pom properties, changed. */
+    CONFIGURATION_CHANGED,
+    /** The generator file changed. */
+    GENERATOR_CHANGED,
+    /** A template used to generate the output changed. */
+    TEMPLATE_CHANGED
+  }
+
+  private final File file;
+  private final Path baseDirectory;
+  private final String configurationHash;
+  private final String settingsHash;
+  private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+  private final Map<String, Entry> previous = new ConcurrentHashMap<>();
+  private final Map<String, Entry> current = new ConcurrentHashMap<>();
+  private final Map<Path, String> fileHashes = new ConcurrentHashMap<>();
+
+  private BuildManifest(File file, Path baseDirectory, String configurationHash, String settingsHash) {
+    this.file = file;
+    this.baseDirectory = baseDirectory.toAbsolutePath().normalize();
+    this.configurationHash = configurationHash;
+    this.settingsHash = settingsHash;
+  }
+
+  /**
+   * @param file Where the manifest is persisted.
+   * @param baseDirectory Paths are recorded relative to this directory.
+   * @param configurationHash Hash of the execution-wide inputs shared by all outputs.
+   */
+  public static BuildManifest create(File file, Path baseDirectory, String configurationHash) {
+    return new BuildManifest(file, baseDirectory, configurationHash, null);
+  }
+
+  /**
+   * @param settingsHash Hash of the part of the execution-wide inputs that is not data read by templates: the
+   * FreeMarker version and settings. Outputs whose reads were tracked are only checked again when it is unchanged.
+   */
+  public static BuildManifest create(File file, Path baseDirectory, String configurationHash, String settingsHash) {
+    return new BuildManifest(file, baseDirectory, configurationHash, settingsHash);
+  }
+
+  /**
+   * Reads the records of the previous build, if any.
+   * @throws RuntimeException if the manifest exists but can't be read.
+   */
+  public void load() {
+    if (!file.isFile()) {
+      return;
+    }
+    Stored stored;
+    try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+      stored = gson.fromJson(reader, Stored.class);
+    } catch (Throwable t) {
+      throw new RuntimeException("Could not read build manifest: " + file, t);
+    }
+    if (stored != null && stored.version == VERSION && stored.outputs != null) {
+      previous.putAll(stored.outputs);
+    }
+  }
+
+  /**
+   * Writes the records of this build (and the still valid records of previous builds) to the manifest file.
+   * @throws RuntimeException if the manifest can't be written.
+   */
+  public void save() {
+    Stored stored = new Stored();
+    stored.version = VERSION;
+    stored.outputs = new TreeMap<>(previous);
+    stored.outputs.putAll(current);
+    File parentDir = file.getAbsoluteFile().getParentFile();
+    try {
+      parentDir.mkdirs();
+      File tmpFile = File.createTempFile(file.getName(), ".tmp", parentDir);
+      try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8)) {
+        gson.toJson(stored, writer);
+      }
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (Throwable t) {
+      throw new RuntimeException("Could not write build manifest: " + file, t);
+    }
+  }
+
+  /**
+   * Compares the current inputs and output of the generator with the ones recorded when the output was last
+   * generated. If they all match, the record is kept for this build.
+   * @return null if the output is up to date, or else the first reason found to generate it again.
+   */
+  public Reason checkStaleness(OutputGenerator generator) {
+    return checkStaleness(generator, null);
+  }
+
+  /**
+   * Like {@link #checkStaleness(OutputGenerator)}, but an output whose generator file or pom properties changed is
+   * still up to date if the data its render read is unchanged.
+   * @param config The configuration whose shared variables the templates see, null to not check the data read.
+   */
+  public Reason checkStaleness(OutputGenerator generator, Configuration config) {
+    String key = relativize(generator.outputLocation);
+    Entry entry = previous.get(key);
+    if (entry == null || entry.failed) {
+      return Reason.NEW_OUTPUT;
+    }
+    File outputFile = generator.outputLocation.toFile();
+    if (!outputFile.isFile() || outputFile.length() != entry.outputLength) {
+      return Reason.OUTPUT_CHANGED;
+    }
+    long outputModified = outputFile.lastModified();
+    if (outputModified != entry.outputModified) {
+      // Touched, restored from a cache or checked out again: only the content tells.
+      if (!hash(generator.outputLocation).equals(entry.outputHash)) {
+        return Reason.OUTPUT_CHANGED;
+      }
+    }
+    Reason dataReason = null;
+    if (!configurationHash.equals(entry.configurationHash)) {
+      dataReason = Reason.CONFIGURATION_CHANGED;
+    } else if (!generatorHash(generator).equals(entry.generatorHash)) {
+      dataReason = Reason.GENERATOR_CHANGED;
+    }
+    boolean checkDataRead = config != null && entry.dataAccess != null && settingsHash != null
+        && settingsHash.equals(entry.settingsHash);
+    if (dataReason != null && !checkDataRead) {
+      return dataReason;
+    }
+    if (entry.templates == null || !entry.templates.containsKey(relativize(generator.templateLocation))) {
+      return Reason.TEMPLATE_CHANGED;
+    }
+    for (Map.Entry<String, String> template : entry.templates.entrySet()) {
+      if (!hashInput(baseDirectory.resolve(template.getKey())).equals(template.getValue())) {
+        return Reason.TEMPLATE_CHANGED;
+      }
+    }
+    if (dataReason != null) {
+      if (!DataAccessTracker.matches(entry.dataAccess, entry.dataAccessHash, generator.dataModel, config)) {
+        return dataReason;
+      }
+      // The changes don't affect this output: from now on, compare with the new inputs.
+      entry.configurationHash = configurationHash;
+      entry.generatorHash = generatorHash(generator);
+      entry.references = references(generator);
+    }
+    entry.outputModified = outputModified;
+    current.put(key, entry);
+    return null;
+  }
+
+  /**
+   * Starts another build in the same process, such as the next round of the watch goal: the records of this build
+   * become the previous ones, and the inputs are hashed again.
+   */
+  public void nextBuild() {
+    previous.putAll(current);
+    current.clear();
+    fileHashes.clear();
+  }
+
+  /**
+   * @param input A template or a file referenced by data models.
+   * @return The generator files of the outputs recorded as generated with the template, directly or through an
+   * include or import, or with a data model referencing the file, directly or not.
+   */
+  public Set<Path> findGenerators(Path input) {
+    String key = relativize(input);
+    Set<Path> generators = new LinkedHashSet<>();
+    for (Map<String, Entry> entries : Arrays.asList(previous, current)) {
+      for (Entry entry : entries.values()) {
+        if (entry.generator != null && (entry.templates != null && entry.templates.containsKey(key)
+            || entry.references != null && entry.references.contains(key))) {
+          generators.add(baseDirectory.resolve(entry.generator));
+        }
+      }
+    }
+    return generators;
+  }
+
+  /**
+   * @return Every file recorded as referenced by the data model of an output.
+   */
+  public Set<Path> getReferencedFiles() {
+    Set<Path> files = new TreeSet<>();
+    for (Map<String, Entry> entries : Arrays.asList(previous, current)) {
+      for (Entry entry : entries.values()) {
+        if (entry.references != null) {
+          for (String reference : entry.references) {
+            files.add(baseDirectory.resolve(reference).normalize());
+          }
+        }
+      }
+    }
+    return files;
+  }
+
+  /**
+   * @return The first template recorded for the output whose content changed since, or the template of the generator
+   * if it was not recorded.
+   */
+  public Path findChangedTemplate(OutputGenerator generator) {
+    Entry entry = previous.get(relativize(generator.outputLocation));
+    if (entry == null || entry.templates == null || !entry.templates.containsKey(relativize(generator.templateLocation))) {
+      return generator.templateLocation;
+    }
+    for (Map.Entry<String, String> template : entry.templates.entrySet()) {
+      Path path = baseDirectory.resolve(template.getKey());
+      if (!hashInput(path).equals(template.getValue())) {
+        return path;
+      }
+    }
+    return generator.templateLocation;
+  }
+
+  /**
+   * Records the inputs and the output of a generator whose output was just written.
+   * @param loadedTemplates Every template file loaded while processing the template, may be null if unknown.
+   */
+  public void recordGenerated(OutputGenerator generator, Collection<Path> loadedTemplates) {
+    recordGenerated(generator, loadedTemplates, null);
+  }
+
+  /**
+   * Records the inputs and the output of a generator whose output was just written, along with the data read by
+   * the render.
+   * @param tracker The tracker that recorded the render, may be null if it was not tracked.
+   */
+  public void recordGenerated(OutputGenerator generator, Collection<Path> loadedTemplates, DataAccessTracker tracker) {
+    Entry entry = new Entry();
+    entry.generator = relativize(generator.generatorLocation);
+    entry.generatorHash = generatorHash(generator);
+    entry.templates = new TreeMap<>();
+    entry.templates.put(relativize(generator.templateLocation), hashInput(generator.templateLocation));
+    if (loadedTemplates != null) {
+      for (Path template : loadedTemplates) {
+        entry.templates.put(relativize(template), hashInput(template));
+      }
+    }
+    entry.references = references(generator);
+    entry.configurationHash = configurationHash;
+    entry.settingsHash = settingsHash;
+    if (tracker != null && tracker.isTrackable()) {
+      entry.dataAccess = tracker.getPaths();
+      entry.dataAccessHash = tracker.getHash();
+    }
+    File outputFile = generator.outputLocation.toFile();
+    entry.outputHash = hash(generator.outputLocation);
+    entry.outputLength = outputFile.length();
+    entry.outputModified = outputFile.lastModified();
+    current.put(relativize(generator.outputLocation), entry);
+  }
+
+  /**
+   * Marks the output of a generator that failed as never up to date, so that it is generated again by the next build.
+   * The record itself is kept, so that the output file left on disk is still removed once its generator file is.
+   */
+  public void recordFailed(OutputGenerator generator) {
+    String key = relativize(generator.outputLocation);
+    current.remove(key);
+    Entry entry = previous.get(key);
+    if (entry != null) {
+      entry.failed = true;
+    }
+  }
+
+  /**
+   * Deletes the outputs recorded by previous builds whose generator file no longer exists, and forgets them. Outputs
+   * that are not in the manifest are never touched, and neither are the ones whose content changed since they were
+   * generated, such as a file replaced by hand or written by another execution: those are only forgotten. The outputs
+   * a generator file no longer lists are deleted too, as long as the file still produced some output in this build.
+   * @return The deleted output files.
+   */
+  public List<Path> removeOrphanedOutputs() {
+    return removeOrphanedOutputs(Collections.emptySet());
+  }
+
+  /**
+   * Like {@link #removeOrphanedOutputs()}, except that the outputs of the generator files that failed in this build
+   * are kept: a failure stops a generator file before its remaining outputs, which it may still list.
+   * @param failedGenerators The generator files that failed in this build.
+   * @return The deleted output files.
+   */
+  public List<Path> removeOrphanedOutputs(Collection<Path> failedGenerators) {
+    Set<String> failed = new HashSet<>();
+    for (Path generator : failedGenerators) {
+      failed.add(relativize(generator));
+    }
+    Set<String> currentGenerators = new HashSet<>();
+    for (Entry entry : current.values()) {
+      currentGenerators.add(entry.generator);
+    }
+    List<Path> removed = new ArrayList<>();
+    for (Iterator<Map.Entry<String, Entry>> it = previous.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry<String, Entry> record = it.next();
+      String generator = record.getValue().generator;
+      if (current.containsKey(record.getKey()) || generator == null || failed.contains(generator)
+          || (!currentGenerators.contains(generator) && Files.exists(baseDirectory.resolve(generator)))) {
+        continue;
+      }
+      Path output = baseDirectory.resolve(record.getKey());
+      try {
+        if (isGenerated(output, record.getValue()) && Files.deleteIfExists(output)) {
+          removed.add(output);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Could not delete orphaned output file: " + output, e);
+      }
+      it.remove();
+    }
+    return removed;
+  }
+
+  /**
+   * @return Whether the file still has the content recorded when it was generated.
+   */
+  private static boolean isGenerated(Path output, Entry entry) {
+    File outputFile = output.toFile();
+    return entry.outputHash != null && outputFile.isFile() && outputFile.length() == entry.outputLength
+        && entry.outputHash.equals(hash(output));
+  }
+
+  private String generatorHash(OutputGenerator generator) {
+    return generator.generatorFingerprint != null ? generator.generatorFingerprint
+        : hashInput(generator.generatorLocation);
+  }
+
+  /**
+   * @return The files referenced by the data model of the generator, null if there are none.
+   */
+  private List<String> references(OutputGenerator generator) {
+    if (generator.referencedFiles.isEmpty()) {
+      return null;
+    }
+    List<String> references = new ArrayList<>();
+    for (Path file : generator.referencedFiles) {
+      references.add(relativize(file));
+    }
+    Collections.sort(references);
+    return references;
+  }
+
+  /**
+   * Inputs are hashed at most once per build, since many outputs typically share a template.
+   */
+  private String hashInput(Path path) {
+    return fileHashes.computeIfAbsent(path.toAbsolutePath().normalize(), BuildManifest::hash);
+  }
+
+  private static String hash(Path path) {
+    try {
+      return ContentHash.ofFile(path);
+    } catch (IOException e) {
+      // A missing or unreadable input never matches a recorded hash.
+      return "";
+    }
+  }
+
+  private String relativize(Path path) {
+    return baseDirectory.relativize(path.toAbsolutePath().normalize()).toString().replace(File.separatorChar, '/');
+  }
+
+  /** The persisted form of the manifest. */
+  private static class Stored {
+    int version;
+    Map<String, Entry> outputs;
+  }
+
+  /** The persisted record of a single output, keyed by output path. */
+  static class Entry {
+    String generator;
+    String generatorHash;
+    Map<String, String> templates;
+    List<String> references;
+    String configurationHash;
+    String settingsHash;
+    List<List<String>> dataAccess;
+    String dataAccessHash;
+    String outputHash;
+    long outputLength;
+    long outputModified;
+    boolean failed;
+  }
+}
@@ -0,0 +1,81 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import freemarker.template.Configuration;
+
+/**
+ * Process-wide cache of FreeMarker configurations, so that the executions of a reactor build (or of successive
+ * builds in a long-lived Maven daemon) reuse the templates already parsed by each other.
+ *
+ * <p>Configurations are keyed by everything that is set on them: the FreeMarker version, the template directory,
+ * the FreeMarker settings and the shared variables. A cached configuration must not be changed after it is added.
+ * Its template cache checks the template files for changes on every lookup, so a changed template is parsed again.</p>
+ *
+ * <p>The least recently used configurations are evicted beyond {@link #MAX_CONFIGURATIONS}, since keys change with
+ * the pom properties, and a daemon can run many builds.</p>
+ */
+public class ConfigurationCache {
+
+  static final int MAX_CONFIGURATIONS = 32;
+
+  private static final Map<String, Configuration> configurations =
+      new LinkedHashMap<String, Configuration>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Configuration> eldest) {
+          return size() > MAX_CONFIGURATIONS;
+        }
+      };
+
+  private static long hits;
+  private static long misses;
+
+  private ConfigurationCache() {
+  }
+
+  /**
+   * @return The configuration cached for the key, or null if there is none.
+   */
+  public static synchronized Configuration get(String key) {
+    Configuration config = configurations.get(key);
+    if (config == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return config;
+  }
+
+  /**
+   * Adds a fully set up configuration, unless another one was added for the same key in the meantime.
+   * @return The configuration to use for the key.
+   */
+  public static synchronized Configuration put(String key, Configuration config) {
+    Configuration existing = configurations.get(key);
+    if (existing != null) {
+      return existing;
+    }
+    configurations.put(key, config);
+    return config;
+  }
+
+  public static synchronized long getHits() {
+    return hits;
+  }
+
+  public static synchronized long getMisses() {
+    return misses;
+  }
+
+  static synchronized void clear() {
+    configurations.clear();
+    hits = 0;
+    misses = 0;
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * SHA-256 helpers used to fingerprint generation inputs and outputs.
+ */
+public class ContentHash {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private ContentHash() {
+  }
+
+  public static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not supported by this JVM", e);
+    }
+  }
+
+  public static String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+
+  /**
+   * @return The hex encoded hash of the file's content.
+   */
+  public static String ofFile(Path path) throws IOException {
+    MessageDigest digest = newDigest();
+    byte[] buffer = new byte[8192];
+    try (InputStream is = Files.newInputStream(path)) {
+      int read;
+      while ((read = is.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Adds every property to the digest in key order, so that the result does not depend on insertion order.
+   */
+  public static void update(MessageDigest digest, Properties properties) {
+    Map<String, String> sorted = new TreeMap<>();
+    for (String name : properties.stringPropertyNames()) {
+      sorted.put(name, properties.getProperty(name));
+    }
+    for (Map.Entry<String, String> entry : sorted.entrySet()) {
+      update(digest, entry.getKey());
+      update(digest, entry.getValue());
+    }
+  }
+
+  /**
+   * Adds the string to the digest, followed by a separator so that adjacent values can't run together.
+   */
+  public static void update(MessageDigest digest, String value) {
+    digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+  }
+
+  /**
+   * Adds the relative path, size and modification time of every file under the directory to the digest, in path
+   * order. This is much cheaper than hashing the content of the files, and changes whenever a file is added, removed
+   * or written.
+   */
+  public static void updateListing(MessageDigest digest, Path directory) throws IOException {
+    updateListing(digest, directory, null);
+  }
+
+  /**
+   * Like {@link #updateListing(MessageDigest, Path)}, for the files of the directory selected by the filter.
+   * @param filter null to list every file.
+   */
+  public static void updateListing(MessageDigest digest, Path directory, GeneratorFilter filter) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      update(digest, "no directory");
+      return;
+    }
+    Map<String, BasicFileAttributes> files = new TreeMap<>();
+    Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+        return filter == null || filter.isIncludedDirectory(dir) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+        if (attributes.isRegularFile() && (filter == null || filter.isIncludedFile(file))) {
+          files.put(directory.relativize(file).toString().replace(File.separatorChar, '/'), attributes);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    for (Map.Entry<String, BasicFileAttributes> file : files.entrySet()) {
+      update(digest, file.getKey());
+      update(digest, Long.toString(file.getValue().size()));
+      update(digest, Long.toString(file.getValue().lastModifiedTime().toMillis()));
+    }
+  }
+}
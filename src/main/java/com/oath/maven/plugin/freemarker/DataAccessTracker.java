@@ -0,0 +1,574 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import freemarker.template.Configuration;
+import freemarker.template.TemplateBooleanModel;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateCollectionModelEx;
+import freemarker.template.TemplateDateModel;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateMethodModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateModelIterator;
+import freemarker.template.TemplateNumberModel;
+import freemarker.template.TemplateScalarModel;
+import freemarker.template.TemplateSequenceModel;
+import freemarker.template.TemplateTransformModel;
+
+/**
+ * Records which values a render reads from the data model and from the shared variables (such as the pom
+ * properties), so that the next build can tell whether an output is affected by a changed generator file or pom
+ * without rendering it again.
+ *
+ * <p>The root of the data model is wrapped into models that record every path a template looks up, along with a
+ * fingerprint of the value found there: the value itself for scalars, numbers, booleans and dates, only the kind of
+ * container for hashes and sequences. Listing a sequence records its size, or each step of the iteration; listing
+ * the keys or values of a hash records all of them. {@link #matches} then evaluates the same paths against new
+ * inputs.</p>
+ *
+ * <p>Values that can't be fingerprinted, such as methods or Java objects exposed by a bean wrapper, make the render
+ * untrackable: its output is then only up to date if all its inputs are.</p>
+ *
+ * <p>A tracker records a single render, on a single thread.</p>
+ */
+public class DataAccessTracker {
+
+  private static final String KEY = ".";
+  private static final String INDEX = "[";
+  private static final String SIZE = "?size";
+  private static final String EMPTY = "?empty";
+  private static final String KEYS = "?keys";
+  private static final String VALUES = "?values";
+  private static final String HAS_NEXT = "?has";
+
+  private final Map<List<String>, String> accesses = new LinkedHashMap<>();
+  private boolean trackable = true;
+
+  /**
+   * @return The root model to render the template with, which records what is read from the data model, and from
+   * the shared variables of the configuration.
+   */
+  public TemplateHashModel track(Map<String, Object> dataModel, Configuration config) throws TemplateModelException {
+    return new TrackedHashEx(Collections.emptyList(), new RootModel(dataModel, config));
+  }
+
+  /**
+   * @return Whether every value read could be fingerprinted.
+   */
+  public boolean isTrackable() {
+    return trackable;
+  }
+
+  /**
+   * @return The paths read, in the order they were first read.
+   */
+  public List<List<String>> getPaths() {
+    return new ArrayList<>(accesses.keySet());
+  }
+
+  /**
+   * @return The combined fingerprint of the values read.
+   */
+  public String getHash() {
+    MessageDigest digest = ContentHash.newDigest();
+    for (Map.Entry<List<String>, String> access : accesses.entrySet()) {
+      update(digest, access.getKey(), access.getValue());
+    }
+    return ContentHash.toHex(digest.digest());
+  }
+
+  /**
+   * Reads the paths recorded by a previous render from new inputs.
+   * @return Whether the values found have the same combined fingerprint as the one recorded.
+   */
+  public static boolean matches(List<List<String>> paths, String hash, Map<String, Object> dataModel,
+      Configuration config) {
+    try {
+      Replay replay = new Replay(new RootModel(dataModel, config));
+      MessageDigest digest = ContentHash.newDigest();
+      for (List<String> path : paths) {
+        update(digest, path, replay.evaluate(path));
+      }
+      return ContentHash.toHex(digest.digest()).equals(hash);
+    } catch (TemplateModelException | RuntimeException e) {
+      // Whatever can't be read again doesn't match.
+      return false;
+    }
+  }
+
+  private static void update(MessageDigest digest, List<String> path, String fingerprint) {
+    ContentHash.update(digest, String.valueOf(path.size()));
+    for (String step : path) {
+      ContentHash.update(digest, step);
+    }
+    ContentHash.update(digest, fingerprint);
+  }
+
+  private void record(List<String> path, String step, String fingerprint) {
+    if (!trackable) {
+      return;
+    }
+    if (fingerprint == null) {
+      trackable = false;
+      accesses.clear();
+      return;
+    }
+    List<String> child = new ArrayList<>(path.size() + 1);
+    child.addAll(path);
+    child.add(step);
+    accesses.putIfAbsent(child, fingerprint);
+  }
+
+  /**
+   * Records the value found at a path, and wraps it to record what is read from it in turn.
+   */
+  private TemplateModel track(List<String> parent, String step, TemplateModel model) throws TemplateModelException {
+    record(parent, step, fingerprint(model));
+    List<String> path = new ArrayList<>(parent.size() + 1);
+    path.addAll(parent);
+    path.add(step);
+    if (isLeaf(model) || model == null) {
+      return model;
+    } else if (model instanceof TemplateHashModel) {
+      return model instanceof TemplateHashModelEx
+          ? new TrackedHashEx(path, (TemplateHashModelEx) model) : new TrackedHash(path, (TemplateHashModel) model);
+    } else if (model instanceof TemplateSequenceModel) {
+      return model instanceof TemplateCollectionModel
+          ? new TrackedSequenceCollection(path, model) : new TrackedSequence(path, (TemplateSequenceModel) model);
+    } else if (model instanceof TemplateCollectionModelEx) {
+      return new TrackedCollectionEx(path, (TemplateCollectionModelEx) model);
+    } else if (model instanceof TemplateCollectionModel) {
+      return new TrackedCollection(path, (TemplateCollectionModel) model);
+    }
+    return model;
+  }
+
+  private static boolean isLeaf(TemplateModel model) {
+    return (model instanceof TemplateScalarModel || model instanceof TemplateNumberModel
+        || model instanceof TemplateBooleanModel || model instanceof TemplateDateModel)
+        && !(model instanceof TemplateHashModel || model instanceof TemplateSequenceModel
+            || model instanceof TemplateCollectionModel || isCallable(model));
+  }
+
+  /**
+   * @return Whether templates call the value rather than read it.
+   */
+  @SuppressWarnings("deprecation") // Method models that are not TemplateMethodModelEx only have the legacy interface.
+  private static boolean isCallable(TemplateModel model) {
+    return model instanceof TemplateMethodModel || model instanceof TemplateDirectiveModel
+        || model instanceof TemplateTransformModel;
+  }
+
+  /**
+   * @return What a template can tell from the value without reading into it, or null if it can't be fingerprinted.
+   */
+  private static String fingerprint(TemplateModel model) throws TemplateModelException {
+    if (model == null) {
+      return "null";
+    }
+    if (isLeaf(model)) {
+      // Values can be of several types at once, a string that is also a number for instance.
+      StringBuilder fingerprint = new StringBuilder();
+      if (model instanceof TemplateScalarModel) {
+        fingerprint.append("s:").append(((TemplateScalarModel) model).getAsString()).append('\n');
+      }
+      if (model instanceof TemplateNumberModel) {
+        fingerprint.append("n:").append(((TemplateNumberModel) model).getAsNumber()).append('\n');
+      }
+      if (model instanceof TemplateBooleanModel) {
+        fingerprint.append("b:").append(((TemplateBooleanModel) model).getAsBoolean()).append('\n');
+      }
+      if (model instanceof TemplateDateModel) {
+        TemplateDateModel date = (TemplateDateModel) model;
+        fingerprint.append("d:").append(date.getDateType()).append(':').append(date.getAsDate().getTime());
+      }
+      return fingerprint.toString();
+    }
+    if (isCallable(model)) {
+      return null;
+    }
+    boolean hash = model instanceof TemplateHashModel;
+    boolean sequence = model instanceof TemplateSequenceModel || model instanceof TemplateCollectionModel;
+    if (hash == sequence) {
+      // Both a hash and a sequence, or neither a container nor a plain value.
+      return null;
+    }
+    return hash ? "hash" : "sequence";
+  }
+
+  /**
+   * @return A fingerprint of the value and of everything it contains, or null if some of it can't be fingerprinted.
+   */
+  private static String deepFingerprint(TemplateModel model) throws TemplateModelException {
+    MessageDigest digest = ContentHash.newDigest();
+    return updateDeep(digest, model) ? ContentHash.toHex(digest.digest()) : null;
+  }
+
+  private static boolean updateDeep(MessageDigest digest, TemplateModel model) throws TemplateModelException {
+    String fingerprint = fingerprint(model);
+    if (fingerprint == null) {
+      return false;
+    }
+    ContentHash.update(digest, fingerprint);
+    if (model instanceof TemplateHashModel) {
+      if (!(model instanceof TemplateHashModelEx)) {
+        return false;
+      }
+      TemplateHashModelEx hash = (TemplateHashModelEx) model;
+      for (TemplateModelIterator it = hash.keys().iterator(); it.hasNext(); ) {
+        String key = ((TemplateScalarModel) it.next()).getAsString();
+        ContentHash.update(digest, key);
+        if (!updateDeep(digest, hash.get(key))) {
+          return false;
+        }
+      }
+    } else if (model instanceof TemplateSequenceModel) {
+      TemplateSequenceModel sequence = (TemplateSequenceModel) model;
+      int size = sequence.size();
+      ContentHash.update(digest, String.valueOf(size));
+      for (int i = 0; i < size; i++) {
+        if (!updateDeep(digest, sequence.get(i))) {
+          return false;
+        }
+      }
+    } else if (model instanceof TemplateCollectionModel) {
+      for (TemplateModelIterator it = ((TemplateCollectionModel) model).iterator(); it.hasNext(); ) {
+        if (!updateDeep(digest, it.next())) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static String keysFingerprint(TemplateHashModelEx hash) throws TemplateModelException {
+    MessageDigest digest = ContentHash.newDigest();
+    for (TemplateModelIterator it = hash.keys().iterator(); it.hasNext(); ) {
+      ContentHash.update(digest, ((TemplateScalarModel) it.next()).getAsString());
+    }
+    return ContentHash.toHex(digest.digest());
+  }
+
+  /**
+   * The root of the data model: the wrapped data model, falling back to the shared variables of the configuration
+   * like FreeMarker does.
+   */
+  private static class RootModel implements TemplateHashModelEx {
+    private final TemplateHashModel data;
+    private final Configuration config;
+
+    RootModel(Map<String, Object> dataModel, Configuration config) throws TemplateModelException {
+      TemplateModel wrapped = config.getObjectWrapper().wrap(dataModel);
+      if (!(wrapped instanceof TemplateHashModel)) {
+        throw new TemplateModelException("The data model is not wrapped into a hash");
+      }
+      this.data = (TemplateHashModel) wrapped;
+      this.config = config;
+    }
+
+    @Override
+    public TemplateModel get(String key) throws TemplateModelException {
+      TemplateModel value = data.get(key);
+      return value != null ? value : config.getSharedVariable(key);
+    }
+
+    @Override
+    public boolean isEmpty() throws TemplateModelException {
+      return data.isEmpty();
+    }
+
+    @Override
+    public int size() throws TemplateModelException {
+      return ex().size();
+    }
+
+    @Override
+    public TemplateCollectionModel keys() throws TemplateModelException {
+      return ex().keys();
+    }
+
+    @Override
+    public TemplateCollectionModel values() throws TemplateModelException {
+      return ex().values();
+    }
+
+    private TemplateHashModelEx ex() throws TemplateModelException {
+      if (!(data instanceof TemplateHashModelEx)) {
+        throw new TemplateModelException("The data model can't list its keys");
+      }
+      return (TemplateHashModelEx) data;
+    }
+  }
+
+  private class TrackedHash implements TemplateHashModel {
+    final List<String> path;
+    private final TemplateHashModel delegate;
+
+    TrackedHash(List<String> path, TemplateHashModel delegate) {
+      this.path = path;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public TemplateModel get(String key) throws TemplateModelException {
+      return track(path, KEY + key, delegate.get(key));
+    }
+
+    @Override
+    public boolean isEmpty() throws TemplateModelException {
+      boolean empty = delegate.isEmpty();
+      record(path, EMPTY, String.valueOf(empty));
+      return empty;
+    }
+  }
+
+  private class TrackedHashEx extends TrackedHash implements TemplateHashModelEx {
+    private final TemplateHashModelEx delegate;
+
+    TrackedHashEx(List<String> path, TemplateHashModelEx delegate) {
+      super(path, delegate);
+      this.delegate = delegate;
+    }
+
+    @Override
+    public int size() throws TemplateModelException {
+      int size = delegate.size();
+      record(path, SIZE, String.valueOf(size));
+      return size;
+    }
+
+    @Override
+    public TemplateCollectionModel keys() throws TemplateModelException {
+      record(path, KEYS, keysFingerprint(delegate));
+      return delegate.keys();
+    }
+
+    @Override
+    public TemplateCollectionModel values() throws TemplateModelException {
+      record(path, VALUES, deepFingerprint(delegate));
+      return delegate.values();
+    }
+  }
+
+  private class TrackedSequence implements TemplateSequenceModel {
+    final List<String> path;
+    private final TemplateSequenceModel delegate;
+
+    TrackedSequence(List<String> path, TemplateSequenceModel delegate) {
+      this.path = path;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public TemplateModel get(int index) throws TemplateModelException {
+      return track(path, INDEX + index, delegate.get(index));
+    }
+
+    @Override
+    public int size() throws TemplateModelException {
+      int size = delegate.size();
+      record(path, SIZE, String.valueOf(size));
+      return size;
+    }
+  }
+
+  private class TrackedSequenceCollection extends TrackedSequence implements TemplateCollectionModel {
+    private final TemplateCollectionModel delegate;
+
+    TrackedSequenceCollection(List<String> path, TemplateModel delegate) {
+      super(path, (TemplateSequenceModel) delegate);
+      this.delegate = (TemplateCollectionModel) delegate;
+    }
+
+    @Override
+    public TemplateModelIterator iterator() throws TemplateModelException {
+      return new TrackedIterator(path, delegate.iterator());
+    }
+  }
+
+  private class TrackedCollection implements TemplateCollectionModel {
+    final List<String> path;
+    private final TemplateCollectionModel delegate;
+
+    TrackedCollection(List<String> path, TemplateCollectionModel delegate) {
+      this.path = path;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public TemplateModelIterator iterator() throws TemplateModelException {
+      return new TrackedIterator(path, delegate.iterator());
+    }
+  }
+
+  private class TrackedCollectionEx extends TrackedCollection implements TemplateCollectionModelEx {
+    private final TemplateCollectionModelEx delegate;
+
+    TrackedCollectionEx(List<String> path, TemplateCollectionModelEx delegate) {
+      super(path, delegate);
+      this.delegate = delegate;
+    }
+
+    @Override
+    public int size() throws TemplateModelException {
+      int size = delegate.size();
+      record(path, SIZE, String.valueOf(size));
+      return size;
+    }
+
+    @Override
+    public boolean isEmpty() throws TemplateModelException {
+      boolean empty = delegate.isEmpty();
+      record(path, EMPTY, String.valueOf(empty));
+      return empty;
+    }
+
+    @Override
+    public boolean contains(TemplateModel item) throws TemplateModelException {
+      record(path, VALUES, deepFingerprint(delegate));
+      return delegate.contains(item);
+    }
+  }
+
+  private class TrackedIterator implements TemplateModelIterator {
+    private final List<String> path;
+    private final TemplateModelIterator delegate;
+    private int index;
+
+    TrackedIterator(List<String> path, TemplateModelIterator delegate) {
+      this.path = path;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean hasNext() throws TemplateModelException {
+      boolean hasNext = delegate.hasNext();
+      record(path, HAS_NEXT + index, String.valueOf(hasNext));
+      return hasNext;
+    }
+
+    @Override
+    public TemplateModel next() throws TemplateModelException {
+      return track(path, INDEX + index++, delegate.next());
+    }
+  }
+
+  /**
+   * Evaluates recorded paths one after the other. Consecutive paths usually share a long prefix (the elements of a
+   * list, the fields of an element), which is only navigated once; collections are iterated forward as far as
+   * needed, and only iterated again from the start when an earlier element is read.
+   */
+  private static class Replay {
+    private final List<String> steps = new ArrayList<>();
+    private final List<Frame> frames = new ArrayList<>();
+
+    Replay(TemplateModel root) {
+      frames.add(new Frame(root));
+    }
+
+    String evaluate(List<String> path) throws TemplateModelException {
+      String last = path.get(path.size() - 1);
+      boolean operation = last.startsWith("?");
+      int depth = operation ? path.size() - 1 : path.size();
+      int common = 0;
+      while (common < depth && common < steps.size() && steps.get(common).equals(path.get(common))) {
+        common++;
+      }
+      while (steps.size() > common) {
+        steps.remove(steps.size() - 1);
+        frames.remove(frames.size() - 1);
+      }
+      for (int i = common; i < depth; i++) {
+        TemplateModel child = frames.get(frames.size() - 1).child(path.get(i));
+        steps.add(path.get(i));
+        frames.add(new Frame(child));
+      }
+      Frame frame = frames.get(frames.size() - 1);
+      return operation ? frame.apply(last) : fingerprint(frame.model);
+    }
+  }
+
+  private static class Frame {
+    final TemplateModel model;
+    private TemplateModelIterator iterator;
+    private int position;
+    private TemplateModel current;
+
+    Frame(TemplateModel model) {
+      this.model = model;
+    }
+
+    TemplateModel child(String step) throws TemplateModelException {
+      if (step.startsWith(KEY) && model instanceof TemplateHashModel) {
+        return ((TemplateHashModel) model).get(step.substring(KEY.length()));
+      }
+      if (step.startsWith(INDEX)) {
+        int index = Integer.parseInt(step.substring(INDEX.length()));
+        if (model instanceof TemplateSequenceModel) {
+          TemplateSequenceModel sequence = (TemplateSequenceModel) model;
+          return index < sequence.size() ? sequence.get(index) : null;
+        }
+        if (model instanceof TemplateCollectionModel && advanceTo(index)) {
+          return current;
+        }
+      }
+      throw new TemplateModelException("Can't read " + step);
+    }
+
+    String apply(String operation) throws TemplateModelException {
+      if (SIZE.equals(operation)) {
+        if (model instanceof TemplateSequenceModel) {
+          return String.valueOf(((TemplateSequenceModel) model).size());
+        } else if (model instanceof TemplateHashModelEx) {
+          return String.valueOf(((TemplateHashModelEx) model).size());
+        } else if (model instanceof TemplateCollectionModelEx) {
+          return String.valueOf(((TemplateCollectionModelEx) model).size());
+        }
+      } else if (EMPTY.equals(operation)) {
+        if (model instanceof TemplateHashModel) {
+          return String.valueOf(((TemplateHashModel) model).isEmpty());
+        } else if (model instanceof TemplateCollectionModelEx) {
+          return String.valueOf(((TemplateCollectionModelEx) model).isEmpty());
+        }
+      } else if (KEYS.equals(operation) && model instanceof TemplateHashModelEx) {
+        return keysFingerprint((TemplateHashModelEx) model);
+      } else if (VALUES.equals(operation)) {
+        return deepFingerprint(model);
+      } else if (operation.startsWith(HAS_NEXT) && model instanceof TemplateCollectionModel) {
+        return String.valueOf(advanceTo(Integer.parseInt(operation.substring(HAS_NEXT.length()))));
+      }
+      throw new TemplateModelException("Can't evaluate " + operation);
+    }
+
+    /**
+     * Moves the iteration of the collection to the element at the index.
+     * @return Whether there is such an element.
+     */
+    private boolean advanceTo(int index) throws TemplateModelException {
+      if (iterator == null || index < position - 1) {
+        iterator = ((TemplateCollectionModel) model).iterator();
+        position = 0;
+      }
+      while (position <= index) {
+        if (!iterator.hasNext()) {
+          return false;
+        }
+        current = iterator.next();
+        position++;
+      }
+      return true;
+    }
+  }
+}
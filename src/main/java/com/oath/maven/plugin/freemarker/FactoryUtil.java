@@ -17,7 +17,7 @@ import freemarker.template.Version;
 public class FactoryUtil {
 
   public static Configuration createConfiguration(String freeMarkerVersion) {
-    return new Configuration(new Version(freeMarkerVersion));
+    return new TrackingConfiguration(new Version(freeMarkerVersion));
   }
 
   public static File createFile(File parent, String child) {
@@ -4,21 +4,42 @@
 package com.oath.maven.plugin.freemarker;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
+import org.codehaus.plexus.util.Scanner;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
 import freemarker.cache.FileTemplateLoader;
 import freemarker.template.Configuration;
 
@@ -41,14 +62,129 @@ public class FreeMarkerMojo extends AbstractMojo {
   @Parameter(defaultValue = "target/generated-sources/freemarker")
   private File outputDirectory;
 
+  /**
+   * Ant-style patterns, relative to the generatorDirectory, of the generator files to process, such as
+   * <code>api/**&#47;*.json</code>. Defaults to every file. Directories that can't hold an included file are not walked.
+   */
+  @Parameter
+  private List<String> includes;
+
+  /**
+   * Ant-style patterns, relative to the generatorDirectory, of the files to leave out, such as <code>shared/**</code>.
+   * Excluded directories are not walked.
+   */
+  @Parameter
+  private List<String> excludes;
+
+  /**
+   * Json files loaded once and visible to every template as a shared variable named after the file, without its
+   * extension (<code>countries.json</code> is visible as <code>countries</code>).
+   */
+  @Parameter
+  private List<File> sharedDataFiles;
+
+  /**
+   * How json generator files are parsed: MAP parses the whole file into memory, STREAMING keeps arrays on disk
+   * and streams them each time a template lists them, PRIMITIVE_ARRAYS is like MAP but keeps arrays of numbers as
+   * primitive lists, TEMPLATE_MODEL is like MAP but parses data models straight into FreeMarker template models.
+   */
+  @Parameter(defaultValue = "MAP")
+  private JsonPropertiesProvider.ParsingMode jsonParsingMode;
+
+  /**
+   * Maximum size, in megabytes, of the cache of parsed json generator files kept in the state directory. A generator
+   * file whose content is unchanged since a previous build is decoded from the cache instead of being parsed again.
+   * Only used by the MAP parsing mode. Disabled by default (0).
+   */
+  @Parameter(defaultValue = "0")
+  private int parsedDataCacheSize;
+
+  /**
+   * Maximum total size, in megabytes of json source, of the files referenced with <code>$ref</code> by json data
+   * models that are kept parsed in memory, so that each one is parsed once per build however many data models
+   * reference it. The parsed files take several times their source size in memory.
+   */
+  @Parameter(defaultValue = "64")
+  private int referencedDataCacheSize;
+
+  /**
+   * Keep the FreeMarker configuration, and so the parsed templates, in a process-wide cache shared with the other
+   * executions (and modules) that have the same settings, template directory, pom properties and shared data.
+   */
+  @Parameter(defaultValue = "false")
+  private boolean cacheConfiguration;
+
+  /** Generate files on a pool of worker threads instead of on the Maven thread. */
+  @Parameter(defaultValue = "false")
+  private boolean parallel;
+
+  /** Number of worker threads used when parallel is set. Defaults to the number of available processors. */
+  @Parameter
+  private int threadCount;
+
+  /**
+   * Render outputs in memory and only replace output files whose content changed, so that their timestamps are kept
+   * and downstream incremental tools (such as the compiler) don't see a change.
+   */
+  @Parameter(defaultValue = "false")
+  private boolean writeIfChanged;
+
+  /** Charset of the generated files. Defaults to the project's source encoding, or the platform encoding if unset. */
+  @Parameter(defaultValue = "${project.build.sourceEncoding}")
+  private String outputEncoding;
+
+  /**
+   * Record which data each render reads, so that an output is kept when its generator file or the pom properties
+   * change in ways it doesn't read.
+   */
+  @Parameter(defaultValue = "false")
+  private boolean trackDataAccess;
+
+  /**
+   * Skip the execution altogether when none of its inputs changed since its last successful run: the generator and
+   * template directories, the pom, its properties, the shared data files, the FreeMarker settings, the plugin version
+   * and configuration, and the output directory itself. Files are compared by size and modification time, so an edit
+   * that keeps both goes unnoticed.
+   */
+  @Parameter(defaultValue = "false")
+  private boolean skipIfUnchanged;
+
+  /**
+   * Delete previously generated files whose generator file no longer exists, unless their content changed since they
+   * were generated. Each deleted file is logged.
+   */
+  @Parameter(defaultValue = "false")
+  private boolean removeOrphanedOutputs;
+
+  /**
+   * Only find out which outputs are stale, without generating anything. Each stale output is logged along with the
+   * reason and the input that makes it stale, and the plan is written to
+   * <code>&lt;stateDirectory&gt;/&lt;execution id&gt;-plan.json</code>. The state kept between builds is left as is,
+   * and the parsed data cache is not used.
+   */
+  @Parameter(property = "freemarker.dryRun", defaultValue = "false")
+  private boolean dryRun;
+
+  /** Directory where state is kept between builds, such as the manifest used to skip up to date outputs. */
+  @Parameter(defaultValue = "target/freemarker-maven-plugin")
+  private File stateDirectory;
+
   @Parameter(defaultValue = "${session}", readonly = true)
   private MavenSession session;
 
   @Parameter(defaultValue = "${mojoExecution}", readonly = true)
   private MojoExecution mojo;
 
+  @Parameter(defaultValue = "${plugin}", readonly = true)
+  private PluginDescriptor plugin;
+
+  /** Tells which files changed since the last build, and gets told which files were written, when run by an IDE. */
+  @Component
+  private BuildContext buildContext;
+
   @Override
   public void execute() throws MojoExecutionException, MojoFailureException {
+    GenerationStatistics statistics = new GenerationStatistics();
 
     if (freeMarkerVersion == null || freeMarkerVersion.length() == 0) {
       throw new MojoExecutionException("freeMarkerVersion is required");
@@ -58,52 +194,565 @@ public class FreeMarkerMojo extends AbstractMojo {
       throw new MojoExecutionException("Required directory does not exist: " + generatorDirectory);
     }
 
-    Configuration config = FactoryUtil.createConfiguration(freeMarkerVersion);
-
-    config.setDefaultEncoding("UTF-8");
-
     if (!templateDirectory.isDirectory()) {
       throw new MojoExecutionException("Required directory does not exist: " + templateDirectory);
     }
+
+    GeneratorFilter generatorFilter = GeneratorFilter.create(generatorDirectory, includes, excludes);
+
+    Charset outputCharset;
     try {
-      config.setTemplateLoader(new FileTemplateLoader(templateDirectory));
-    } catch (Throwable t) {
-      getLog().error("Could not establish file template loader for directory: " + templateDirectory, t);
-      throw new MojoExecutionException("Could not establish file template loader for directory: " + templateDirectory);
+      outputCharset = outputEncoding == null || outputEncoding.isEmpty()
+          ? Charset.defaultCharset() : Charset.forName(outputEncoding);
+    } catch (IllegalArgumentException e) {
+      throw new MojoExecutionException("Unsupported output encoding: " + outputEncoding);
     }
 
+    // Fingerprint of the inputs shared by all outputs: changing any of them regenerates everything, except for the
+    // data (pom properties and shared data files) when the data read by the renders is tracked.
+    MessageDigest settingsDigest = ContentHash.newDigest();
+    ContentHash.update(settingsDigest, freeMarkerVersion);
+    ContentHash.update(settingsDigest, outputCharset.name());
+
     File freeMarkerProps = FactoryUtil.createFile(sourceDirectory, "freemarker.properties");
+    Properties configProperties = null;
     if (freeMarkerProps.isFile()) {
-      Properties configProperties = new Properties();
+      configProperties = new Properties();
       try (InputStream is = FactoryUtil.createFileInputStream(freeMarkerProps)) {
         configProperties.load(is);
       } catch (Throwable t) {
         getLog().error("Failed to load " + freeMarkerProps, t);
         throw new MojoExecutionException("Failed to load " + freeMarkerProps);
       }
-      try {
-        config.setSettings(configProperties);
-      } catch (Throwable t) {
-        getLog().error("Invalid setting(s) in " + freeMarkerProps, t);
-        throw new MojoExecutionException("Invalid setting(s) in " + freeMarkerProps);
+      ContentHash.update(settingsDigest, configProperties);
+    }
+    String settingsHash = ContentHash.toHex(settingsDigest.digest());
+
+    MessageDigest configurationDigest = ContentHash.newDigest();
+    ContentHash.update(configurationDigest, settingsHash);
+    Properties pomProperties = session.getCurrentProject().getProperties();
+    ContentHash.update(configurationDigest, pomProperties);
+
+    long sharedDataLastModified = 0;
+    Map<String, File> sharedData = new LinkedHashMap<>();
+    if (sharedDataFiles != null) {
+      for (File dataFile : sharedDataFiles) {
+        String name = SharedVariables.variableName(dataFile);
+        if (SharedVariables.POM_PROPERTIES.equals(name) || sharedData.put(name, dataFile) != null) {
+          throw new MojoExecutionException("Duplicate shared variable name '" + name + "' for shared data file: " + dataFile);
+        }
+        try {
+          ContentHash.update(configurationDigest, name);
+          ContentHash.update(configurationDigest, ContentHash.ofFile(dataFile.toPath()));
+        } catch (Throwable t) {
+          getLog().error("Failed to load shared data file: " + dataFile, t);
+          throw new MojoExecutionException("Failed to load shared data file: " + dataFile);
+        }
+        sharedDataLastModified = Math.max(sharedDataLastModified, dataFile.lastModified());
       }
     }
-    
+    String configurationHash = ContentHash.toHex(configurationDigest.digest());
+
     if ("generate-sources".equals(mojo.getLifecyclePhase())) {
       session.getCurrentProject().addCompileSourceRoot(outputDirectory.toString());
     } else if ("generate-test-sources".equals(mojo.getLifecyclePhase())) {
       session.getCurrentProject().addTestCompileSourceRoot(outputDirectory.toString());
     }
 
-    Map<String, OutputGeneratorPropertiesProvider> extensionToBuilders = new HashMap<>(1);
-    extensionToBuilders.put(".json", JsonPropertiesProvider.create(generatorDirectory,templateDirectory,outputDirectory));
+    BuildManifest manifest = null;
+    Set<Path> changedFiles = null;
+    if (buildContext != null && buildContext.isIncremental()) {
+      // The files referenced by the data models are only known from the manifest.
+      manifest = createBuildManifest(configurationHash, settingsHash);
+      changedFiles = findChangedFiles(freeMarkerProps, manifest);
+      if (changedFiles != null && changedFiles.isEmpty()) {
+        getLog().info("Skipping generation, no generator, template or referenced file changed");
+        return;
+      }
+    }
 
-    GeneratingFileVisitor fileVisitor = GeneratingFileVisitor.create(config, session, extensionToBuilders);
+    File fingerprintFile = FactoryUtil.createFile(stateDirectory, getExecutionId() + "-inputs.sha256");
+    String inputsHash = null;
+    if (skipIfUnchanged && !isWatching()) {
+      inputsHash = hashInputs(configurationHash, generatorFilter);
+      if (inputsHash != null && isUpToDate(fingerprintFile, inputsHash)) {
+        if (dryRun) {
+          savePlan(new GenerationPlan(), 0);
+          getLog().info("Dry run: no input changed since the last build, no output would be generated");
+        } else {
+          getLog().info("Skipping generation, no input changed since the last build");
+        }
+        return;
+      }
+      if (!dryRun) {
+        // A failed run must not be skipped by the next build.
+        fingerprintFile.delete();
+      }
+    }
+
+    Configuration config = null;
+    String cacheKey = configurationHash + File.pathSeparator + templateDirectory.getAbsolutePath();
+    if (cacheConfiguration) {
+      config = ConfigurationCache.get(cacheKey);
+    }
+    if (config == null) {
+      config = createConfiguration(freeMarkerProps, configProperties, pomProperties, sharedData);
+      if (cacheConfiguration || isWatching()) {
+        // Cached or watched templates outlive this build: check them for changes on every lookup.
+        config.setTemplateUpdateDelayMilliseconds(0);
+      }
+      if (cacheConfiguration) {
+        config = ConfigurationCache.put(cacheKey, config);
+      }
+    }
+
+    ParsedDataCache dataCache = parsedDataCacheSize > 0 && !dryRun
+        ? ParsedDataCache.create(FactoryUtil.createFile(stateDirectory, "parsed-data"), parsedDataCacheSize * 1024L * 1024L)
+        : null;
+    Map<String, OutputGeneratorPropertiesProvider> extensionToBuilders = new HashMap<>(3);
+    JsonPropertiesProvider.ParsingMode parsingMode = jsonParsingMode == null
+        ? JsonPropertiesProvider.ParsingMode.MAP : jsonParsingMode;
+    ReferencedDataCache referencedData = JsonPropertiesProvider.createReferencedDataCache(
+        referencedDataCacheSize * 1024L * 1024L, parsingMode);
+    extensionToBuilders.put(".json", JsonPropertiesProvider.create(generatorDirectory,templateDirectory,outputDirectory,
+        parsingMode, dataCache, referencedData, config.getObjectWrapper()));
+    extensionToBuilders.put(".csv", RecordFilePropertiesProvider.create(templateDirectory, outputDirectory,
+        RecordFilePropertiesProvider.Format.CSV));
+    extensionToBuilders.put(".jsonl", RecordFilePropertiesProvider.create(templateDirectory, outputDirectory,
+        RecordFilePropertiesProvider.Format.JSON_LINES));
+
+    if (manifest == null) {
+      manifest = createBuildManifest(configurationHash, settingsHash);
+    }
+    GenerationPlan plan = dryRun ? new GenerationPlan() : null;
+    GenerationContext.GenerationContextBuilder contextBuilder = GenerationContext.builder()
+        .addBuildManifest(manifest)
+        .addWriteIfChanged(writeIfChanged)
+        .addTrackDataAccess(trackDataAccess)
+        .addSharedDataLastModified(sharedDataLastModified)
+        .addStatistics(statistics)
+        .addOutputEncoding(outputCharset)
+        .addGeneratorFilter(generatorFilter)
+        .addPlan(plan)
+        .addBuildContext(buildContext);
+    ExecutorService executor = null;
+    if (parallel) {
+      int threads = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+      executor = Executors.newFixedThreadPool(threads);
+      contextBuilder.addExecutor(executor);
+    }
+
+    GenerationContext context = contextBuilder.create();
+    GeneratingFileVisitor fileVisitor = GeneratingFileVisitor.create(config, session, extensionToBuilders, context);
+    long templateLookups = getTemplateLookups(config);
+    long parsedTemplates = getParsedTemplates(config);
     try {
-      Files.walkFileTree(generatorDirectory.toPath(), fileVisitor);
+      if (changedFiles == null) {
+        Files.walkFileTree(generatorDirectory.toPath(), fileVisitor);
+        fileVisitor.awaitCompletion();
+      } else {
+        Set<Path> failed = processGeneratorFiles(fileVisitor,
+            getAffectedGeneratorFiles(changedFiles, manifest, generatorFilter));
+        if (!failed.isEmpty()) {
+          throw new RuntimeException(failed.size() + " generator file(s) failed: " + failed);
+        }
+      }
+      if (plan != null) {
+        logPlan(plan, statistics.getSkippedOutputs());
+        savePlan(plan, statistics.getSkippedOutputs());
+        return;
+      }
+      getLog().info(statistics.summary(getTemplateLookups(config) - templateLookups,
+          getParsedTemplates(config) - parsedTemplates));
+      if (cacheConfiguration) {
+        logCacheStatistics(getTemplateLookups(config) - templateLookups, getParsedTemplates(config) - parsedTemplates);
+      }
+      if (writeIfChanged) {
+        getLog().info("Skipped writing " + context.getUnchangedWrites() + " unchanged output file(s)");
+      }
+      if (removeOrphanedOutputs) {
+        List<Path> removed = manifest.removeOrphanedOutputs();
+        for (Path output : removed) {
+          getLog().info("Removed orphaned output file: " + output);
+          context.refresh(output.toFile());
+        }
+        if (!removed.isEmpty()) {
+          getLog().info("Removed " + removed.size() + " output file(s) whose generator file no longer exists");
+        }
+      }
+      if (inputsHash != null) {
+        saveInputsFingerprint(fingerprintFile, inputsHash, referencedData.getReferencedFiles());
+      }
+      if (isWatching()) {
+        saveBuildManifest(manifest);
+        watch(fileVisitor, manifest, generatorFilter);
+      }
     } catch (Throwable t) {
       getLog().error("Failed to process files in generator dir: " + generatorDirectory, t);
       throw new MojoExecutionException("Failed to process files in generator dir: " + generatorDirectory);
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+      if (dataCache != null) {
+        evictParsedData(dataCache, statistics);
+      }
+      getLog().debug("Referenced data: " + referencedData.getHits() + " of "
+          + (referencedData.getHits() + referencedData.getMisses()) + " reference(s) served without parsing");
+      if (!dryRun) {
+        saveBuildManifest(manifest);
+        saveStatistics(statistics, getTemplateLookups(config) - templateLookups, getParsedTemplates(config) - parsedTemplates);
+      }
+    }
+  }
+
+  /**
+   * @return Whether to keep generating the outputs affected by each change after generating, see
+   * {@link FreeMarkerWatchMojo}.
+   */
+  boolean isWatching() {
+    return false;
+  }
+
+  /**
+   * @return How long to wait for more changes after a change, before generating, when watching.
+   */
+  long getDebounceMillis() {
+    return 0;
+  }
+
+  /**
+   * Generates the outputs affected by each change of the template and generator directories, with the same
+   * configuration, until the thread is interrupted. A generator file that fails is processed again with the next
+   * change, as its outputs are no longer up to date, and none of its outputs is removed as orphaned until it succeeds.
+   */
+  private void watch(GeneratingFileVisitor fileVisitor, BuildManifest manifest, GeneratorFilter generatorFilter)
+      throws IOException {
+    try (GenerationWatcher watcher = GenerationWatcher.create(generatorDirectory, templateDirectory, generatorFilter)) {
+      watcher.watchReferencedFiles(manifest.getReferencedFiles());
+      getLog().info("Watching " + templateDirectory + " and " + generatorDirectory + " for changes");
+      Set<Path> failed = new LinkedHashSet<>();
+      GenerationWatcher.Changes changes;
+      while ((changes = watcher.awaitChanges(getDebounceMillis())) != null) {
+        long start = System.nanoTime();
+        manifest.nextBuild();
+        Set<Path> generatorFiles = changes.getAffectedGeneratorFiles(manifest);
+        generatorFiles.addAll(failed);
+        failed.clear();
+        // The generator files that failed can't be told apart when walking the whole directory.
+        boolean walkFailed = false;
+        if (changes.overflow) {
+          getLog().info("Too many changes to follow, processing every generator file");
+          try {
+            Files.walkFileTree(generatorDirectory.toPath(), fileVisitor);
+            fileVisitor.awaitCompletion();
+          } catch (Throwable t) {
+            walkFailed = true;
+            getLog().error("Failed to process files in generator dir: " + generatorDirectory, t);
+          }
+        } else {
+          failed.addAll(processGeneratorFiles(fileVisitor, generatorFiles));
+        }
+        if (removeOrphanedOutputs && !walkFailed) {
+          for (Path output : manifest.removeOrphanedOutputs(failed)) {
+            getLog().info("Removed orphaned output file: " + output);
+          }
+        }
+        saveBuildManifest(manifest);
+        watcher.watchReferencedFiles(manifest.getReferencedFiles());
+        long now = System.nanoTime();
+        getLog().info("Processed " + generatorFiles.size() + " generator file(s) for " + changes.size()
+            + " changed file(s) in " + (now - start) / 1_000_000 + " ms, "
+            + (now - changes.firstChangeNanos) / 1_000_000 + " ms after the first change");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Processes the generator files that still exist, and logs the ones that fail.
+   * @return The generator files that failed, all of them if the failures can't be told apart.
+   */
+  private Set<Path> processGeneratorFiles(GeneratingFileVisitor fileVisitor, Collection<Path> generatorFiles) {
+    Set<Path> failed = new LinkedHashSet<>();
+    for (Path generatorFile : generatorFiles) {
+      if (!Files.isRegularFile(generatorFile)) {
+        continue;
+      }
+      try {
+        fileVisitor.visitFile(generatorFile, Files.readAttributes(generatorFile, BasicFileAttributes.class));
+      } catch (Throwable t) {
+        failed.add(generatorFile);
+        getLog().error("Failed to process generator file: " + generatorFile, t);
+      }
+    }
+    try {
+      fileVisitor.awaitCompletion();
+    } catch (Throwable t) {
+      failed.addAll(generatorFiles);
+      getLog().error(t.getMessage(), t);
+    }
+    return failed;
+  }
+
+  /**
+   * With a build context that builds incrementally, such as the one of an IDE, finds the generator, template and
+   * referenced files created, changed or deleted since its previous build.
+   * @param manifest Knows the files referenced by the data models of the previous builds.
+   * @return The changed files, null if every generator file has to be processed: when the pom,
+   * <code>freemarker.properties</code> or a shared data file changed.
+   */
+  private Set<Path> findChangedFiles(File freeMarkerProps, BuildManifest manifest) {
+    List<File> sharedInputs = new ArrayList<>();
+    sharedInputs.add(session.getCurrentProject().getFile());
+    sharedInputs.add(freeMarkerProps);
+    if (sharedDataFiles != null) {
+      sharedInputs.addAll(sharedDataFiles);
+    }
+    for (File input : sharedInputs) {
+      if (input != null && buildContext.hasDelta(input)) {
+        return null;
+      }
+    }
+    Set<Path> changed = new LinkedHashSet<>();
+    for (File directory : Arrays.asList(generatorDirectory, templateDirectory)) {
+      for (Scanner scanner : Arrays.asList(buildContext.newScanner(directory), buildContext.newDeleteScanner(directory))) {
+        scanner.scan();
+        for (String file : scanner.getIncludedFiles()) {
+          changed.add(directory.toPath().resolve(file).toAbsolutePath().normalize());
+        }
+      }
+    }
+    for (Path referencedFile : manifest.getReferencedFiles()) {
+      if (buildContext.hasDelta(referencedFile.toFile())) {
+        changed.add(referencedFile);
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * @return The changed generator files, along with the ones whose outputs were generated with a changed template or
+   * referenced file. A referenced file is never processed as a generator file.
+   */
+  private Set<Path> getAffectedGeneratorFiles(Set<Path> changedFiles, BuildManifest manifest,
+      GeneratorFilter generatorFilter) {
+    Path templates = templateDirectory.toPath().toAbsolutePath().normalize();
+    Path generators = generatorDirectory.toPath().toAbsolutePath().normalize();
+    Set<Path> referencedFiles = manifest.getReferencedFiles();
+    Set<Path> affected = new LinkedHashSet<>();
+    for (Path file : changedFiles) {
+      if (file.startsWith(templates) || referencedFiles.contains(file)) {
+        affected.addAll(manifest.findGenerators(file));
+      } else if (file.startsWith(generators) && generatorFilter.isIncludedFile(file)) {
+        affected.add(file);
+      }
+    }
+    return affected;
+  }
+
+  /**
+   * Creates the configuration along with everything set on it. A configuration added to the {@link ConfigurationCache}
+   * is never changed afterwards.
+   */
+  private Configuration createConfiguration(File freeMarkerProps, Properties configProperties,
+      Properties pomProperties, Map<String, File> sharedData) throws MojoExecutionException {
+    Configuration config = FactoryUtil.createConfiguration(freeMarkerVersion);
+
+    config.setDefaultEncoding("UTF-8");
+
+    try {
+      config.setTemplateLoader(new FileTemplateLoader(templateDirectory));
+    } catch (Throwable t) {
+      getLog().error("Could not establish file template loader for directory: " + templateDirectory, t);
+      throw new MojoExecutionException("Could not establish file template loader for directory: " + templateDirectory);
+    }
+
+    if (configProperties != null) {
+      try {
+        config.setSettings(configProperties);
+      } catch (Throwable t) {
+        getLog().error("Invalid setting(s) in " + freeMarkerProps, t);
+        throw new MojoExecutionException("Invalid setting(s) in " + freeMarkerProps);
+      }
+    }
+
+    config.setSharedVariable(SharedVariables.POM_PROPERTIES,
+        SharedVariables.wrapProperties(pomProperties, config.getObjectWrapper()));
+    for (Map.Entry<String, File> entry : sharedData.entrySet()) {
+      try {
+        config.setSharedVariable(entry.getKey(), SharedVariables.loadDataFile(entry.getValue(), config.getObjectWrapper()));
+      } catch (Throwable t) {
+        getLog().error("Failed to load shared data file: " + entry.getValue(), t);
+        throw new MojoExecutionException("Failed to load shared data file: " + entry.getValue());
+      }
+    }
+    return config;
+  }
+
+  private void logCacheStatistics(long templateLookups, long parsedTemplates) {
+    long hits = ConfigurationCache.getHits();
+    long lookups = hits + ConfigurationCache.getMisses();
+    getLog().info("Configuration cache: " + hits + " of " + lookups + " lookup(s) hit ("
+        + percent(hits, lookups) + "). Templates: " + (templateLookups - parsedTemplates) + " of " + templateLookups
+        + " lookup(s) served from the template cache (" + percent(templateLookups - parsedTemplates, templateLookups) + ")");
+  }
+
+  private static String percent(long part, long total) {
+    return total == 0 ? "n/a" : (part * 100 / total) + "%";
+  }
+
+  private static long getTemplateLookups(Configuration config) {
+    return config instanceof TrackingConfiguration ? ((TrackingConfiguration) config).getTemplateLookups() : 0;
+  }
+
+  private static long getParsedTemplates(Configuration config) {
+    return config instanceof TrackingConfiguration ? ((TrackingConfiguration) config).getParsedTemplates() : 0;
+  }
+
+  private String getExecutionId() {
+    return mojo.getExecutionId() == null ? "default" : mojo.getExecutionId();
+  }
+
+  private Path getBaseDirectory() {
+    File baseDir = session.getCurrentProject().getBasedir();
+    return (baseDir == null ? FactoryUtil.createFile("") : baseDir).toPath();
+  }
+
+  private BuildManifest createBuildManifest(String configurationHash, String settingsHash) {
+    File manifestFile = FactoryUtil.createFile(stateDirectory, getExecutionId() + "-manifest.json");
+    BuildManifest manifest = BuildManifest.create(manifestFile, getBaseDirectory(), configurationHash, settingsHash);
+    try {
+      manifest.load();
+    } catch (Throwable t) {
+      getLog().warn("Ignoring unreadable build manifest, all files will be generated: " + manifestFile, t);
+    }
+    return manifest;
+  }
+
+  private void saveBuildManifest(BuildManifest manifest) {
+    try {
+      manifest.save();
+    } catch (Throwable t) {
+      getLog().warn("Failed to save build manifest, files will be generated again by the next build", t);
+    }
+  }
+
+  /**
+   * @return The hash of the inputs of the execution, null if they can't be read.
+   */
+  private String hashInputs(String configurationHash, GeneratorFilter generatorFilter) {
+    try {
+      MessageDigest digest = ContentHash.newDigest();
+      ContentHash.update(digest, configurationHash);
+      ContentHash.update(digest, plugin == null ? null : plugin.getVersion());
+      ContentHash.update(digest, Long.toString(GeneratingFileVisitor.getPomLastModified(session.getCurrentProject())));
+      for (File directory : Arrays.asList(templateDirectory, generatorDirectory, outputDirectory)) {
+        ContentHash.update(digest, directory.getAbsolutePath());
+      }
+      ContentHash.update(digest, String.valueOf(jsonParsingMode));
+      ContentHash.update(digest, Boolean.toString(writeIfChanged));
+      ContentHash.update(digest, Boolean.toString(trackDataAccess));
+      ContentHash.update(digest, Boolean.toString(removeOrphanedOutputs));
+      ContentHash.update(digest, String.valueOf(generatorFilter.getIncludes()));
+      ContentHash.update(digest, String.valueOf(generatorFilter.getExcludes()));
+      ContentHash.updateListing(digest, templateDirectory.toPath());
+      ContentHash.updateListing(digest, generatorDirectory.toPath(), generatorFilter);
+      return ContentHash.toHex(digest.digest());
+    } catch (Throwable t) {
+      getLog().warn("Failed to fingerprint the inputs, all generator files will be processed", t);
+      return null;
+    }
+  }
+
+  /**
+   * @return Whether the fingerprint saved by the last successful run is the one of the current inputs and outputs.
+   * The fingerprint file lists the files referenced by json data models after the fingerprint, as they can be
+   * anywhere.
+   */
+  private boolean isUpToDate(File fingerprintFile, String inputsHash) {
+    if (!fingerprintFile.isFile()) {
+      return false;
+    }
+    try {
+      List<String> lines = Files.readAllLines(fingerprintFile.toPath(), StandardCharsets.UTF_8);
+      List<Path> referencedFiles = new ArrayList<>();
+      for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+        referencedFiles.add(Paths.get(line));
+      }
+      return !lines.isEmpty() && lines.get(0).trim().equals(hashWithOutputs(inputsHash, referencedFiles));
+    } catch (Throwable t) {
+      getLog().warn("Failed to check the inputs fingerprint, all generator files will be processed", t);
+      return false;
+    }
+  }
+
+  /**
+   * The outputs are part of the fingerprint, so that editing or deleting a generated file generates it again. So are
+   * the files referenced by json data models, which may be outside of the generator directory.
+   */
+  private String hashWithOutputs(String inputsHash, Collection<Path> referencedFiles) throws IOException {
+    MessageDigest digest = ContentHash.newDigest();
+    ContentHash.update(digest, inputsHash);
+    ContentHash.updateListing(digest, outputDirectory.toPath());
+    for (Path referencedFile : referencedFiles) {
+      File file = referencedFile.toFile();
+      ContentHash.update(digest, referencedFile.toString());
+      ContentHash.update(digest, file.isFile() ? file.length() + ":" + file.lastModified() : "no file");
+    }
+    return ContentHash.toHex(digest.digest());
+  }
+
+  private void saveInputsFingerprint(File fingerprintFile, String inputsHash, Collection<Path> referencedFiles) {
+    try {
+      fingerprintFile.getParentFile().mkdirs();
+      List<String> lines = new ArrayList<>();
+      lines.add(hashWithOutputs(inputsHash, referencedFiles));
+      for (Path referencedFile : referencedFiles) {
+        lines.add(referencedFile.toString());
+      }
+      Files.write(fingerprintFile.toPath(), lines, StandardCharsets.UTF_8);
+    } catch (Throwable t) {
+      getLog().warn("Failed to save the inputs fingerprint, the next build will process all generator files", t);
+    }
+  }
+
+  private void evictParsedData(ParsedDataCache dataCache, GenerationStatistics statistics) {
+    int evicted = 0;
+    try {
+      evicted = dataCache.evict();
+    } catch (Throwable t) {
+      getLog().warn("Failed to evict entries from the parsed data cache", t);
+    }
+    statistics.recordDataCache(dataCache.getHits(), dataCache.getMisses(), evicted);
+    getLog().debug("Parsed data cache: " + dataCache.getHits() + " of " + (dataCache.getHits() + dataCache.getMisses())
+        + " generator file(s) decoded from the cache, " + evicted + " entries evicted");
+  }
+
+  private void logPlan(GenerationPlan plan, long upToDate) {
+    for (String line : plan.describe(getBaseDirectory())) {
+      getLog().info("Would generate " + line);
+    }
+    getLog().info("Dry run: " + plan.getStaleOutputs() + " output file(s) would be generated " + plan.getReasons()
+        + ", " + upToDate + " up to date");
+  }
+
+  private void savePlan(GenerationPlan plan, long upToDate) {
+    File planFile = FactoryUtil.createFile(stateDirectory, getExecutionId() + "-plan.json");
+    try {
+      plan.write(planFile, getBaseDirectory(), upToDate);
+    } catch (Throwable t) {
+      getLog().warn("Failed to write generation plan: " + planFile, t);
+    }
+  }
+
+  private void saveStatistics(GenerationStatistics statistics, long templateLookups, long parsedTemplates) {
+    File statisticsFile = FactoryUtil.createFile(stateDirectory, getExecutionId() + "-stats.json");
+    try {
+      statistics.write(statisticsFile, getBaseDirectory(), templateLookups, parsedTemplates);
+    } catch (Throwable t) {
+      getLog().warn("Failed to write generation statistics: " + statisticsFile, t);
     }
   }
 }
@@ -0,0 +1,30 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Generates like the generate goal, then keeps watching the template and generator directories, and generates the
+ * outputs affected by each change with the same FreeMarker configuration, so templates already parsed stay parsed.
+ * Runs until Maven is stopped.
+ */
+@Mojo(name = "watch")
+public class FreeMarkerWatchMojo extends FreeMarkerMojo {
+
+  /** Milliseconds without any further change to wait for after a change, before generating. */
+  @Parameter(defaultValue = "100")
+  private long debounceMillis;
+
+  @Override
+  boolean isWatching() {
+    return true;
+  }
+
+  @Override
+  long getDebounceMillis() {
+    return debounceMillis;
+  }
+}
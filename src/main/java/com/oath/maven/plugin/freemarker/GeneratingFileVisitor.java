@@ -3,11 +3,21 @@
 
 package com.oath.maven.plugin.freemarker;
 
+import java.io.File;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 import org.apache.maven.execution.MavenSession;
 
@@ -17,6 +27,20 @@ import org.apache.maven.project.MavenProject;
 /**
  * FileVisitor designed to process json data files. The json file parsed into
  * a map and given to FreeMarker to 
+ *
+ * <p>Unless the configuration already has them, the pom properties of the current project are registered as the
+ * <code>pomProperties</code> shared variable of the configuration, so every template can use them. A
+ * <code>pomProperties</code> entry of a data model is removed, as it would hide them.</p>
+ *
+ * <p>Files and directories left out by the generator filter of the {@link GenerationContext} are skipped. Every other
+ * file must have the extension of one of the providers.</p>
+ *
+ * <p>When the {@link GenerationContext} has an executor, each generator file is parsed and generated as a task on
+ * that executor instead of on the walking thread. Failures are collected and reported together by
+ * {@link #awaitCompletion()}.</p>
+ *
+ * <p>A generator file that fails is reported to the build context of the {@link GenerationContext}, if any, whose
+ * previous messages for the file are removed before processing it.</p>
  */
 public class GeneratingFileVisitor extends SimpleFileVisitor<Path> {
 
@@ -24,40 +48,170 @@ public class GeneratingFileVisitor extends SimpleFileVisitor<Path> {
   private final MavenSession session;
   private final long pomLastModifiedTimestamp;
   private final Map<String, OutputGeneratorPropertiesProvider > extensionToBuilder;
+  private final GenerationContext context;
+  private final Map<Path, Future<?>> pending = new LinkedHashMap<>();
 
-  private GeneratingFileVisitor(Configuration config, MavenSession session, Map<String, OutputGeneratorPropertiesProvider> extensionToBuilder) {
+  private GeneratingFileVisitor(Configuration config, MavenSession session, Map<String, OutputGeneratorPropertiesProvider> extensionToBuilder, GenerationContext context) {
     this.config = config;
     this.session = session;
     this.extensionToBuilder = extensionToBuilder;
-    this.pomLastModifiedTimestamp = session.getAllProjects().stream()
-        .map(project->project.getFile().lastModified())
-        .reduce(Long::max)
-        .orElse(0L);
+    this.context = context;
+    MavenProject currentProject = session.getCurrentProject();
+    this.pomLastModifiedTimestamp = Math.max(context.sharedDataLastModified, getPomLastModified(currentProject));
+    // Wrapped once for all the outputs, rather than by every render. The mojo registers them itself, as a shared
+    // configuration must not be changed.
+    if (config.getSharedVariable(SharedVariables.POM_PROPERTIES) == null) {
+      config.setSharedVariable(SharedVariables.POM_PROPERTIES, SharedVariables.wrapProperties(
+          currentProject == null ? null : currentProject.getProperties(), config.getObjectWrapper()));
+    }
+  }
+
+  /**
+   * The poms whose changes can affect the outputs are the one of the project and the ones it inherits from. The
+   * poms of other modules in the reactor are left out, so that editing them doesn't regenerate everything.
+   * @return The latest modification time of these poms, 0 if there is no current project.
+   */
+  static long getPomLastModified(MavenProject project) {
+    long lastModified = 0;
+    Set<MavenProject> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (MavenProject current = project; current != null && visited.add(current); current = current.getParent()) {
+      File pom = current.getFile();
+      if (pom != null) {
+        lastModified = Math.max(lastModified, pom.lastModified());
+      }
+    }
+    return lastModified;
   }
 
   /**
    * Factory method that calls constructor, added to facilitate testing with jmockit.
    */
   public static GeneratingFileVisitor create(Configuration config, MavenSession session, Map<String, OutputGeneratorPropertiesProvider> extensionToBuilder) {
-    return new GeneratingFileVisitor(config, session, extensionToBuilder);
+    return new GeneratingFileVisitor(config, session, extensionToBuilder, GenerationContext.builder().create());
+  }
+
+  /**
+   * Factory method that calls constructor, added to facilitate testing with jmockit.
+   * @param context Shared by every generated output. If it has an executor, call {@link #awaitCompletion()} after
+   * the walk.
+   */
+  public static GeneratingFileVisitor create(Configuration config, MavenSession session, Map<String, OutputGeneratorPropertiesProvider> extensionToBuilder, GenerationContext context) {
+    return new GeneratingFileVisitor(config, session, extensionToBuilder, context);
+  }
+
+  @Override
+  public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+    if (context.generatorFilter != null && !context.generatorFilter.isIncludedDirectory(dir)) {
+      return FileVisitResult.SKIP_SUBTREE;
+    }
+    return FileVisitResult.CONTINUE;
   }
 
   @Override
   public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
     if (attrs.isRegularFile()) {
-      OutputGenerator.OutputGeneratorBuilder builder = OutputGenerator.builder()
-          .addGeneratorLocation(path)
-          .addPomLastModifiedTimestamp(pomLastModifiedTimestamp);
+      if (context.generatorFilter != null && !context.generatorFilter.isIncludedFile(path)) {
+        return FileVisitResult.CONTINUE;
+      }
       String fileName = path.getFileName().toString();
-      String extenstion = fileName.substring(fileName.lastIndexOf('.'));
+      String extenstion = fileName.lastIndexOf('.') < 0 ? "" : fileName.substring(fileName.lastIndexOf('.'));
       OutputGeneratorPropertiesProvider pathProcessor = extensionToBuilder.get(extenstion);
       if (pathProcessor == null) {
         throw new RuntimeException("Unknown file extension: " + path);
       }
-      pathProcessor.providePropertiesFromFile(path, builder);
-      builder.addToDataModel("pomProperties", session.getCurrentProject().getProperties());
-      builder.create().generate(config);
+      if (context.executor == null) {
+        generate(path, pathProcessor);
+      } else {
+        pending.put(path, context.executor.submit(() -> generate(path, pathProcessor)));
+      }
     }
     return FileVisitResult.CONTINUE;
   }
+
+  /**
+   * Generates every output of the generator file, one after the other. An output is generated as soon as the
+   * provider asks for the builder of the next one, so providers that stream their records never accumulate them.
+   */
+  private void generate(Path path, OutputGeneratorPropertiesProvider pathProcessor) {
+    StreamingBuilders builders = new StreamingBuilders(path);
+    long start = System.nanoTime();
+    context.removeMessages(path.toFile());
+    try {
+      pathProcessor.provideOutputsFromFile(path, builders);
+      builders.generatePending();
+    } catch (RuntimeException e) {
+      context.addError(path.toFile(), e);
+      throw e;
+    }
+    if (context.statistics != null) {
+      context.statistics.recordGeneratorParse(path, System.nanoTime() - start - builders.generationNanos,
+          builders.outputs);
+    }
+  }
+
+  /**
+   * Hands out the builders of the outputs of a generator file, generating the previous output before handing out
+   * the next builder.
+   */
+  private class StreamingBuilders implements Supplier<OutputGenerator.OutputGeneratorBuilder> {
+    private final Path path;
+    private OutputGenerator.OutputGeneratorBuilder pending;
+    private long generationNanos;
+    private int outputs;
+
+    StreamingBuilders(Path path) {
+      this.path = path;
+    }
+
+    @Override
+    public OutputGenerator.OutputGeneratorBuilder get() {
+      generatePending();
+      pending = OutputGenerator.builder()
+          .addGeneratorLocation(path)
+          .addPomLastModifiedTimestamp(pomLastModifiedTimestamp)
+          .addGenerationContext(context);
+      outputs++;
+      return pending;
+    }
+
+    void generatePending() {
+      if (pending != null) {
+        long start = System.nanoTime();
+        // The data model is looked up before the shared variables: the pom properties would be overridden.
+        OutputGenerator generator = pending.removeFromDataModel(SharedVariables.POM_PROPERTIES).create();
+        pending = null;
+        generator.generate(config);
+        generationNanos += System.nanoTime() - start;
+      }
+    }
+  }
+
+  /**
+   * Waits for every task submitted during the walk, then applies their build context calls on this thread. Does
+   * nothing if the context has no executor.
+   * @throws RuntimeException listing every generator file that failed, with each failure added as a suppressed
+   * exception.
+   */
+  public void awaitCompletion() {
+    StringBuilder message = new StringBuilder();
+    List<Throwable> failures = new ArrayList<>();
+    for (Map.Entry<Path, Future<?>> entry : pending.entrySet()) {
+      try {
+        entry.getValue().get();
+      } catch (ExecutionException e) {
+        failures.add(e.getCause());
+        message.append(System.lineSeparator()).append("  ").append(entry.getKey()).append(": ").append(e.getCause().getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for generator file: " + entry.getKey(), e);
+      }
+    }
+    pending.clear();
+    context.applyBuildContextUpdates();
+    if (!failures.isEmpty()) {
+      RuntimeException aggregate = new RuntimeException(failures.size() + " generator file(s) failed:" + message);
+      failures.forEach(aggregate::addSuppressed);
+      throw aggregate;
+    }
+  }
 }
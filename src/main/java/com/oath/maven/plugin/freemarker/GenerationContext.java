@@ -0,0 +1,222 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+/**
+ * Execution-wide collaborators shared by the {@link GeneratingFileVisitor} and every {@link OutputGenerator}
+ * created during one mojo execution. Every part is optional:
+ * <ul>
+ * <li>Without a <b>build manifest</b>, outputs are considered up to date based on file timestamps.</li>
+ * <li>Without an <b>executor</b>, generator files are processed on the thread walking the generator directory.</li>
+ * <li>With <b>writeIfChanged</b>, outputs are rendered in memory first and only written if their content differs from
+ * the existing file, which keeps the timestamp of unchanged files.</li>
+ * <li>The <b>shared data last modified</b> time of the build-wide shared data files makes every output stale, like a
+ * pom change does, when outputs are considered up to date based on file timestamps.</li>
+ * <li>The <b>output encoding</b> is the charset output files are written with, the platform default if not set.</li>
+ * <li>With <b>trackDataAccess</b> and a build manifest, the data read by each render is recorded, and outputs whose
+ * generator file or pom properties changed are only generated again if the data they read changed.</li>
+ * <li>With <b>statistics</b>, parse and render times and the reason for each regenerated output are recorded.</li>
+ * <li>With a <b>generator filter</b>, only the selected generator files are processed, and the walk skips the
+ * directories that can't hold any. Without one, every file is processed.</li>
+ * <li>With a <b>plan</b>, nothing is generated: the stale outputs are recorded in the plan instead (a dry run).</li>
+ * <li>With a <b>build context</b>, such as the one of an IDE building incrementally, the output files actually rewritten
+ * are refreshed, and failures are reported against their generator file. A build context is only called on the
+ * thread that created the context: calls made by the executor's threads are applied by
+ * {@link #applyBuildContextUpdates()}.</li>
+ * </ul>
+ */
+public class GenerationContext {
+  public final BuildManifest manifest;
+  public final ExecutorService executor;
+  public final boolean writeIfChanged;
+  public final boolean trackDataAccess;
+  public final long sharedDataLastModified;
+  public final GenerationStatistics statistics;
+  public final Charset outputEncoding;
+  public final GeneratorFilter generatorFilter;
+  public final GenerationPlan plan;
+  public final BuildContext buildContext;
+  private final AtomicInteger unchangedWrites = new AtomicInteger();
+  private final Set<File> knownDirectories = ConcurrentHashMap.newKeySet();
+  private final Thread buildContextThread = Thread.currentThread();
+  private final Queue<Consumer<BuildContext>> buildContextUpdates = new ConcurrentLinkedQueue<>();
+
+  private GenerationContext(BuildManifest manifest, ExecutorService executor, boolean writeIfChanged,
+      boolean trackDataAccess, long sharedDataLastModified, GenerationStatistics statistics, Charset outputEncoding,
+      GeneratorFilter generatorFilter, GenerationPlan plan, BuildContext buildContext) {
+    this.manifest = manifest;
+    this.executor = executor;
+    this.writeIfChanged = writeIfChanged;
+    this.trackDataAccess = trackDataAccess;
+    this.sharedDataLastModified = sharedDataLastModified;
+    this.statistics = statistics;
+    this.outputEncoding = outputEncoding;
+    this.generatorFilter = generatorFilter;
+    this.plan = plan;
+    this.buildContext = buildContext;
+  }
+
+  /**
+   * @return Whether the directory was already found or created by an earlier output of this execution.
+   */
+  public boolean isKnownDirectory(File directory) {
+    return knownDirectories.contains(directory);
+  }
+
+  /**
+   * Remembers a directory that exists, so that outputs written to it later don't check it again.
+   */
+  public void addKnownDirectory(File directory) {
+    knownDirectories.add(directory);
+  }
+
+  /**
+   * Counts an output that was rendered but not written, because the existing file already had that content.
+   */
+  public void recordUnchangedWrite() {
+    unchangedWrites.incrementAndGet();
+  }
+
+  /**
+   * Tells the build context, if any, that the file was written or deleted.
+   */
+  public void refresh(File file) {
+    updateBuildContext(context -> context.refresh(file));
+  }
+
+  /**
+   * Tells the build context, if any, that the generator file is processed again: its previous failure is removed.
+   */
+  public void removeMessages(File file) {
+    updateBuildContext(context -> context.removeMessages(file));
+  }
+
+  /**
+   * Reports the failure of the generator file to the build context, if any.
+   */
+  public void addError(File file, Exception e) {
+    updateBuildContext(context -> context.addMessage(file, 0, 0, e.getMessage(), BuildContext.SEVERITY_ERROR, e));
+  }
+
+  /**
+   * Applies the build context calls made by other threads since the last call, in the order they were made. Must be
+   * called on the thread that created this context, once the other threads are done.
+   */
+  public void applyBuildContextUpdates() {
+    for (Consumer<BuildContext> update = buildContextUpdates.poll(); update != null;
+        update = buildContextUpdates.poll()) {
+      update.accept(buildContext);
+    }
+  }
+
+  /**
+   * Build contexts, such as the one of m2e, are bound to the thread of the build: calls from other threads are
+   * queued until {@link #applyBuildContextUpdates()}.
+   */
+  private void updateBuildContext(Consumer<BuildContext> update) {
+    if (buildContext == null) {
+      return;
+    }
+    if (Thread.currentThread() == buildContextThread) {
+      applyBuildContextUpdates();
+      update.accept(buildContext);
+    } else {
+      buildContextUpdates.add(update);
+    }
+  }
+
+  /**
+   * @return The number of writes avoided so far with writeIfChanged.
+   */
+  public int getUnchangedWrites() {
+    return unchangedWrites.get();
+  }
+
+  /**
+   * @return A new fluent builder for the GenerationContext class.
+   */
+  public static GenerationContextBuilder builder() {
+    return new GenerationContextBuilder();
+  }
+
+  public static class GenerationContextBuilder {
+    private BuildManifest manifest = null;
+    private ExecutorService executor = null;
+    private boolean writeIfChanged = false;
+    private boolean trackDataAccess = false;
+    private long sharedDataLastModified = 0;
+    private GenerationStatistics statistics = null;
+    private Charset outputEncoding = Charset.defaultCharset();
+    private GeneratorFilter generatorFilter = null;
+    private GenerationPlan plan = null;
+    private BuildContext buildContext = null;
+
+    public GenerationContextBuilder addBuildManifest(BuildManifest manifest) {
+      this.manifest = manifest;
+      return this;
+    }
+
+    public GenerationContextBuilder addExecutor(ExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    public GenerationContextBuilder addWriteIfChanged(boolean writeIfChanged) {
+      this.writeIfChanged = writeIfChanged;
+      return this;
+    }
+
+    public GenerationContextBuilder addTrackDataAccess(boolean trackDataAccess) {
+      this.trackDataAccess = trackDataAccess;
+      return this;
+    }
+
+    public GenerationContextBuilder addSharedDataLastModified(long sharedDataLastModified) {
+      this.sharedDataLastModified = sharedDataLastModified;
+      return this;
+    }
+
+    public GenerationContextBuilder addStatistics(GenerationStatistics statistics) {
+      this.statistics = statistics;
+      return this;
+    }
+
+    public GenerationContextBuilder addOutputEncoding(Charset outputEncoding) {
+      this.outputEncoding = outputEncoding;
+      return this;
+    }
+
+    public GenerationContextBuilder addGeneratorFilter(GeneratorFilter generatorFilter) {
+      this.generatorFilter = generatorFilter;
+      return this;
+    }
+
+    public GenerationContextBuilder addPlan(GenerationPlan plan) {
+      this.plan = plan;
+      return this;
+    }
+
+    public GenerationContextBuilder addBuildContext(BuildContext buildContext) {
+      this.buildContext = buildContext;
+      return this;
+    }
+
+    public GenerationContext create() {
+      return new GenerationContext(manifest, executor, writeIfChanged, trackDataAccess, sharedDataLastModified,
+          statistics, outputEncoding, generatorFilter, plan, buildContext);
+    }
+  }
+}
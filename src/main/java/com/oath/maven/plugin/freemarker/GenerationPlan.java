@@ -0,0 +1,104 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the outputs a dry run found stale, along with why: the {@link BuildManifest.Reason} and the input that
+ * triggered it. Nothing is rendered or written during a dry run; the plan tells what the next build will generate.
+ * The records are thread safe.
+ */
+public class GenerationPlan {
+
+  private final Map<Path, Entry> outputs = new ConcurrentHashMap<>();
+
+  private static class Entry {
+    final BuildManifest.Reason reason;
+    final Path input;
+
+    Entry(BuildManifest.Reason reason, Path input) {
+      this.reason = reason;
+      this.input = input;
+    }
+  }
+
+  /**
+   * @param input The file whose change makes the output stale: the generator file, the template (or an included
+   * one), or the output itself. Null when there is no such file, for a new output or a changed configuration.
+   */
+  public void recordStale(Path output, BuildManifest.Reason reason, Path input) {
+    outputs.put(output, new Entry(reason, input));
+  }
+
+  public int getStaleOutputs() {
+    return outputs.size();
+  }
+
+  /**
+   * @return The number of stale outputs for each reason.
+   */
+  public Map<BuildManifest.Reason, Long> getReasons() {
+    Map<BuildManifest.Reason, Long> reasons = new EnumMap<>(BuildManifest.Reason.class);
+    for (Entry entry : outputs.values()) {
+      reasons.merge(entry.reason, 1L, Long::sum);
+    }
+    return reasons;
+  }
+
+  /**
+   * @return One line per stale output, sorted by output, for the build log.
+   */
+  public List<String> describe(Path baseDirectory) {
+    Map<String, Entry> sorted = sort(baseDirectory);
+    List<String> lines = new ArrayList<>(sorted.size());
+    for (Map.Entry<String, Entry> output : sorted.entrySet()) {
+      Entry entry = output.getValue();
+      lines.add(output.getKey() + ": " + entry.reason
+          + (entry.input == null ? "" : " (" + JsonReport.relativize(baseDirectory, entry.input) + ")"));
+    }
+    return lines;
+  }
+
+  /**
+   * Writes the plan as json.
+   * @param baseDirectory The directory the paths of the plan are relative to.
+   * @param upToDate The number of outputs found up to date.
+   * @throws RuntimeException if the file can't be written.
+   */
+  public void write(File file, Path baseDirectory, long upToDate) {
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("stale", getStaleOutputs());
+    report.put("upToDate", upToDate);
+    report.put("reasons", getReasons());
+    Map<String, Object> outputReport = new LinkedHashMap<>();
+    for (Map.Entry<String, Entry> output : sort(baseDirectory).entrySet()) {
+      Map<String, Object> values = new LinkedHashMap<>();
+      values.put("reason", output.getValue().reason);
+      if (output.getValue().input != null) {
+        values.put("input", JsonReport.relativize(baseDirectory, output.getValue().input));
+      }
+      outputReport.put(output.getKey(), values);
+    }
+    report.put("outputs", outputReport);
+
+    JsonReport.write(file, report, "generation plan");
+  }
+
+  private Map<String, Entry> sort(Path baseDirectory) {
+    Map<String, Entry> sorted = new TreeMap<>();
+    for (Map.Entry<Path, Entry> output : outputs.entrySet()) {
+      sorted.put(JsonReport.relativize(baseDirectory, output.getKey()), output.getValue());
+    }
+    return sorted;
+  }
+}
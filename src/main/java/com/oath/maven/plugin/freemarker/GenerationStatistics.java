@@ -0,0 +1,186 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects where the time of one mojo execution went: how long each template took to parse and render, how long
+ * each generator file took to parse, and which outputs were regenerated and why.
+ *
+ * <p>The render time of a template includes writing its output, but not parsing the templates it includes or
+ * imports, which is counted as their parse time. The records are thread safe.</p>
+ */
+public class GenerationStatistics {
+
+  private final long startNanos = System.nanoTime();
+  private final Map<String, TemplateStatistics> templates = new ConcurrentHashMap<>();
+  private final Map<Path, GeneratorStatistics> generators = new ConcurrentHashMap<>();
+  private final Map<Path, BuildManifest.Reason> regenerations = new ConcurrentHashMap<>();
+  private final AtomicLong skippedOutputs = new AtomicLong();
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private volatile long dataCacheHits;
+  private volatile long dataCacheMisses;
+  private volatile long dataCacheEvictions;
+
+  private static class TemplateStatistics {
+    final LongAdder parses = new LongAdder();
+    final LongAdder parseNanos = new LongAdder();
+    final LongAdder renders = new LongAdder();
+    final LongAdder renderNanos = new LongAdder();
+  }
+
+  private static class GeneratorStatistics {
+    final long parseNanos;
+    final int outputs;
+
+    GeneratorStatistics(long parseNanos, int outputs) {
+      this.parseNanos = parseNanos;
+      this.outputs = outputs;
+    }
+  }
+
+  public void recordGeneratorParse(Path generator, long nanos, int outputs) {
+    generators.put(generator, new GeneratorStatistics(nanos, outputs));
+  }
+
+  public void recordTemplateParse(String templateName, long nanos) {
+    TemplateStatistics statistics = templates.computeIfAbsent(templateName, name -> new TemplateStatistics());
+    statistics.parses.increment();
+    statistics.parseNanos.add(nanos);
+  }
+
+  public void recordRender(String templateName, long nanos) {
+    TemplateStatistics statistics = templates.computeIfAbsent(templateName, name -> new TemplateStatistics());
+    statistics.renders.increment();
+    statistics.renderNanos.add(nanos);
+  }
+
+  /**
+   * Counts an output that was up to date, and thus not generated.
+   */
+  public void recordSkipped() {
+    skippedOutputs.incrementAndGet();
+  }
+
+  /**
+   * @param bytes The number of bytes written to the output file, 0 if its content was unchanged.
+   */
+  public void recordRegenerated(Path output, BuildManifest.Reason reason, long bytes) {
+    regenerations.put(output, reason);
+    bytesWritten.addAndGet(bytes);
+  }
+
+  /**
+   * Records the activity of the {@link ParsedDataCache} during the execution.
+   */
+  public void recordDataCache(long hits, long misses, long evictions) {
+    dataCacheHits = hits;
+    dataCacheMisses = misses;
+    dataCacheEvictions = evictions;
+  }
+
+  public long getSkippedOutputs() {
+    return skippedOutputs.get();
+  }
+
+  public long getRegeneratedOutputs() {
+    return regenerations.size();
+  }
+
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  /**
+   * @return The milliseconds elapsed since these statistics were created.
+   */
+  public long getWallTimeMillis() {
+    return (System.nanoTime() - startNanos) / 1_000_000;
+  }
+
+  /**
+   * @return A one-line summary for the build log.
+   */
+  public String summary(long templateLookups, long parsedTemplates) {
+    return "Generated " + getRegeneratedOutputs() + " output file(s), " + getSkippedOutputs() + " up to date, "
+        + getBytesWritten() + " byte(s) written; parsed " + generators.size() + " generator file(s) and "
+        + parsedTemplates + " of " + templateLookups + " template lookup(s) in " + getWallTimeMillis() + " ms";
+  }
+
+  /**
+   * Writes the statistics as json.
+   * @param baseDirectory The directory the paths of the report are relative to.
+   * @param templateLookups The number of template lookups, including the ones served from the template cache.
+   * @param parsedTemplates The number of template lookups that had to parse the template.
+   * @throws RuntimeException if the file can't be written.
+   */
+  public void write(File file, Path baseDirectory, long templateLookups, long parsedTemplates) {
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("wallTimeMillis", getWallTimeMillis());
+
+    Map<String, Object> outputs = new LinkedHashMap<>();
+    outputs.put("regenerated", getRegeneratedOutputs());
+    outputs.put("skipped", getSkippedOutputs());
+    outputs.put("bytesWritten", getBytesWritten());
+    Map<BuildManifest.Reason, Long> reasons = new EnumMap<>(BuildManifest.Reason.class);
+    for (BuildManifest.Reason reason : regenerations.values()) {
+      reasons.merge(reason, 1L, Long::sum);
+    }
+    outputs.put("reasons", reasons);
+    report.put("outputs", outputs);
+
+    Map<String, Object> templateCache = new LinkedHashMap<>();
+    templateCache.put("hits", templateLookups - parsedTemplates);
+    templateCache.put("misses", parsedTemplates);
+    report.put("templateCache", templateCache);
+
+    Map<String, Object> dataCache = new LinkedHashMap<>();
+    dataCache.put("hits", dataCacheHits);
+    dataCache.put("misses", dataCacheMisses);
+    dataCache.put("evictions", dataCacheEvictions);
+    report.put("dataCache", dataCache);
+
+    Map<String, Object> templateReport = new TreeMap<>();
+    for (Map.Entry<String, TemplateStatistics> entry : templates.entrySet()) {
+      TemplateStatistics statistics = entry.getValue();
+      Map<String, Object> values = new LinkedHashMap<>();
+      values.put("parses", statistics.parses.sum());
+      values.put("parseMillis", millis(statistics.parseNanos.sum()));
+      values.put("renders", statistics.renders.sum());
+      values.put("renderMillis", millis(statistics.renderNanos.sum()));
+      templateReport.put(entry.getKey(), values);
+    }
+    report.put("templates", templateReport);
+
+    Map<String, Object> generatorReport = new TreeMap<>();
+    for (Map.Entry<Path, GeneratorStatistics> entry : generators.entrySet()) {
+      Map<String, Object> values = new LinkedHashMap<>();
+      values.put("parseMillis", millis(entry.getValue().parseNanos));
+      values.put("outputs", entry.getValue().outputs);
+      generatorReport.put(JsonReport.relativize(baseDirectory, entry.getKey()), values);
+    }
+    report.put("generators", generatorReport);
+
+    Map<String, Object> regenerationReport = new TreeMap<>();
+    for (Map.Entry<Path, BuildManifest.Reason> entry : regenerations.entrySet()) {
+      regenerationReport.put(JsonReport.relativize(baseDirectory, entry.getKey()), entry.getValue());
+    }
+    report.put("regenerations", regenerationReport);
+
+    JsonReport.write(file, report, "generation statistics");
+  }
+
+  private static double millis(long nanos) {
+    return Math.round(nanos / 1000.0) / 1000.0;
+  }
+}
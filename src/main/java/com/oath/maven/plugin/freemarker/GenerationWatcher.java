@@ -0,0 +1,222 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the template and generator directories, and every directory under them, for changed files. Directories
+ * created later are watched as soon as they are seen, and the files already in them count as changed. Generator
+ * directories left out by the {@link GeneratorFilter} are not watched.
+ *
+ * <p>Files referenced by json data models are watched too, once given to {@link #watchReferencedFiles}, wherever they
+ * are: a change to one of them is reported as a referenced file, never as a generator file.</p>
+ */
+public class GenerationWatcher implements Closeable {
+
+  private final Path generatorDirectory;
+  private final Path templateDirectory;
+  private final GeneratorFilter generatorFilter;
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+  private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+  private final Set<Path> referencedFiles = ConcurrentHashMap.newKeySet();
+
+  private GenerationWatcher(Path generatorDirectory, Path templateDirectory, GeneratorFilter generatorFilter,
+      WatchService watchService) {
+    this.generatorDirectory = generatorDirectory;
+    this.templateDirectory = templateDirectory;
+    this.generatorFilter = generatorFilter;
+    this.watchService = watchService;
+  }
+
+  /**
+   * @throws IOException if the directories can't be watched.
+   */
+  public static GenerationWatcher create(File generatorDirectory, File templateDirectory,
+      GeneratorFilter generatorFilter) throws IOException {
+    GenerationWatcher watcher = new GenerationWatcher(generatorDirectory.toPath().toAbsolutePath().normalize(),
+        templateDirectory.toPath().toAbsolutePath().normalize(), generatorFilter,
+        FileSystems.getDefault().newWatchService());
+    try {
+      watcher.register(watcher.templateDirectory, null);
+      watcher.register(watcher.generatorDirectory, null);
+    } catch (IOException | RuntimeException e) {
+      watcher.close();
+      throw e;
+    }
+    return watcher;
+  }
+
+  /**
+   * The files changed since the previous call, created, modified or deleted.
+   */
+  public static class Changes {
+    /** When the first change was seen, in {@link System#nanoTime()}. */
+    public final long firstChangeNanos;
+    public final Set<Path> generatorFiles = new LinkedHashSet<>();
+    public final Set<Path> templateFiles = new LinkedHashSet<>();
+    public final Set<Path> referencedFiles = new LinkedHashSet<>();
+    /** Whether changes were lost, in which case every generator file should be processed again. */
+    public boolean overflow;
+
+    Changes(long firstChangeNanos) {
+      this.firstChangeNanos = firstChangeNanos;
+    }
+
+    /**
+     * @return The changed generator files, along with the ones whose outputs were generated with a changed template
+     * or referenced file.
+     */
+    public Set<Path> getAffectedGeneratorFiles(BuildManifest manifest) {
+      Set<Path> affected = new LinkedHashSet<>(generatorFiles);
+      for (Path template : templateFiles) {
+        affected.addAll(manifest.findGenerators(template));
+      }
+      for (Path referencedFile : referencedFiles) {
+        affected.addAll(manifest.findGenerators(referencedFile));
+      }
+      return affected;
+    }
+
+    /**
+     * @return How many files changed.
+     */
+    public int size() {
+      return generatorFiles.size() + templateFiles.size() + referencedFiles.size();
+    }
+  }
+
+  /**
+   * Waits for a change, then for the ones that follow, until none happens for the debounce time. So that saving
+   * several files at once, or a file in several writes, counts as a single change.
+   * @return The changes, null if the watcher was closed.
+   * @throws InterruptedException if the thread was interrupted while waiting.
+   */
+  public Changes awaitChanges(long debounceMillis) throws InterruptedException {
+    try {
+      WatchKey key = watchService.take();
+      Changes changes = new Changes(System.nanoTime());
+      while (key != null) {
+        collect(key, changes);
+        key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+      }
+      return changes;
+    } catch (ClosedWatchServiceException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Watches the files referenced by json data models, along with the ones already watched, by watching the
+   * directories holding them.
+   * @throws IOException if a directory can't be watched.
+   */
+  public void watchReferencedFiles(Collection<Path> files) throws IOException {
+    for (Path file : files) {
+      Path normalized = file.toAbsolutePath().normalize();
+      Path directory = normalized.getParent();
+      referencedFiles.add(normalized);
+      if (!watchedDirectories.contains(directory) && Files.isDirectory(directory)) {
+        watch(directory);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+
+  private void collect(WatchKey key, Changes changes) {
+    Path directory = directories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        changes.overflow = true;
+        continue;
+      }
+      if (directory == null) {
+        continue;
+      }
+      Path path = directory.resolve((Path) event.context());
+      if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)
+          && (path.startsWith(templateDirectory) || path.startsWith(generatorDirectory))) {
+        try {
+          register(path, changes);
+        } catch (IOException e) {
+          // Gone already, or not readable: the next walk of the generator directory will tell.
+          changes.overflow = true;
+        }
+      } else {
+        addChange(path, changes);
+      }
+    }
+    if (!key.reset() && directory != null) {
+      directories.remove(key);
+      watchedDirectories.remove(directory);
+    }
+  }
+
+  private void addChange(Path path, Changes changes) {
+    if (path.startsWith(templateDirectory)) {
+      changes.templateFiles.add(path);
+    } else if (referencedFiles.contains(path)) {
+      changes.referencedFiles.add(path);
+    } else if (path.startsWith(generatorDirectory)
+        && (generatorFilter == null || generatorFilter.isIncludedFile(path))) {
+      changes.generatorFiles.add(path);
+    }
+  }
+
+  private void watch(Path directory) throws IOException {
+    WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    directories.put(key, directory);
+    watchedDirectories.add(directory);
+  }
+
+  /**
+   * Watches the directory and every directory under it.
+   * @param changes Where to add the files found in the directories, null to not add them.
+   */
+  private void register(Path root, Changes changes) throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        if (!dir.startsWith(templateDirectory) && generatorFilter != null && !generatorFilter.isIncludedDirectory(dir)) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        watch(dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (changes != null && attrs.isRegularFile()) {
+          addChange(file, changes);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Selects the generator files to process with Ant-style include and exclude patterns, as in Maven's resource
+ * includes, relative to the generator directory: <code>*</code> and <code>?</code> match within a directory name, and
+ * <code>**</code> matches zero or more directories. A file is processed if it matches an include pattern (or there
+ * are none) and no exclude pattern.
+ *
+ * <p>Directories are pruned from the walk when nothing under them can be processed: when they match an exclude
+ * pattern ending in <code>/**</code>, or when no include pattern can match a file under them.</p>
+ */
+public class GeneratorFilter {
+
+  private final Path root;
+  private final List<String> includes;
+  private final List<String> excludes;
+  private final List<String> includePatterns = new ArrayList<>();
+  private final List<String> excludePatterns = new ArrayList<>();
+  private final List<String> excludedDirectoryPatterns = new ArrayList<>();
+
+  private GeneratorFilter(Path root, List<String> includes, List<String> excludes) {
+    this.root = root;
+    this.includes = includes;
+    this.excludes = excludes;
+    for (String include : includes) {
+      includePatterns.add(normalize(include));
+    }
+    for (String exclude : excludes) {
+      String pattern = normalize(exclude);
+      excludePatterns.add(pattern);
+      if (pattern.endsWith(File.separator + "**")) {
+        excludedDirectoryPatterns.add(pattern);
+      }
+    }
+  }
+
+  /**
+   * @param includes The patterns of the files to process, null or empty for every file.
+   * @param excludes The patterns of the files not to process, null for none.
+   */
+  public static GeneratorFilter create(File generatorDirectory, List<String> includes, List<String> excludes) {
+    return new GeneratorFilter(generatorDirectory.toPath().toAbsolutePath().normalize(),
+        includes == null ? Collections.emptyList() : includes, excludes == null ? Collections.emptyList() : excludes);
+  }
+
+  public List<String> getIncludes() {
+    return includes;
+  }
+
+  public List<String> getExcludes() {
+    return excludes;
+  }
+
+  /**
+   * @return Whether the walk should enter the directory, which is under the generator directory.
+   */
+  public boolean isIncludedDirectory(Path directory) {
+    String relative = relativize(directory);
+    if (relative.isEmpty()) {
+      return true;
+    }
+    for (String exclude : excludedDirectoryPatterns) {
+      if (SelectorUtils.matchPath(exclude, relative)) {
+        return false;
+      }
+    }
+    if (includes.isEmpty()) {
+      return true;
+    }
+    for (String include : includePatterns) {
+      if (SelectorUtils.matchPatternStart(include, relative)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return Whether the file, which is under the generator directory, should be processed.
+   */
+  public boolean isIncludedFile(Path file) {
+    String relative = relativize(file);
+    for (String exclude : excludePatterns) {
+      if (SelectorUtils.matchPath(exclude, relative)) {
+        return false;
+      }
+    }
+    if (includes.isEmpty()) {
+      return true;
+    }
+    for (String include : includePatterns) {
+      if (SelectorUtils.matchPath(include, relative)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private String relativize(Path path) {
+    return root.relativize(path.toAbsolutePath().normalize()).toString();
+  }
+
+  /**
+   * @return The pattern with the separators of the platform, and with <code>**</code> added after a trailing
+   * separator, as DirectoryScanner does.
+   */
+  private static String normalize(String pattern) {
+    String normalized = pattern.trim().replace('/', File.separatorChar).replace('\\', File.separatorChar);
+    return normalized.endsWith(File.separator) ? normalized + "**" : normalized;
+  }
+}
@@ -8,46 +8,161 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import freemarker.template.Configuration;
+import freemarker.template.ObjectWrapper;
 
 public class JsonPropertiesProvider implements OutputGeneratorPropertiesProvider {
+
+	/**
+	 * How the json generator files are turned into data models.
+	 */
+	public enum ParsingMode {
+		/** The whole file is parsed into a map. */
+		MAP,
+		/** Arrays are streamed from the file when templates list them, see {@link LazyJsonModel}. */
+		STREAMING,
+		/** Like MAP, except that arrays of numbers are kept as primitive lists, see {@link PrimitiveArrayParser}. */
+		PRIMITIVE_ARRAYS,
+		/** The data models are parsed straight into template models, see {@link TemplateModelParser}. */
+		TEMPLATE_MODEL
+	}
+
+	static final long DEFAULT_REFERENCED_DATA_BYTES = 64L * 1024 * 1024;
+
 	private final Gson gson;
 	private final Type stringObjectMap;
 	private final File dataDir;
 	private final File templateDir;
 	private final File outputDir;
+	private final ParsingMode parsingMode;
+	private final ParsedDataCache cache;
+	private final ReferencedDataCache referencedData;
+	private final ObjectWrapper objectWrapper;
 
-	private JsonPropertiesProvider(File dataDir, File templateDir, File outputDir) {
+	private JsonPropertiesProvider(File dataDir, File templateDir, File outputDir, ParsingMode parsingMode,
+			ParsedDataCache cache, ReferencedDataCache referencedData, ObjectWrapper objectWrapper) {
 		this.dataDir = dataDir;
 		this.templateDir = templateDir;
 		this.outputDir = outputDir;
+		this.parsingMode = parsingMode;
+		this.cache = cache;
+		this.referencedData = referencedData;
+		this.objectWrapper = objectWrapper;
 		gson = new GsonBuilder().setLenient().create();
 		stringObjectMap = new TypeToken<Map<String, Object>>() { } .getType();
 	}
 
 	public static JsonPropertiesProvider create(File dataDir, File templateDir, File outputDir) {
-		return new JsonPropertiesProvider(dataDir, templateDir, outputDir);
+		return create(dataDir, templateDir, outputDir, ParsingMode.MAP);
+	}
+
+	public static JsonPropertiesProvider create(File dataDir, File templateDir, File outputDir, ParsingMode parsingMode) {
+		return create(dataDir, templateDir, outputDir, parsingMode, null);
+	}
+
+	/**
+	 * @param cache Where files parsed in the MAP mode are cached, null to parse every file. Files parsed in the other
+	 * modes are not cached.
+	 */
+	public static JsonPropertiesProvider create(File dataDir, File templateDir, File outputDir, ParsingMode parsingMode,
+			ParsedDataCache cache) {
+		return create(dataDir, templateDir, outputDir, parsingMode, cache,
+				createReferencedDataCache(DEFAULT_REFERENCED_DATA_BYTES, parsingMode),
+				Configuration.getDefaultObjectWrapper(Configuration.VERSION_2_3_0));
+	}
+
+	/**
+	 * @return A cache that parses the referenced files like the parsing mode parses the generator files.
+	 */
+	public static ReferencedDataCache createReferencedDataCache(long maxBytes, ParsingMode parsingMode) {
+		return parsingMode == ParsingMode.PRIMITIVE_ARRAYS
+				? ReferencedDataCache.create(maxBytes, PrimitiveArrayParser::readJson)
+				: ReferencedDataCache.create(maxBytes);
+	}
+
+	/**
+	 * @param referencedData Where the files referenced by the data models are kept, see {@link ReferencedDataCache},
+	 * null to leave references as is. It should be created by {@link #createReferencedDataCache}. References are
+	 * resolved in the MAP and PRIMITIVE_ARRAYS modes, the STREAMING and TEMPLATE_MODEL modes fail on them.
+	 * @param objectWrapper The object wrapper of the configuration rendering the outputs, which the data models parsed
+	 * in the TEMPLATE_MODEL mode are built with.
+	 */
+	public static JsonPropertiesProvider create(File dataDir, File templateDir, File outputDir, ParsingMode parsingMode,
+			ParsedDataCache cache, ReferencedDataCache referencedData, ObjectWrapper objectWrapper) {
+		return new JsonPropertiesProvider(dataDir, templateDir, outputDir, parsingMode, cache, referencedData,
+				objectWrapper);
 	}
 
 	@Override
 	public void providePropertiesFromFile(Path path, OutputGenerator.OutputGeneratorBuilder builder) {
 		File jsonDataFile = path.toFile();
 		Map<String,Object> data = parseJson(jsonDataFile);
+		if (data.containsKey("outputs")) {
+			throw new RuntimeException("Json data file has several outputs: " + jsonDataFile);
+		}
+		provideProperties(jsonDataFile, data, builder);
+	}
 
-		Object obj = data.get("dataModel");
-		if (obj != null) {
-			builder.addDataModel((Map<String, Object>) obj);
-		} else {
-			builder.addDataModel(new HashMap<String,Object>());
+	/**
+	 * A json data file with an <b>outputs</b> array produces one output per element of the array. Each element has its
+	 * own <b>output</b> (relative to the output directory), <b>dataModel</b> and <b>templateName</b>, the latter
+	 * defaulting to the top-level <b>templateName</b>. Other json data files produce a single output.
+	 */
+	@Override
+	public void provideOutputsFromFile(Path path, Supplier<OutputGenerator.OutputGeneratorBuilder> builders) {
+		File jsonDataFile = path.toFile();
+		Map<String,Object> data = parseJson(jsonDataFile);
+		Object outputs = data.get("outputs");
+		if (outputs == null) {
+			provideProperties(jsonDataFile, data, builders.get());
+			return;
+		}
+		if (!(outputs instanceof List)) {
+			throw new RuntimeException("Json data property outputs must be an array: " + jsonDataFile);
+		}
+		for (Object output : (List<?>) outputs) {
+			if (!(output instanceof Map)) {
+				throw new RuntimeException("Json data property outputs must only contain objects: " + jsonDataFile);
+			}
+			@SuppressWarnings("unchecked")
+			Map<String,Object> outputData = (Map<String,Object>) output;
+			provideOutputProperties(jsonDataFile, data.get("templateName"), outputData, builders.get());
+		}
+	}
+
+	private void provideProperties(File jsonDataFile, Map<String,Object> data, OutputGenerator.OutputGeneratorBuilder builder) {
+		Map<Path, String> references = addDataModel(jsonDataFile, data, builder);
+		if (!references.isEmpty()) {
+			builder.addReferencedFiles(references.keySet());
+			// The build manifest only hashes the generator file itself.
+			MessageDigest digest = ContentHash.newDigest();
+			try {
+				ContentHash.update(digest, ContentHash.ofFile(jsonDataFile.toPath()));
+			} catch (IOException e) {
+				throw new RuntimeException("Could not read json data file: " + jsonDataFile, e);
+			}
+			updateReferences(digest, references);
+			builder.addGeneratorFingerprint(ContentHash.toHex(digest.digest()));
 		}
 
-		obj = data.get("templateName");
+		Object obj = data.get("templateName");
 		if (obj == null) {
 			throw new RuntimeException("Require json data property not found: templateName");
 		}
@@ -66,8 +181,103 @@ public class JsonPropertiesProvider implements OutputGeneratorPropertiesProvider
 		builder.addOutputLocation(resolved);
 	}
 
+	private void provideOutputProperties(File jsonDataFile, Object defaultTemplateName, Map<String,Object> output,
+			OutputGenerator.OutputGeneratorBuilder builder) {
+		// Hashed before the references are resolved, their content being hashed once per referenced file.
+		String outputJson = gson.toJson(parsingMode == ParsingMode.TEMPLATE_MODEL
+				? TemplateModelParser.toJava(output) : output);
+		Map<Path, String> references = addDataModel(jsonDataFile, output, builder);
+
+		Object templateName = output.containsKey("templateName") ? output.get("templateName") : defaultTemplateName;
+		if (templateName == null) {
+			throw new RuntimeException("Require json data property not found: templateName in " + jsonDataFile);
+		}
+		builder.addTemplateLocation(templateDir.toPath().resolve(templateName.toString()));
+
+		Object outputName = output.get("output");
+		if (outputName == null) {
+			throw new RuntimeException("Require json data property not found: output in " + jsonDataFile);
+		}
+		Path outputPath = outputDir.toPath().toAbsolutePath().normalize();
+		Path resolved = outputPath.resolve(outputName.toString()).normalize();
+		if (!resolved.startsWith(outputPath) || resolved.equals(outputPath)) {
+			throw new RuntimeException("Output not in outputDirectory: " + outputName + " in " + jsonDataFile);
+		}
+		builder.addOutputLocation(resolved);
+
+		MessageDigest digest = ContentHash.newDigest();
+		ContentHash.update(digest, templateName.toString());
+		ContentHash.update(digest, outputJson);
+		updateReferences(digest, references);
+		builder.addGeneratorFingerprint(ContentHash.toHex(digest.digest()));
+		builder.addReferencedFiles(references.keySet());
+	}
+
+	/**
+	 * @return The hash of each file referenced by the data model, by path.
+	 */
+	private Map<Path, String> addDataModel(File jsonDataFile, Map<String,Object> data,
+			OutputGenerator.OutputGeneratorBuilder builder) {
+		Object obj = data.get("dataModel");
+		Map<Path, String> references = new TreeMap<>();
+		if (obj != null && parsingMode == ParsingMode.STREAMING) {
+			// The arrays are only read when listed, which checks their elements.
+			String ref = ReferencedDataCache.findReference(obj);
+			if (ref != null) {
+				throw new RuntimeException(ReferencedDataCache.unsupported(parsingMode.name(), ref) + " in " + jsonDataFile);
+			}
+		}
+		if (obj != null && referencedData != null
+				&& (parsingMode == ParsingMode.MAP || parsingMode == ParsingMode.PRIMITIVE_ARRAYS)) {
+			Object resolved = referencedData.resolve(obj, jsonDataFile.toPath(), references);
+			if (!(resolved instanceof Map)) {
+				throw new RuntimeException("Json data property dataModel must reference an object: " + jsonDataFile);
+			}
+			// A data model that is itself a reference is shared read-only.
+			obj = resolved == obj ? obj : new LinkedHashMap<>((Map<?, ?>) resolved);
+		}
+		builder.addDataModel(obj != null ? toDataModel(obj) : new HashMap<String,Object>());
+		return references;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> toDataModel(Object dataModel) {
+		return (Map<String, Object>) dataModel;
+	}
+
+	private static void updateReferences(MessageDigest digest, Map<Path, String> references) {
+		for (String hash : references.values()) {
+			ContentHash.update(digest, hash);
+		}
+	}
+
 	private Map<String, Object> parseJson(File jsonDataFile) {
-		try (JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(jsonDataFile), "UTF-8"))) {
+		if (parsingMode == ParsingMode.STREAMING) {
+			return LazyJsonModel.read(jsonDataFile, gson);
+		}
+		if (cache != null && parsingMode == ParsingMode.MAP) {
+			try {
+				return cache.get(jsonDataFile.toPath(), content -> parseJson(jsonDataFile,
+						new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8)));
+			} catch (IOException e) {
+				throw new RuntimeException("Could not parse json data file: " + jsonDataFile, e);
+			}
+		}
+		try {
+			return parseJson(jsonDataFile, new InputStreamReader(new FileInputStream(jsonDataFile), "UTF-8"));
+		} catch (IOException e) {
+			throw new RuntimeException("Could not parse json data file: " + jsonDataFile, e);
+		}
+	}
+
+	private Map<String, Object> parseJson(File jsonDataFile, Reader content) {
+		try (JsonReader reader = new JsonReader(content)) {
+			if (parsingMode == ParsingMode.PRIMITIVE_ARRAYS) {
+				return PrimitiveArrayParser.read(reader);
+			}
+			if (parsingMode == ParsingMode.TEMPLATE_MODEL) {
+				return TemplateModelParser.read(reader, objectWrapper);
+			}
 			return gson.fromJson(reader, stringObjectMap);
 		} catch (Throwable t) {
 			throw new RuntimeException("Could not parse json data file: " + jsonDataFile, t);
@@ -0,0 +1,50 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Writes the json reports kept in the state directory, such as the {@link GenerationStatistics} and the
+ * {@link GenerationPlan}, whose paths are relative to the project's base directory.
+ */
+public class JsonReport {
+
+  private JsonReport() {
+  }
+
+  /**
+   * Writes the report as pretty printed json, creating the parent directories of the file if needed.
+   * @param description What the report is, for the error message.
+   * @throws RuntimeException if the file can't be written.
+   */
+  public static void write(File file, Object report, String description) {
+    Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    file.getParentFile().mkdirs();
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+      gson.toJson(report, writer);
+    } catch (IOException e) {
+      throw new RuntimeException("Could not write " + description + ": " + file, e);
+    }
+  }
+
+  /**
+   * @return The path relative to the base directory, with forward slashes, or the absolute path if it is not under
+   * the base directory.
+   */
+  public static String relativize(Path baseDirectory, Path path) {
+    Path absolute = path.toAbsolutePath().normalize();
+    Path base = baseDirectory.toAbsolutePath().normalize();
+    return (absolute.startsWith(base) ? base.relativize(absolute) : absolute).toString().replace(File.separatorChar, '/');
+  }
+}
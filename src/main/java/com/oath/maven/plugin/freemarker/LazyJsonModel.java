@@ -0,0 +1,279 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import freemarker.core.Environment;
+import freemarker.template.Configuration;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.TemplateCollectionModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateModelIterator;
+
+/**
+ * Streams a json generator file into a data model that keeps its arrays on disk.
+ *
+ * <p>Objects and scalar values are read into maps and values just like Gson would. Every array reached through
+ * object fields only (not nested in another array) is skipped instead, and replaced by a {@link LazyJsonSequence}
+ * that streams the array from the file each time a template lists it. Only one element is held in memory at a
+ * time, so listing a huge array costs no more memory than its largest element.</p>
+ *
+ * <p>Only those arrays are lazy: objects are always read in full, however large, and so are arrays nested in
+ * arrays, as each element of a streamed array is read in full.</p>
+ *
+ * <p>Lazy arrays support <code>#list</code>, <code>?size</code> and <code>?has_content</code>, but not indexing.
+ * Each iteration reads the file again from its start up to the array, so listing the same array twice reads it
+ * twice. The size is only counted once per data model, by the first <code>?size</code> or complete iteration.</p>
+ *
+ * <p>The data model map is {@link Closeable}: closing it closes the readers of iterations that were not run to the
+ * end, for instance because of a <code>#break</code>.</p>
+ *
+ * <p>Json references are not resolved in this mode: listing an element that holds one fails.</p>
+ */
+class LazyJsonModel {
+
+  private final File file;
+  private final TypeAdapter<Object> valueAdapter;
+  private final Set<JsonReader> openReaders = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+  private LazyJsonModel(File file, Gson gson) {
+    this.file = file;
+    this.valueAdapter = gson.getAdapter(Object.class);
+  }
+
+  /**
+   * Reads the top level object of the file. Only the <code>templateName</code>, <code>outputs</code> and
+   * <code>dataModel</code> fields are kept, other fields are skipped. The <code>outputs</code> are read in full.
+   * @param gson Used to read the values that are materialized.
+   */
+  static Map<String, Object> read(File file, Gson gson) {
+    LazyJsonModel model = new LazyJsonModel(file, gson);
+    try (JsonReader reader = model.open()) {
+      Map<String, Object> data = new LinkedHashMap<>();
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if ("templateName".equals(name) || "outputs".equals(name)) {
+          data.put(name, model.valueAdapter.read(reader));
+        } else if ("dataModel".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+          DataModel dataModel = model.new DataModel();
+          data.put(name, model.readObject(reader, Collections.singletonList(name), dataModel));
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+      return data;
+    } catch (Throwable t) {
+      throw new RuntimeException("Could not parse json data file: " + file, t);
+    }
+  }
+
+  private Map<String, Object> readObject(JsonReader reader, List<String> path, Map<String, Object> object)
+      throws IOException {
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      List<String> childPath = new ArrayList<>(path);
+      childPath.add(name);
+      JsonToken token = reader.peek();
+      if (token == JsonToken.BEGIN_ARRAY) {
+        reader.skipValue();
+        object.put(name, new LazyJsonSequence(this, childPath));
+      } else if (token == JsonToken.BEGIN_OBJECT) {
+        object.put(name, readObject(reader, childPath, new LinkedHashMap<>()));
+      } else {
+        object.put(name, valueAdapter.read(reader));
+      }
+    }
+    reader.endObject();
+    return object;
+  }
+
+  private JsonReader open() throws IOException {
+    JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    reader.setLenient(true);
+    return reader;
+  }
+
+  /**
+   * Opens the file and positions the reader right after the opening bracket of the array at the given path.
+   */
+  private JsonReader openArray(List<String> path) throws IOException {
+    JsonReader reader = open();
+    try {
+      for (String name : path) {
+        reader.beginObject();
+        while (!name.equals(reader.nextName())) {
+          reader.skipValue();
+        }
+      }
+      reader.beginArray();
+      return reader;
+    } catch (IOException | RuntimeException e) {
+      reader.close();
+      throw e;
+    }
+  }
+
+  /**
+   * The root of the data model.
+   */
+  class DataModel extends LinkedHashMap<String, Object> implements Closeable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public void close() throws IOException {
+      for (JsonReader reader : openReaders) {
+        closeQuietly(reader);
+      }
+    }
+  }
+
+  private void closeQuietly(JsonReader reader) {
+    openReaders.remove(reader);
+    try {
+      reader.close();
+    } catch (IOException e) {
+      // Nothing left to read from it anyway.
+    }
+  }
+
+  /**
+   * A json array that is streamed from its file each time it is iterated.
+   */
+  static class LazyJsonSequence implements TemplateCollectionModelEx {
+    private final LazyJsonModel model;
+    private final List<String> path;
+    private volatile int size = -1;
+
+    private LazyJsonSequence(LazyJsonModel model, List<String> path) {
+      this.model = model;
+      this.path = path;
+    }
+
+    @Override
+    public TemplateModelIterator iterator() throws TemplateModelException {
+      JsonReader reader = open();
+      model.openReaders.add(reader);
+      ObjectWrapper wrapper = currentObjectWrapper();
+      return new TemplateModelIterator() {
+        private boolean open = true;
+        private int read;
+
+        @Override
+        public boolean hasNext() throws TemplateModelException {
+          if (!open) {
+            return false;
+          }
+          try {
+            if (reader.hasNext()) {
+              return true;
+            }
+            open = false;
+            size = read;
+            model.closeQuietly(reader);
+            return false;
+          } catch (IOException e) {
+            throw failure(e);
+          }
+        }
+
+        @Override
+        public TemplateModel next() throws TemplateModelException {
+          if (!hasNext()) {
+            throw new TemplateModelException("No more elements in json array " + describe());
+          }
+          Object element;
+          try {
+            read++;
+            element = model.valueAdapter.read(reader);
+          } catch (IOException e) {
+            throw failure(e);
+          }
+          String ref = ReferencedDataCache.findReference(element);
+          if (ref != null) {
+            throw new TemplateModelException(ReferencedDataCache.unsupported("STREAMING", ref) + " in " + describe());
+          }
+          return wrapper.wrap(element);
+        }
+      };
+    }
+
+    @Override
+    public int size() throws TemplateModelException {
+      if (size >= 0) {
+        return size;
+      }
+      try (JsonReader reader = open()) {
+        int count = 0;
+        while (reader.hasNext()) {
+          reader.skipValue();
+          count++;
+        }
+        size = count;
+        return count;
+      } catch (IOException e) {
+        throw failure(e);
+      }
+    }
+
+    @Override
+    public boolean isEmpty() throws TemplateModelException {
+      if (size >= 0) {
+        return size == 0;
+      }
+      try (JsonReader reader = open()) {
+        return !reader.hasNext();
+      } catch (IOException e) {
+        throw failure(e);
+      }
+    }
+
+    @Override
+    public boolean contains(TemplateModel item) throws TemplateModelException {
+      throw new TemplateModelException("Lookups are not supported on streamed json array " + describe());
+    }
+
+    private JsonReader open() throws TemplateModelException {
+      try {
+        return model.openArray(path);
+      } catch (IOException | RuntimeException e) {
+        throw failure(e);
+      }
+    }
+
+    private TemplateModelException failure(Exception e) {
+      return new TemplateModelException("Could not stream json array " + describe(), e);
+    }
+
+    private String describe() {
+      return String.join(".", path) + " from " + model.file;
+    }
+
+    private static ObjectWrapper currentObjectWrapper() {
+      Environment env = Environment.getCurrentEnvironment();
+      return env != null ? env.getObjectWrapper() : Configuration.getDefaultObjectWrapper(Configuration.VERSION_2_3_0);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import freemarker.ext.util.WrapperTemplateModel;
+import freemarker.template.AdapterTemplateModel;
+import freemarker.template.SimpleNumber;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateSequenceModel;
+import it.unimi.dsi.fastutil.doubles.DoubleList;
+import it.unimi.dsi.fastutil.ints.IntList;
+
+/**
+ * A json array of numbers, kept as a list of primitive values. Templates see it as a sequence whose numbers are
+ * created on access, one at a time, so the array is never boxed as a whole.
+ *
+ * <p>The data model holds the sequence itself, rather than a {@link java.util.List}, so that it is used as is by
+ * any object wrapper. Java code can get the primitive list with {@link #getWrappedObject()}.</p>
+ */
+public class NumberSequenceModel implements TemplateSequenceModel, AdapterTemplateModel, WrapperTemplateModel {
+
+  private final IntList ints;
+  private final DoubleList doubles;
+
+  private NumberSequenceModel(IntList ints, DoubleList doubles) {
+    this.ints = ints;
+    this.doubles = doubles;
+  }
+
+  public static NumberSequenceModel ofInts(IntList ints) {
+    return new NumberSequenceModel(ints, null);
+  }
+
+  public static NumberSequenceModel ofDoubles(DoubleList doubles) {
+    return new NumberSequenceModel(null, doubles);
+  }
+
+  @Override
+  public TemplateModel get(int index) {
+    if (index < 0 || index >= size()) {
+      return null;
+    }
+    return ints != null ? new SimpleNumber(ints.getInt(index)) : new SimpleNumber(doubles.getDouble(index));
+  }
+
+  @Override
+  public int size() {
+    return ints != null ? ints.size() : doubles.size();
+  }
+
+  /**
+   * @return The {@link IntList} or {@link DoubleList} holding the numbers.
+   */
+  @Override
+  public Object getWrappedObject() {
+    return ints != null ? ints : doubles;
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public Object getAdaptedObject(Class hint) {
+    return getWrappedObject();
+  }
+
+  @Override
+  public String toString() {
+    return getWrappedObject().toString();
+  }
+}
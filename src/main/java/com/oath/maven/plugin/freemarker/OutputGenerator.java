@@ -5,12 +5,31 @@ package com.oath.maven.plugin.freemarker;
 
 import freemarker.template.Configuration;
 import freemarker.template.Template;
+import freemarker.template.TemplateException;
 
+import java.io.BufferedWriter;
+import java.io.CharArrayWriter;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Knows how to generate an output file given five things:
@@ -23,6 +42,17 @@ import java.util.Map;
  * </ul>
  *<p>Given these five pieces of information, the generator will generate a new output file, but only if any existing
  * generated file is not newer than the inputs (pom, generator, and template).</p>
+ *<p>If the {@link GenerationContext} has a {@link BuildManifest}, the manifest decides instead whether the output is
+ * up to date, by comparing content hashes of the inputs and output with the ones recorded by the previous build.
+ * With a {@link TrackingConfiguration}, the inputs also include every template included or imported by the
+ * template.</p>
+ *<p>Output files that are written are refreshed in the build context of the {@link GenerationContext}, if any, so
+ * that an IDE only refreshes the files that actually changed.</p>
+ *<p>When the {@link GenerationContext} has a {@link GenerationPlan}, stale outputs are recorded in the plan instead
+ * of being generated.</p>
+ *<p>When the {@link GenerationContext} tracks data access, the render records the data it reads with a
+ * {@link DataAccessTracker}, so that the manifest can keep the output when its generator file or the pom properties
+ * change in ways the render doesn't see.</p>
  */
 class OutputGenerator {
 	public final long pomModifiedTimestamp;
@@ -30,17 +60,26 @@ class OutputGenerator {
 	public final Path templateLocation;
 	public final Path outputLocation;
 	public final Map<String,Object> dataModel;
+	public final GenerationContext context;
+	public final String generatorFingerprint;
+	public final Collection<Path> referencedFiles;
 	private OutputGenerator(
 		 long pomModifiedTimestamp,
 		 Path generatorLocation,
 		 Path templateLocation,
 		 Path outputLocation,
-		 Map<String, Object> dataModel) {
+		 Map<String, Object> dataModel,
+		 GenerationContext context,
+		 String generatorFingerprint,
+		 Collection<Path> referencedFiles) {
 		this.pomModifiedTimestamp = pomModifiedTimestamp;
 		this.generatorLocation = generatorLocation;
 		this.templateLocation = templateLocation;
 		this.outputLocation = outputLocation;
 		this.dataModel = dataModel;
+		this.context = context;
+		this.generatorFingerprint = generatorFingerprint;
+		this.referencedFiles = referencedFiles;
 	}
 
 	/**
@@ -58,6 +97,9 @@ class OutputGenerator {
 		private Path templateLocation = null;
 		private Path outputLocation = null;
 		private Map<String,Object> dataModel = null;
+		private GenerationContext context = null;
+		private String generatorFingerprint = null;
+		private Collection<Path> referencedFiles = Collections.emptyList();
 
 		public OutputGeneratorBuilder addPomLastModifiedTimestamp(long pomModifiedTimestamp) {
 			this.pomModifiedTimestamp = pomModifiedTimestamp;
@@ -84,6 +126,33 @@ class OutputGenerator {
 			return this;
 		}
 
+		/**
+		 * Optional, a default context (timestamp based staleness check) is used if not set.
+		 */
+		public OutputGeneratorBuilder addGenerationContext(GenerationContext context) {
+			this.context = context;
+			return this;
+		}
+
+		/**
+		 * Optional, identifies the part of the generator file this output comes from, when the file has several
+		 * outputs. The build manifest then compares it instead of the hash of the whole file, so that changing one
+		 * output's entry does not make the other outputs of the file stale.
+		 */
+		public OutputGeneratorBuilder addGeneratorFingerprint(String generatorFingerprint) {
+			this.generatorFingerprint = generatorFingerprint;
+			return this;
+		}
+
+		/**
+		 * Optional, the files the data model references, which the build manifest records so that changing one of them
+		 * finds this output again.
+		 */
+		public OutputGeneratorBuilder addReferencedFiles(Collection<Path> referencedFiles) {
+			this.referencedFiles = referencedFiles;
+			return this;
+		}
+
 		public OutputGeneratorBuilder addToDataModel(String key, Object val) {
 			if (this.dataModel == null) {
 				this.dataModel = new HashMap<>(4);
@@ -92,6 +161,13 @@ class OutputGenerator {
 			return this;
 		}
 
+		public OutputGeneratorBuilder removeFromDataModel(String key) {
+			if (this.dataModel != null) {
+				this.dataModel.remove(key);
+			}
+			return this;
+		}
+
 		/**
 		 * @throws IllegalStateException if any of the parts of the OutputGenerator were not set.
 		 * @return A new output generator (which is immutable).
@@ -102,7 +178,8 @@ class OutputGenerator {
 			if (templateLocation == null) throw new IllegalStateException("Must set a non-null templateLocation");
 			if (outputLocation == null) throw new IllegalStateException("Must set a non-null outputLocation");
 			if (dataModel == null) throw new IllegalStateException("Must set a non-null dataModel");
-			return new OutputGenerator(pomModifiedTimestamp, generatorLocation, templateLocation, outputLocation, dataModel);
+			if (context == null) context = GenerationContext.builder().create();
+			return new OutputGenerator(pomModifiedTimestamp, generatorLocation, templateLocation, outputLocation, dataModel, context, generatorFingerprint, referencedFiles);
 		}
 	}
 
@@ -116,35 +193,283 @@ class OutputGenerator {
 		File outputFile = FactoryUtil.createFile(outputLocation.toFile().toString());
 		File templateFile = templateLocation.toFile();
 		File generatorFile = generatorLocation.toFile();
-		if (outputFile.exists()) {
-			//early exit only if the output file is newer than all files that contribute to its generation
-			if (outputFile.lastModified() > generatorFile.lastModified()
-				 && outputFile.lastModified() > templateFile.lastModified()
-				 && outputFile.lastModified() > pomModifiedTimestamp) {
+		BuildManifest manifest = context.manifest;
+		GenerationStatistics statistics = context.statistics;
+		BuildManifest.Reason reason;
+		boolean outputExists = outputFile.exists();
+		if (outputExists) {
+			if (manifest != null) {
+				//early exit only if the content of everything that contributes to its generation is unchanged
+				reason = manifest.checkStaleness(this, context.trackDataAccess ? config : null);
+			} else {
+				reason = checkTimestamps(outputFile, generatorFile, templateFile);
+			}
+			if (reason == null) {
+				if (statistics != null) {
+					statistics.recordSkipped();
+				}
+				// Checking the data read may have opened streamed data.
+				closeDataModel();
 				return;
 			}
 		} else {
+			reason = BuildManifest.Reason.NEW_OUTPUT;
+		}
+		if (context.plan != null) {
+			context.plan.recordStale(outputLocation, reason, getTriggeringInput(reason));
+			closeDataModel();
+			return;
+		}
+		if (!outputExists) {
 			File parentDir = outputFile.getParentFile();
-			if (parentDir.isFile()) {
-				throw new RuntimeException("Parent directory of output file is a file: " + parentDir.getAbsoluteFile());
-			}
-			parentDir.mkdirs();
-			if (!parentDir.isDirectory()) {
-				throw new RuntimeException("Could not create directory: " + parentDir.getAbsoluteFile());
+			if (!context.isKnownDirectory(parentDir)) {
+				if (parentDir.isFile()) {
+					throw new RuntimeException("Parent directory of output file is a file: " + parentDir.getAbsoluteFile());
+				}
+				parentDir.mkdirs();
+				if (!parentDir.isDirectory()) {
+					throw new RuntimeException("Could not create directory: " + parentDir.getAbsoluteFile());
+				}
+				context.addKnownDirectory(parentDir);
 			}
 		}
 
+		TrackingConfiguration.Tracking tracking = TrackingConfiguration.startTracking(config);
+		DataAccessTracker dataAccess = context.trackDataAccess && manifest != null ? new DataAccessTracker() : null;
+		long start = System.nanoTime();
+		long bytesWritten;
 		Template template;
+		Throwable failure = null;
 		try {
-			template = config.getTemplate(templateFile.getName());
+			try {
+				template = config.getTemplate(templateFile.getName());
+			} catch (Throwable t) {
+				if (manifest != null) {
+					manifest.recordFailed(this);
+				}
+				throw new RuntimeException("Could not read template: " + templateFile.getName(), t);
+			}
+
+			try {
+				Object model = dataAccess != null ? dataAccess.track(dataModel, config) : dataModel;
+				if (context.writeIfChanged) {
+					bytesWritten = writeIfChanged(template, model, outputFile);
+				} else {
+					bytesWritten = write(template, model, outputFile);
+				}
+			} catch (Throwable t) {
+				if (manifest != null) {
+					manifest.recordFailed(this);
+				}
+				throw new RuntimeException("Could not process template associated with data file: " + generatorLocation, t);
+			}
 		} catch (Throwable t) {
-			throw new RuntimeException("Could not read template: " + templateFile.getName(), t);
+			failure = t;
+			throw t;
+		} finally {
+			TrackingConfiguration.stopTracking(config);
+			closeDataModel(failure);
+		}
+		if (statistics != null) {
+			long parseNanos = 0;
+			if (tracking != null) {
+				for (Map.Entry<String, Long> parse : tracking.parseNanos.entrySet()) {
+					statistics.recordTemplateParse(parse.getKey(), parse.getValue());
+				}
+				parseNanos = tracking.getTotalParseNanos();
+			}
+			statistics.recordRender(templateFile.getName(), System.nanoTime() - start - parseNanos);
+			statistics.recordRegenerated(outputLocation, reason, bytesWritten);
+		}
+		if (manifest != null) {
+			manifest.recordGenerated(this, tracking == null ? null : tracking.loadedTemplates, dataAccess);
 		}
+	}
 
-		try (FileWriter writer = new FileWriter(outputFile)) {
-			template.process(dataModel, writer);
-		} catch (Throwable t) {
-			throw new RuntimeException("Could not process template associated with data file: " + generatorLocation, t);
+	/**
+	 * Timestamp based staleness check, used without a build manifest.
+	 * @return Why the output has to be generated again, or null if it is newer than all its inputs.
+	 */
+	private BuildManifest.Reason checkTimestamps(File outputFile, File generatorFile, File templateFile) {
+		long outputModified = outputFile.lastModified();
+		if (outputModified <= generatorFile.lastModified()) {
+			return BuildManifest.Reason.GENERATOR_CHANGED;
+		}
+		if (outputModified <= templateFile.lastModified()) {
+			return BuildManifest.Reason.TEMPLATE_CHANGED;
+		}
+		if (outputModified <= pomModifiedTimestamp) {
+			return BuildManifest.Reason.CONFIGURATION_CHANGED;
+		}
+		return null;
+	}
+
+	/**
+	 * @return The input file whose change made the output stale, null if there is none.
+	 */
+	private Path getTriggeringInput(BuildManifest.Reason reason) {
+		switch (reason) {
+			case GENERATOR_CHANGED:
+				return generatorLocation;
+			case TEMPLATE_CHANGED:
+				return context.manifest != null ? context.manifest.findChangedTemplate(this) : templateLocation;
+			case OUTPUT_CHANGED:
+				return outputLocation;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Releases the resources held by data models that stream their content, such as {@link LazyJsonModel}.
+	 */
+	private void closeDataModel() {
+		closeDataModel(null);
+	}
+
+	/**
+	 * @param failure Why the generation failed, null if it didn't. A failure to close is then added to it as a
+	 * suppressed exception instead of being thrown, so that it doesn't hide the actual error.
+	 */
+	private void closeDataModel(Throwable failure) {
+		if (dataModel instanceof Closeable) {
+			try {
+				((Closeable) dataModel).close();
+			} catch (IOException | RuntimeException e) {
+				RuntimeException closeFailure = new RuntimeException("Could not close data model of data file: " + generatorLocation, e);
+				if (failure == null) {
+					throw closeFailure;
+				}
+				failure.addSuppressed(closeFailure);
+			}
+		}
+	}
+
+	/**
+	 * Renders the template into a temporary file next to the output, which then replaces the output. A failed render
+	 * leaves the previous output untouched, rather than a truncated file that looks up to date.
+	 * @return The number of bytes written.
+	 */
+	private long write(Template template, Object model, File outputFile) throws IOException, TemplateException {
+		Path tempFile = createTempFile(outputFile);
+		try {
+			try (Writer writer = new BufferedWriter(
+				 new OutputStreamWriter(Files.newOutputStream(tempFile), context.outputEncoding), WRITE_BUFFER_CHARS)) {
+				template.process(model, writer);
+			}
+			long length = Files.size(tempFile);
+			moveIntoPlace(tempFile, outputFile);
+			context.refresh(outputFile);
+			return length;
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/**
+	 * Renders the template into the calling thread's buffer, and only replaces the output file if the result differs
+	 * from its current content.
+	 * @return The number of bytes written, 0 if the file was left unchanged.
+	 */
+	private long writeIfChanged(Template template, Object model, File outputFile) throws IOException, TemplateException {
+		RenderBuffer buffer = RENDER_BUFFER.get();
+		try {
+			template.process(model, buffer);
+			ByteBuffer content = context.outputEncoding.encode(buffer.asCharBuffer());
+			if (hasContent(outputFile, content)) {
+				context.recordUnchangedWrite();
+				return 0;
+			}
+			long length = content.remaining();
+			Path tempFile = createTempFile(outputFile);
+			try {
+				try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+					while (content.hasRemaining()) {
+						out.write(content);
+					}
+				}
+				moveIntoPlace(tempFile, outputFile);
+				context.refresh(outputFile);
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+			return length;
+		} finally {
+			buffer.release();
+		}
+	}
+
+	/**
+	 * Creates an empty file in the directory of the output. It gets the default permissions, unlike the files of
+	 * {@link Files#createTempFile}, which only their owner can read.
+	 */
+	private static Path createTempFile(File outputFile) throws IOException {
+		Path directory = outputFile.getAbsoluteFile().getParentFile().toPath();
+		while (true) {
+			Path tempFile = directory.resolve("." + outputFile.getName() + "."
+				 + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+			try {
+				return Files.createFile(tempFile);
+			} catch (FileAlreadyExistsException e) {
+				// Try another name.
+			}
+		}
+	}
+
+	private static void moveIntoPlace(Path tempFile, File outputFile) throws IOException {
+		try {
+			Files.move(tempFile, outputFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile, outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static boolean hasContent(File file, ByteBuffer content) throws IOException {
+		if (!file.isFile() || file.length() != content.remaining()) {
+			return false;
+		}
+		ByteBuffer expected = content.duplicate();
+		byte[] chunk = new byte[8192];
+		try (InputStream in = new FileInputStream(file)) {
+			int read;
+			while ((read = in.read(chunk)) != -1) {
+				if (read > expected.remaining()) {
+					return false;
+				}
+				for (int i = 0; i < read; i++) {
+					if (chunk[i] != expected.get()) {
+						return false;
+					}
+				}
+			}
+		}
+		return !expected.hasRemaining();
+	}
+
+	private static final int WRITE_BUFFER_CHARS = 64 * 1024;
+
+	private static final ThreadLocal<RenderBuffer> RENDER_BUFFER = ThreadLocal.withInitial(RenderBuffer::new);
+
+	/**
+	 * Reusable character buffer for rendering. Buffers that grew very large are not kept for the next output.
+	 */
+	private static class RenderBuffer extends CharArrayWriter {
+		private static final int MAX_RETAINED_CHARS = 4 * 1024 * 1024;
+
+		RenderBuffer() {
+			super(64 * 1024);
+		}
+
+		CharBuffer asCharBuffer() {
+			return CharBuffer.wrap(buf, 0, count);
+		}
+
+		void release() {
+			if (buf.length > MAX_RETAINED_CHARS) {
+				RENDER_BUFFER.remove();
+			} else {
+				reset();
+			}
 		}
 	}
 }
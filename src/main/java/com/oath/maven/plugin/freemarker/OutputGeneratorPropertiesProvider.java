@@ -4,6 +4,7 @@
 package com.oath.maven.plugin.freemarker;
 
 import java.nio.file.Path;
+import java.util.function.Supplier;
 
 public interface OutputGeneratorPropertiesProvider {
 	/**
@@ -13,4 +14,16 @@ public interface OutputGeneratorPropertiesProvider {
 	 * @param builder The builder to which to add the properties.
 	 */
 	public void providePropertiesFromFile(Path path, OutputGenerator.OutputGeneratorBuilder builder);
+
+	/**
+	 * Adds the properties of every output of the generator file, for generator files that produce several outputs.
+	 * The default implementation supports a single output, through {@link #providePropertiesFromFile}.
+	 * @param path The path to the generator file.
+	 * @param builders Gives a new builder, already holding the properties added elsewhere, for each output. The output
+	 * of a builder may be generated as soon as the next builder is asked for, so add every property of an output
+	 * before asking for the next one.
+	 */
+	public default void provideOutputsFromFile(Path path, Supplier<OutputGenerator.OutputGeneratorBuilder> builders) {
+		providePropertiesFromFile(path, builders.get());
+	}
 }
@@ -0,0 +1,247 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Keeps the parsed content of json files on disk, in a compact binary encoding, so that files that didn't change
+ * since a previous build are decoded instead of parsed again. Entries are named after the hash of the file's content,
+ * so a changed file simply misses.
+ *
+ * <p>The cache is capped in size: {@link #evict()} deletes the least recently used entries, the modification time
+ * of an entry being updated each time it is read. The cache is thread safe.</p>
+ */
+public class ParsedDataCache {
+
+  private static final int MAGIC = 0x464d5043;
+  private static final int FORMAT_VERSION = 1;
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte NUMBER = 2;
+  private static final byte TRUE = 3;
+  private static final byte FALSE = 4;
+  private static final byte LIST = 5;
+  private static final byte MAP = 6;
+
+  private final Path directory;
+  private final long maxBytes;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  private ParsedDataCache(Path directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @param maxBytes The size above which {@link #evict()} deletes entries.
+   */
+  public static ParsedDataCache create(File directory, long maxBytes) {
+    return new ParsedDataCache(directory.toPath(), maxBytes);
+  }
+
+  /**
+   * Reads the json file, and decodes its cached content if it has one. Otherwise parses it and caches the result.
+   * A cache entry that can't be read or written is ignored, the file is parsed as if the cache was disabled.
+   * @param parser Parses the content of the file.
+   * @throws IOException if the file can't be read.
+   */
+  public Map<String, Object> get(Path file, Function<byte[], Map<String, Object>> parser) throws IOException {
+    byte[] content = Files.readAllBytes(file);
+    Path entry = directory.resolve(ContentHash.toHex(ContentHash.newDigest().digest(content)) + ".bin");
+    if (Files.isRegularFile(entry)) {
+      try {
+        Map<String, Object> data = read(entry);
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        hits.increment();
+        return data;
+      } catch (IOException | RuntimeException e) {
+        // Corrupt or concurrently evicted: parse the file again.
+      }
+    }
+    misses.increment();
+    Map<String, Object> data = parser.apply(content);
+    try {
+      write(entry, data);
+    } catch (IOException | IllegalArgumentException e) {
+      // Not cacheable, the next build parses the file again.
+    }
+    return data;
+  }
+
+  /**
+   * Deletes the least recently used entries until the cache fits in its maximum size.
+   * @return The number of entries deleted.
+   * @throws IOException if the cache directory can't be listed.
+   */
+  public int evict() throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return 0;
+    }
+    List<Path> entries = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.bin")) {
+      stream.forEach(entries::add);
+    }
+    Map<Path, Long> lastModified = new LinkedHashMap<>();
+    for (Path entry : entries) {
+      lastModified.put(entry, entry.toFile().lastModified());
+    }
+    entries.sort(Comparator.comparing(lastModified::get, Comparator.reverseOrder()));
+    long size = 0;
+    int evicted = 0;
+    for (Path entry : entries) {
+      size += entry.toFile().length();
+      if (size > maxBytes && Files.deleteIfExists(entry)) {
+        evicted++;
+      }
+    }
+    return evicted;
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  private void write(Path entry, Map<String, Object> data) throws IOException {
+    Files.createDirectories(directory);
+    Path temp = directory.resolve("." + entry.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong())
+        + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 65536))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        writeValue(out, data);
+      }
+      try {
+        Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> read(Path entry) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry), 65536))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        throw new IOException("Not a parsed data cache entry: " + entry);
+      }
+      Object data = readValue(in);
+      if (!(data instanceof Map)) {
+        throw new IOException("Not a parsed data cache entry: " + entry);
+      }
+      return (Map<String, Object>) data;
+    }
+  }
+
+  /**
+   * Writes the values json parses into: strings, numbers, booleans, lists, maps and null.
+   * @throws IllegalArgumentException for any other value.
+   */
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(NULL);
+    } else if (value instanceof String) {
+      out.writeByte(STRING);
+      writeString(out, (String) value);
+    } else if (value instanceof Double) {
+      out.writeByte(NUMBER);
+      out.writeDouble((Double) value);
+    } else if (value instanceof Boolean) {
+      out.writeByte((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      out.writeByte(LIST);
+      out.writeInt(list.size());
+      for (Object element : list) {
+        writeValue(out, element);
+      }
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      out.writeByte(MAP);
+      out.writeInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeString(out, String.valueOf(entry.getKey()));
+        writeValue(out, entry.getValue());
+      }
+    } else {
+      throw new IllegalArgumentException("Can't cache value of type: " + value.getClass().getName());
+    }
+  }
+
+  private static Object readValue(DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+      case NULL:
+        return null;
+      case STRING:
+        return readString(in);
+      case NUMBER:
+        return in.readDouble();
+      case TRUE:
+        return Boolean.TRUE;
+      case FALSE:
+        return Boolean.FALSE;
+      case LIST: {
+        int size = in.readInt();
+        List<Object> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(readValue(in));
+        }
+        return list;
+      }
+      case MAP: {
+        int size = in.readInt();
+        Map<String, Object> map = new LinkedHashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+          String key = readString(in);
+          map.put(key, readValue(in));
+        }
+        return map;
+      }
+      default:
+        throw new IOException("Unknown value type in parsed data cache entry: " + type);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Parses json like Gson does into maps, lists, strings, doubles and booleans, except for arrays that only hold
+ * numbers: they become a {@link NumberSequenceModel} over a list of ints, when every number is one, or of doubles.
+ * A million numbers then take 4 or 8 megabytes rather than the tens of megabytes of boxed doubles.
+ */
+public class PrimitiveArrayParser {
+
+  private PrimitiveArrayParser() {
+  }
+
+  /**
+   * @throws JsonParseException if the json is not an object.
+   */
+  @SuppressWarnings("unchecked")
+  public static Map<String, Object> read(JsonReader reader) throws IOException {
+    reader.setLenient(true);
+    if (reader.peek() == JsonToken.END_DOCUMENT) {
+      return null;
+    }
+    Object value = readValue(reader);
+    if (!(value instanceof Map)) {
+      throw new JsonParseException("Expected a json object");
+    }
+    return (Map<String, Object>) value;
+  }
+
+  /**
+   * Like {@link #read(JsonReader)}, for json that may hold any value, such as a referenced file.
+   * @return The value, null for an empty file.
+   */
+  public static Object readJson(JsonReader reader) throws IOException {
+    reader.setLenient(true);
+    return reader.peek() == JsonToken.END_DOCUMENT ? null : readValue(reader);
+  }
+
+  private static Object readValue(JsonReader reader) throws IOException {
+    switch (reader.peek()) {
+      case BEGIN_OBJECT:
+        Map<String, Object> map = new LinkedHashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String name = reader.nextName();
+          map.put(name, readValue(reader));
+        }
+        reader.endObject();
+        return map;
+      case BEGIN_ARRAY:
+        return readArray(reader);
+      case STRING:
+        return reader.nextString();
+      case NUMBER:
+        return reader.nextDouble();
+      case BOOLEAN:
+        return reader.nextBoolean();
+      case NULL:
+        reader.nextNull();
+        return null;
+      default:
+        throw new JsonParseException("Unexpected json token: " + reader.peek());
+    }
+  }
+
+  /**
+   * Reads numbers into a list of doubles until the first value that isn't one, in which case the numbers read so far
+   * are boxed into a regular list.
+   */
+  private static Object readArray(JsonReader reader) throws IOException {
+    reader.beginArray();
+    DoubleArrayList numbers = new DoubleArrayList();
+    boolean ints = true;
+    while (reader.hasNext() && reader.peek() == JsonToken.NUMBER) {
+      double number = reader.nextDouble();
+      ints &= number == (int) number && !(number == 0 && 1 / number < 0);
+      numbers.add(number);
+    }
+    if (!reader.hasNext()) {
+      reader.endArray();
+      if (numbers.isEmpty()) {
+        return new ArrayList<>();
+      }
+      if (ints) {
+        IntArrayList values = new IntArrayList(numbers.size());
+        for (int i = 0; i < numbers.size(); i++) {
+          values.add((int) numbers.getDouble(i));
+        }
+        return NumberSequenceModel.ofInts(values);
+      }
+      numbers.trim();
+      return NumberSequenceModel.ofDoubles(numbers);
+    }
+    List<Object> list = new ArrayList<>(numbers);
+    while (reader.hasNext()) {
+      list.add(readValue(reader));
+    }
+    reader.endArray();
+    return list;
+  }
+}
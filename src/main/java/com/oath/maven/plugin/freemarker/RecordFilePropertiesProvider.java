@@ -0,0 +1,361 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates one output per record of a tabular generator file: a <b>.csv</b> file, whose first row names the
+ * fields, or a <b>.jsonl</b> (JSON Lines) file, with one json object per line.
+ *
+ * <p>The file starts with directive lines, of the form <code># name: value</code>:</p>
+ * <ul>
+ * <li><b>templateName</b>: the template used for every record.</li>
+ * <li><b>output</b>: the path of the output of a record, relative to the output directory. <code>{field}</code> is
+ * replaced by the value of the field of the record.</li>
+ * </ul>
+ *
+ * <p>The fields of a record are its data model. Records are read one at a time, and each one is handed over before
+ * the next one is read, so the file is never held in memory.</p>
+ */
+public class RecordFilePropertiesProvider implements OutputGeneratorPropertiesProvider {
+
+	/** The formats of record files. */
+	public enum Format {
+		/** Comma separated values, with a header row. Every value is a string. */
+		CSV,
+		/** One json object per line. */
+		JSON_LINES
+	}
+
+	private static final Pattern DIRECTIVE = Pattern.compile("#\\s*(\\w+)\\s*:\\s*(.*?)\\s*");
+	private static final Pattern FIELD = Pattern.compile("\\{([^}]*)\\}");
+
+	private final File templateDir;
+	private final File outputDir;
+	private final Format format;
+	private final Gson gson;
+	private final Type stringObjectMap;
+
+	private RecordFilePropertiesProvider(File templateDir, File outputDir, Format format) {
+		this.templateDir = templateDir;
+		this.outputDir = outputDir;
+		this.format = format;
+		gson = new GsonBuilder().setLenient().create();
+		stringObjectMap = new TypeToken<Map<String, Object>>() { } .getType();
+	}
+
+	public static RecordFilePropertiesProvider create(File templateDir, File outputDir, Format format) {
+		return new RecordFilePropertiesProvider(templateDir, outputDir, format);
+	}
+
+	/**
+	 * Only supports record files with a single record.
+	 */
+	@Override
+	public void providePropertiesFromFile(Path path, OutputGenerator.OutputGeneratorBuilder builder) {
+		boolean[] provided = new boolean[1];
+		provideOutputsFromFile(path, () -> {
+			if (provided[0]) {
+				throw new RuntimeException("Record file has several outputs: " + path);
+			}
+			provided[0] = true;
+			return builder;
+		});
+	}
+
+	@Override
+	public void provideOutputsFromFile(Path path, Supplier<OutputGenerator.OutputGeneratorBuilder> builders) {
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			skipByteOrderMark(reader);
+			Map<String, String> directives = new LinkedHashMap<>();
+			int directiveLines = readDirectives(path, reader, directives);
+			String templateName = directives.get("templateName");
+			if (templateName == null) {
+				throw new RuntimeException("Require record file directive not found: templateName in " + path);
+			}
+			String output = directives.get("output");
+			if (output == null) {
+				throw new RuntimeException("Require record file directive not found: output in " + path);
+			}
+			RecordReader records = format == Format.CSV
+					? new CsvRecordReader(reader, directiveLines) : new JsonLinesRecordReader(reader, directiveLines);
+			Map<String, Object> record;
+			while ((record = next(path, records)) != null) {
+				provideRecordProperties(path, templateName, output, record, records.getFingerprint(), builders.get());
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read record file: " + path, e);
+		}
+	}
+
+	/**
+	 * Skips the byte order mark spreadsheet tools often start their csv exports with, which would otherwise hide the
+	 * first directive or header name.
+	 */
+	private static void skipByteOrderMark(BufferedReader reader) throws IOException {
+		reader.mark(1);
+		if (reader.read() != '\uFEFF') {
+			reader.reset();
+		}
+	}
+
+	/**
+	 * @return The number of directive lines read.
+	 */
+	private static int readDirectives(Path path, BufferedReader reader, Map<String, String> directives)
+			throws IOException {
+		int lines = 0;
+		while (true) {
+			reader.mark(1);
+			int first = reader.read();
+			reader.reset();
+			if (first != '#') {
+				return lines;
+			}
+			lines++;
+			String line = reader.readLine();
+			Matcher matcher = DIRECTIVE.matcher(line);
+			if (!matcher.matches()) {
+				throw new RuntimeException("Invalid record file directive: " + line + " in " + path);
+			}
+			String name = matcher.group(1);
+			if (!"templateName".equals(name) && !"output".equals(name)) {
+				throw new RuntimeException("Unknown record file directive: " + name + " in " + path);
+			}
+			directives.put(name, matcher.group(2));
+		}
+	}
+
+	private Map<String, Object> next(Path path, RecordReader records) throws IOException {
+		try {
+			return records.next();
+		} catch (RuntimeException e) {
+			String description = format == Format.CSV ? "csv" : "json lines";
+			throw new RuntimeException("Could not parse " + description + " data file: " + path + " at line "
+					+ records.getLineNumber(), e);
+		}
+	}
+
+	private void provideRecordProperties(Path path, String templateName, String output, Map<String, Object> record,
+			String recordFingerprint, OutputGenerator.OutputGeneratorBuilder builder) {
+		builder.addDataModel(record);
+		builder.addTemplateLocation(templateDir.toPath().resolve(templateName));
+
+		StringBuffer outputName = new StringBuffer();
+		Matcher matcher = FIELD.matcher(output);
+		while (matcher.find()) {
+			Object value = record.get(matcher.group(1));
+			if (value == null) {
+				throw new RuntimeException("Record has no value for " + matcher.group() + " of the output in " + path);
+			}
+			matcher.appendReplacement(outputName, Matcher.quoteReplacement(value.toString()));
+		}
+		matcher.appendTail(outputName);
+		Path outputPath = outputDir.toPath().toAbsolutePath().normalize();
+		Path resolved = outputPath.resolve(outputName.toString()).normalize();
+		if (!resolved.startsWith(outputPath) || resolved.equals(outputPath)) {
+			throw new RuntimeException("Output not in outputDirectory: " + outputName + " in " + path);
+		}
+		builder.addOutputLocation(resolved);
+
+		MessageDigest digest = ContentHash.newDigest();
+		ContentHash.update(digest, templateName);
+		ContentHash.update(digest, output);
+		ContentHash.update(digest, recordFingerprint);
+		builder.addGeneratorFingerprint(ContentHash.toHex(digest.digest()));
+	}
+
+	/**
+	 * Reads the records of a file, one at a time.
+	 */
+	private interface RecordReader {
+		/**
+		 * @return The fields of the next record, or null at the end of the file.
+		 */
+		Map<String, Object> next() throws IOException;
+
+		/**
+		 * @return What the record returned last was read from.
+		 */
+		String getFingerprint();
+
+		/**
+		 * @return The line of the file the record read last starts on.
+		 */
+		int getLineNumber();
+	}
+
+	private class JsonLinesRecordReader implements RecordReader {
+		private final BufferedReader reader;
+		private String line;
+		private int lineNumber;
+
+		JsonLinesRecordReader(BufferedReader reader, int linesBefore) {
+			this.reader = reader;
+			lineNumber = linesBefore;
+		}
+
+		@Override
+		public Map<String, Object> next() throws IOException {
+			do {
+				line = reader.readLine();
+				lineNumber++;
+			} while (line != null && line.trim().isEmpty());
+			if (line == null) {
+				return null;
+			}
+			try (JsonReader json = new JsonReader(new StringReader(line))) {
+				Map<String, Object> record = gson.fromJson(json, stringObjectMap);
+				if (record == null) {
+					throw new IllegalStateException("Not a json object");
+				}
+				return record;
+			} catch (RuntimeException e) {
+				throw new RuntimeException("Could not parse record: " + line, e);
+			}
+		}
+
+		@Override
+		public String getFingerprint() {
+			return line;
+		}
+
+		@Override
+		public int getLineNumber() {
+			return lineNumber;
+		}
+	}
+
+	/**
+	 * Reads comma separated values as described by RFC 4180: values may be quoted, quoted values may contain commas,
+	 * line breaks and doubled quotes.
+	 */
+	private static class CsvRecordReader implements RecordReader {
+		private final BufferedReader reader;
+		private List<String> header;
+		private List<String> values;
+		private int recordNumber;
+		/** The line the reader is on, and the line the row read last starts on. */
+		private int line;
+		private int rowLine;
+		private boolean afterCarriageReturn;
+
+		CsvRecordReader(BufferedReader reader, int linesBefore) {
+			this.reader = reader;
+			line = linesBefore + 1;
+		}
+
+		@Override
+		public Map<String, Object> next() throws IOException {
+			if (header == null) {
+				header = readValues();
+				if (header == null) {
+					return null;
+				}
+			}
+			values = readValues();
+			if (values == null) {
+				return null;
+			}
+			recordNumber++;
+			if (values.size() != header.size()) {
+				throw new RuntimeException("Record " + recordNumber + " has " + values.size() + " value(s), the header has "
+					 + header.size());
+			}
+			Map<String, Object> record = new LinkedHashMap<>();
+			for (int i = 0; i < values.size(); i++) {
+				record.put(header.get(i), values.get(i));
+			}
+			return record;
+		}
+
+		@Override
+		public String getFingerprint() {
+			return String.join("\0", header) + "\n" + String.join("\0", values);
+		}
+
+		@Override
+		public int getLineNumber() {
+			return rowLine;
+		}
+
+		/**
+		 * @return The values of the next row that is not empty, or null at the end of the file.
+		 */
+		private List<String> readValues() throws IOException {
+			int c;
+			do {
+				c = read();
+			} while (c == '\r' || c == '\n');
+			rowLine = line;
+			if (c == -1) {
+				return null;
+			}
+			List<String> row = new ArrayList<>();
+			StringBuilder value = new StringBuilder();
+			boolean quoted = false;
+			while (true) {
+				if (quoted) {
+					if (c == -1) {
+						throw new RuntimeException("Unterminated quoted value after record " + recordNumber);
+					} else if (c == '"') {
+						reader.mark(1);
+						if (reader.read() == '"') {
+							value.append('"');
+						} else {
+							reader.reset();
+							quoted = false;
+						}
+					} else {
+						value.append((char) c);
+					}
+				} else if (c == '"' && value.length() == 0) {
+					quoted = true;
+				} else if (c == ',') {
+					row.add(value.toString());
+					value.setLength(0);
+				} else if (c == '\r' || c == '\n' || c == -1) {
+					row.add(value.toString());
+					return row;
+				} else {
+					value.append((char) c);
+				}
+				c = read();
+			}
+		}
+
+		/**
+		 * Reads a character, counting lines ended by \r, \n or \r\n.
+		 */
+		private int read() throws IOException {
+			int c = reader.read();
+			if (c == '\r' || c == '\n' && !afterCarriageReturn) {
+				line++;
+			}
+			afterCarriageReturn = c == '\r';
+			return c;
+		}
+	}
+}
@@ -0,0 +1,339 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Resolves the references of json data models to other json files: an object whose only property is
+ * <code>"$ref": "path"</code> is replaced by the content of the file, the path being relative to the directory of the
+ * file holding the reference. A path may end with a json pointer, such as <code>common.json#/colors/0</code>, to
+ * only use part of the file. Referenced files may hold references themselves.
+ *
+ * <p>Each referenced file is parsed once, with the parser of the cache, and its content is shared, read-only, by
+ * every data model referencing it. The parsed files are kept in memory until the total size of their json source
+ * exceeds the maximum, the least recently used ones being dropped first. A kept file is parsed again when it, or a
+ * file it references, changed on disk. The cache is thread safe.</p>
+ */
+public class ReferencedDataCache {
+
+  static final String REF = "$ref";
+
+  private final Parser parser;
+  private final long maxBytes;
+  private final Map<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes;
+  private final Set<Path> referencedFiles = ConcurrentHashMap.newKeySet();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * The state of a referenced file when it was parsed.
+   */
+  private static class Stamp {
+    final long size;
+    final long lastModified;
+    final String hash;
+
+    Stamp(long size, long lastModified, String hash) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
+  }
+
+  private static class Entry {
+    final Object value;
+    /** The file along with every file it references, directly or not. */
+    final Map<Path, Stamp> files;
+    final long bytes;
+
+    Entry(Object value, Map<Path, Stamp> files, long bytes) {
+      this.value = value;
+      this.files = files;
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * Turns the content of a referenced file into the maps, lists and values of a data model.
+   */
+  public interface Parser {
+    Object parse(JsonReader reader) throws IOException;
+  }
+
+  private ReferencedDataCache(long maxBytes, Parser parser) {
+    this.maxBytes = maxBytes;
+    this.parser = parser;
+  }
+
+  /**
+   * Creates a cache that parses referenced files like Gson does.
+   * @param maxBytes The total size of the referenced files above which the least recently used ones are dropped.
+   */
+  public static ReferencedDataCache create(long maxBytes) {
+    Gson gson = new GsonBuilder().setLenient().create();
+    return create(maxBytes, reader -> gson.fromJson(reader, Object.class));
+  }
+
+  /**
+   * @param maxBytes The total size of the referenced files above which the least recently used ones are dropped.
+   * @param parser How referenced files are parsed, which should match how the data models referencing them are.
+   */
+  public static ReferencedDataCache create(long maxBytes, Parser parser) {
+    return new ReferencedDataCache(maxBytes, parser);
+  }
+
+  /**
+   * Replaces every reference found in the value by the referenced content. The maps and lists of the value are
+   * updated in place.
+   * @param value A value parsed from the json file, such as a data model.
+   * @param file The json file holding the value, the references being relative to its directory.
+   * @param references Where to add the content hash of every file referenced, directly or not, by path.
+   * @return The value, or the referenced content when the value itself is a reference.
+   * @throws RuntimeException if a referenced file can't be read or parsed, or references itself.
+   */
+  public Object resolve(Object value, Path file, Map<Path, String> references) {
+    Map<Path, Stamp> files = new TreeMap<>();
+    Object resolved = resolve(value, file.toAbsolutePath().normalize(), files, new LinkedHashSet<>(), false);
+    for (Map.Entry<Path, Stamp> referenced : files.entrySet()) {
+      references.put(referenced.getKey(), referenced.getValue().hash);
+    }
+    return resolved;
+  }
+
+  /**
+   * @return Every file referenced since the cache was created, kept or not.
+   */
+  public Set<Path> getReferencedFiles() {
+    return new TreeSet<>(referencedFiles);
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * @param files Where to add the state of the referenced files.
+   * @param loading The files being loaded, to detect reference cycles.
+   * @param readOnly Whether to return read-only views of the maps and lists, for the content of referenced files.
+   */
+  @SuppressWarnings("unchecked")
+  private Object resolve(Object value, Path file, Map<Path, Stamp> files, Set<Path> loading, boolean readOnly) {
+    String ref = getReference(value);
+    if (ref != null) {
+      return load(ref, file, files, loading);
+    }
+    if (value instanceof Map) {
+      Map<String, Object> map = (Map<String, Object>) value;
+      for (Map.Entry<String, Object> entry : map.entrySet()) {
+        Object resolved = resolve(entry.getValue(), file, files, loading, readOnly);
+        if (resolved != entry.getValue()) {
+          entry.setValue(resolved);
+        }
+      }
+      return readOnly ? Collections.unmodifiableMap(map) : map;
+    } else if (value instanceof List) {
+      List<Object> list = (List<Object>) value;
+      ListIterator<Object> it = list.listIterator();
+      while (it.hasNext()) {
+        Object element = it.next();
+        Object resolved = resolve(element, file, files, loading, readOnly);
+        if (resolved != element) {
+          it.set(resolved);
+        }
+      }
+      return readOnly ? Collections.unmodifiableList(list) : list;
+    }
+    return value;
+  }
+
+  private Object load(String ref, Path file, Map<Path, Stamp> files, Set<Path> loading) {
+    int hash = ref.indexOf('#');
+    String location = hash < 0 ? ref : ref.substring(0, hash);
+    if (location.isEmpty()) {
+      throw new RuntimeException("Json reference without a file: " + ref + " in " + file);
+    }
+    Path referenced = file.resolveSibling(location).normalize();
+    if (loading.contains(referenced)) {
+      throw new RuntimeException("Cyclic json reference: " + ref + " in " + file);
+    }
+    referencedFiles.add(referenced);
+    Entry entry = get(referenced);
+    if (entry == null) {
+      misses.increment();
+      loading.add(referenced);
+      try {
+        entry = parse(referenced, ref, file, loading);
+      } finally {
+        loading.remove(referenced);
+      }
+      put(referenced, entry);
+    } else {
+      hits.increment();
+    }
+    files.putAll(entry.files);
+    return hash < 0 ? entry.value : select(entry.value, ref.substring(hash + 1), ref, file);
+  }
+
+  private Entry parse(Path referenced, String ref, Path file, Set<Path> loading) {
+    byte[] content;
+    long lastModified;
+    try {
+      lastModified = Files.getLastModifiedTime(referenced).toMillis();
+      content = Files.readAllBytes(referenced);
+    } catch (IOException e) {
+      throw new RuntimeException("Could not read json reference: " + ref + " in " + file, e);
+    }
+    Object value;
+    try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(content), "UTF-8"))) {
+      reader.setLenient(true);
+      value = parser.parse(reader);
+    } catch (IOException | RuntimeException e) {
+      throw new RuntimeException("Could not parse referenced json file: " + referenced, e);
+    }
+    Map<Path, Stamp> files = new LinkedHashMap<>();
+    files.put(referenced, new Stamp(content.length, lastModified,
+        ContentHash.toHex(ContentHash.newDigest().digest(content))));
+    value = resolve(value, referenced, files, loading, true);
+    return new Entry(value, files, content.length);
+  }
+
+  /**
+   * @return The entry of the file, null if it isn't kept or is no longer up to date.
+   */
+  private synchronized Entry get(Path file) {
+    Entry entry = entries.get(file);
+    if (entry != null && !isUpToDate(entry)) {
+      remove(file);
+      return null;
+    }
+    return entry;
+  }
+
+  private synchronized void put(Path file, Entry entry) {
+    Entry previous = entries.put(file, entry);
+    if (previous != null) {
+      totalBytes -= previous.bytes;
+    }
+    totalBytes += entry.bytes;
+    Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && it.hasNext()) {
+      Map.Entry<Path, Entry> eldest = it.next();
+      if (eldest.getValue() != entry) {
+        totalBytes -= eldest.getValue().bytes;
+        it.remove();
+      }
+    }
+  }
+
+  private void remove(Path file) {
+    Entry entry = entries.remove(file);
+    if (entry != null) {
+      totalBytes -= entry.bytes;
+    }
+  }
+
+  private static boolean isUpToDate(Entry entry) {
+    for (Map.Entry<Path, Stamp> file : entry.files.entrySet()) {
+      try {
+        if (Files.size(file.getKey()) != file.getValue().size
+            || Files.getLastModifiedTime(file.getKey()).toMillis() != file.getValue().lastModified) {
+          return false;
+        }
+      } catch (IOException e) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return The part of the value the json pointer designates.
+   */
+  private static Object select(Object value, String pointer, String ref, Path file) {
+    if (pointer.isEmpty()) {
+      return value;
+    }
+    if (!pointer.startsWith("/")) {
+      throw new RuntimeException("Invalid json pointer: " + ref + " in " + file);
+    }
+    Object selected = value;
+    for (String token : pointer.substring(1).split("/", -1)) {
+      token = token.replace("~1", "/").replace("~0", "~");
+      if (selected instanceof Map && ((Map<?, ?>) selected).containsKey(token)) {
+        selected = ((Map<?, ?>) selected).get(token);
+      } else if (selected instanceof List && token.matches("\\d+")
+          && Integer.parseInt(token) < ((List<?>) selected).size()) {
+        selected = ((List<?>) selected).get(Integer.parseInt(token));
+      } else {
+        throw new RuntimeException("Json reference not found: " + ref + " in " + file);
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * @return The path of the first reference found in the value or in its maps and lists, null if there is none.
+   */
+  static String findReference(Object value) {
+    String ref = getReference(value);
+    if (ref != null) {
+      return ref;
+    }
+    Iterable<?> children = value instanceof Map ? ((Map<?, ?>) value).values()
+        : value instanceof List ? (List<?>) value : Collections.emptyList();
+    for (Object child : children) {
+      ref = findReference(child);
+      if (ref != null) {
+        return ref;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return The error message for a reference found by a parsing mode that doesn't resolve them.
+   */
+  static String unsupported(String parsingMode, String ref) {
+    return REF + " is not supported in the " + parsingMode + " parsing mode: " + ref;
+  }
+
+  /**
+   * @return The path of the reference, null if the value is not a reference.
+   */
+  private static String getReference(Object value) {
+    if (value instanceof Map && ((Map<?, ?>) value).size() == 1) {
+      Object ref = ((Map<?, ?>) value).get(REF);
+      if (ref instanceof String) {
+        return (String) ref;
+      }
+    }
+    return null;
+  }
+}
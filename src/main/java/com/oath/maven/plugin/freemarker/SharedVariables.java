@@ -0,0 +1,103 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleHash;
+import freemarker.template.SimpleScalar;
+import freemarker.template.SimpleSequence;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+
+/**
+ * Builds the models registered as shared variables of the FreeMarker configuration, which every template sees
+ * without them being copied into each data model.
+ *
+ * <p>The models are wrapped once, up front, and never change afterwards: they are read by every render, possibly
+ * from several threads at a time, so nothing is left for the object wrapper to wrap (and cache) lazily.</p>
+ */
+public class SharedVariables {
+
+  /** Name of the shared variable holding the pom properties. */
+  public static final String POM_PROPERTIES = "pomProperties";
+
+  private SharedVariables() {
+  }
+
+  /**
+   * @return A snapshot of the properties, which later changes to the properties don't affect.
+   */
+  public static TemplateModel wrapProperties(Properties properties, ObjectWrapper wrapper) {
+    Map<String, Object> snapshot = new TreeMap<>();
+    if (properties != null) {
+      for (String name : properties.stringPropertyNames()) {
+        snapshot.put(name, new SimpleScalar(properties.getProperty(name)));
+      }
+    }
+    return new SimpleHash(snapshot, wrapper);
+  }
+
+  /**
+   * The name under which a shared data file is visible to templates: its file name without the extension, for
+   * instance <code>countries</code> for <code>countries.json</code>.
+   */
+  public static String variableName(File dataFile) {
+    String fileName = dataFile.getName();
+    int dot = fileName.lastIndexOf('.');
+    return dot > 0 ? fileName.substring(0, dot) : fileName;
+  }
+
+  /**
+   * Parses a json file (with the same lenient parser as the json generator files) into a model.
+   * @throws RuntimeException if the file can't be read or parsed.
+   */
+  public static TemplateModel loadDataFile(File dataFile, ObjectWrapper wrapper) {
+    Gson gson = new GsonBuilder().setLenient().create();
+    Object value;
+    try (JsonReader reader = new JsonReader(new InputStreamReader(FactoryUtil.createFileInputStream(dataFile), "UTF-8"))) {
+      value = gson.fromJson(reader, Object.class);
+    } catch (Throwable t) {
+      throw new RuntimeException("Could not parse shared data file: " + dataFile, t);
+    }
+    try {
+      return wrapDeep(value, wrapper);
+    } catch (TemplateModelException e) {
+      throw new RuntimeException("Could not wrap shared data file: " + dataFile, e);
+    }
+  }
+
+  /**
+   * Wraps maps and lists recursively, so that their values are models already when templates read them.
+   */
+  static TemplateModel wrapDeep(Object value, ObjectWrapper wrapper) throws TemplateModelException {
+    if (value instanceof Map) {
+      Map<String, Object> wrapped = new LinkedHashMap<>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        wrapped.put(String.valueOf(entry.getKey()), wrapDeep(entry.getValue(), wrapper));
+      }
+      return new SimpleHash(wrapped, wrapper);
+    }
+    if (value instanceof List) {
+      List<Object> wrapped = new ArrayList<>(((List<?>) value).size());
+      for (Object element : (List<?>) value) {
+        wrapped.add(wrapDeep(element, wrapper));
+      }
+      return new SimpleSequence(wrapped, wrapper);
+    }
+    return wrapper.wrap(value);
+  }
+}
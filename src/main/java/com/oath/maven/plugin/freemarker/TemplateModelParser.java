@@ -0,0 +1,264 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleHash;
+import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
+import freemarker.template.SimpleSequence;
+import freemarker.template.TemplateBooleanModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateNumberModel;
+import freemarker.template.TemplateScalarModel;
+
+/**
+ * Parses json generator files straight into FreeMarker template models, so that the object wrapper doesn't wrap the
+ * data model again while rendering. The properties of the generator file (<b>templateName</b>, <b>outputs</b>, ...)
+ * are parsed into plain java values, and the values of each <b>dataModel</b> into {@link SimpleHash},
+ * {@link SimpleSequence}, {@link SimpleScalar}, {@link SimpleNumber} and {@link TemplateBooleanModel}.
+ *
+ * <p>Numbers keep their narrowest exact type: integers become an Integer, a Long or a BigInteger, and other numbers a
+ * Double when it holds them exactly, a BigDecimal otherwise. So <code>1</code> stays an integer, instead of becoming
+ * the double <code>1.0</code>.</p>
+ *
+ * <p>The hashes and sequences use the object wrapper of the configuration rendering them, which only wraps their keys
+ * and the values built-ins such as <code>?keys</code> return, every other value already being a template model.</p>
+ */
+public class TemplateModelParser {
+
+  /** A double holds any decimal number of up to 15 significant digits exactly. */
+  private static final int DOUBLE_DIGITS = 15;
+
+  private TemplateModelParser() {
+  }
+
+  /**
+   * @param wrapper The object wrapper of the configuration the data models are rendered with.
+   * @return The properties of the generator file, null for an empty file.
+   * @throws JsonParseException if the json is not an object.
+   */
+  public static Map<String, Object> read(JsonReader reader, ObjectWrapper wrapper) throws IOException {
+    reader.setLenient(true);
+    if (reader.peek() == JsonToken.END_DOCUMENT) {
+      return null;
+    }
+    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+      throw new JsonParseException("Expected a json object");
+    }
+    return readGenerator(reader, wrapper);
+  }
+
+  /**
+   * Turns the template models held by a parsed generator file back into java values, such as for hashing them.
+   */
+  public static Object toJava(Object value) {
+    try {
+      if (value instanceof OrderedHash) {
+        return toJava(((OrderedHash) value).values);
+      } else if (value instanceof Map) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+          map.put(String.valueOf(entry.getKey()), toJava(entry.getValue()));
+        }
+        return map;
+      } else if (value instanceof List) {
+        List<Object> list = new ArrayList<>();
+        for (Object element : (List<?>) value) {
+          list.add(toJava(element));
+        }
+        return list;
+      } else if (value instanceof SimpleSequence) {
+        SimpleSequence sequence = (SimpleSequence) value;
+        List<Object> list = new ArrayList<>(sequence.size());
+        for (int i = 0; i < sequence.size(); i++) {
+          list.add(toJava(sequence.get(i)));
+        }
+        return list;
+      } else if (value instanceof TemplateScalarModel) {
+        return ((TemplateScalarModel) value).getAsString();
+      } else if (value instanceof TemplateNumberModel) {
+        return ((TemplateNumberModel) value).getAsNumber();
+      } else if (value instanceof TemplateBooleanModel) {
+        return ((TemplateBooleanModel) value).getAsBoolean();
+      }
+      return value;
+    } catch (TemplateModelException e) {
+      throw new IllegalStateException("Could not read parsed json value", e);
+    }
+  }
+
+  /**
+   * @return The number written in json, in the narrowest type that holds it exactly.
+   */
+  static Number narrowestNumber(String text) {
+    boolean integer = true;
+    // Significant digits of the mantissa, leading zeros excluded.
+    int digits = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == 'e' || c == 'E') {
+        integer = false;
+        break;
+      } else if (c == '.') {
+        integer = false;
+      } else if (c >= '1' && c <= '9' || c == '0' && digits > 0) {
+        digits++;
+      }
+    }
+    if (integer) {
+      if (digits < 10) {
+        return Integer.valueOf(text);
+      }
+      BigInteger value = new BigInteger(text);
+      if (value.bitLength() < 32) {
+        return value.intValue();
+      }
+      return value.bitLength() < 64 ? (Number) value.longValue() : value;
+    }
+    Double value = Double.valueOf(text);
+    if (digits <= DOUBLE_DIGITS && !value.isInfinite() && (value != 0 || digits == 0)) {
+      return value;
+    }
+    return new BigDecimal(text);
+  }
+
+  private static Map<String, Object> readGenerator(JsonReader reader, ObjectWrapper wrapper) throws IOException {
+    Map<String, Object> generator = new LinkedHashMap<>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("dataModel".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+        generator.put(name, readDataModel(reader, wrapper));
+      } else if ("outputs".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+        List<Object> outputs = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          outputs.add(reader.peek() == JsonToken.BEGIN_OBJECT ? readGenerator(reader, wrapper) : readJava(reader));
+        }
+        reader.endArray();
+        generator.put(name, outputs);
+      } else {
+        generator.put(name, readJava(reader));
+      }
+    }
+    reader.endObject();
+    return generator;
+  }
+
+  /**
+   * @throws JsonParseException if the object is a json reference, which are not resolved in this mode.
+   */
+  private static Map<String, Object> readDataModel(JsonReader reader, ObjectWrapper wrapper) throws IOException {
+    Map<String, Object> dataModel = new LinkedHashMap<>();
+    String ref = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (ReferencedDataCache.REF.equals(name) && reader.peek() == JsonToken.STRING) {
+        ref = reader.nextString();
+        dataModel.put(name, new SimpleScalar(ref));
+      } else {
+        dataModel.put(name, readModel(reader, wrapper));
+      }
+    }
+    reader.endObject();
+    if (ref != null && dataModel.size() == 1) {
+      throw new JsonParseException(ReferencedDataCache.unsupported("TEMPLATE_MODEL", ref));
+    }
+    return dataModel;
+  }
+
+  private static TemplateModel readModel(JsonReader reader, ObjectWrapper wrapper) throws IOException {
+    switch (reader.peek()) {
+      case BEGIN_OBJECT:
+        return new OrderedHash(readDataModel(reader, wrapper), wrapper);
+      case BEGIN_ARRAY:
+        SimpleSequence sequence = new SimpleSequence(wrapper);
+        reader.beginArray();
+        while (reader.hasNext()) {
+          sequence.add(readModel(reader, wrapper));
+        }
+        reader.endArray();
+        return sequence;
+      case STRING:
+        return new SimpleScalar(reader.nextString());
+      case NUMBER:
+        return new SimpleNumber(narrowestNumber(reader.nextString()));
+      case BOOLEAN:
+        return reader.nextBoolean() ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE;
+      case NULL:
+        reader.nextNull();
+        return null;
+      default:
+        throw new JsonParseException("Unexpected json token: " + reader.peek());
+    }
+  }
+
+  private static Object readJava(JsonReader reader) throws IOException {
+    switch (reader.peek()) {
+      case BEGIN_OBJECT:
+        Map<String, Object> map = new LinkedHashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String name = reader.nextName();
+          map.put(name, readJava(reader));
+        }
+        reader.endObject();
+        return map;
+      case BEGIN_ARRAY:
+        List<Object> list = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          list.add(readJava(reader));
+        }
+        reader.endArray();
+        return list;
+      case STRING:
+        return reader.nextString();
+      case NUMBER:
+        return narrowestNumber(reader.nextString());
+      case BOOLEAN:
+        return reader.nextBoolean();
+      case NULL:
+        reader.nextNull();
+        return null;
+      default:
+        throw new JsonParseException("Unexpected json token: " + reader.peek());
+    }
+  }
+
+  /**
+   * A hash that keeps the order of the json object, using the parsed map as is rather than a copy of it.
+   */
+  private static class OrderedHash extends SimpleHash {
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, Object> values;
+
+    OrderedHash(Map<String, Object> values, ObjectWrapper wrapper) {
+      super(values, wrapper);
+      this.values = values;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected Map copyMap(Map map) {
+      return map;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.Version;
+
+/**
+ * FreeMarker configuration that records which template files are loaded while processing a template, including the
+ * ones pulled in through <code>#include</code> and <code>#import</code>.
+ *
+ * <p>Tracking is per thread, so templates can be processed concurrently. Only templates loaded through a
+ * {@link FileTemplateLoader} can be mapped to files, and thus recorded.</p>
+ *
+ * <p>It also counts template lookups, and how many of them had to parse the template rather than get it from the
+ * template cache. The time spent parsing is recorded per template, along with the loaded template files.</p>
+ */
+public class TrackingConfiguration extends Configuration {
+
+  private final ThreadLocal<Tracking> tracking = new ThreadLocal<>();
+  private final Map<Template, Boolean> seenTemplates = Collections.synchronizedMap(new WeakHashMap<>());
+  private final AtomicLong templateLookups = new AtomicLong();
+  private final AtomicLong parsedTemplates = new AtomicLong();
+
+  public TrackingConfiguration(Version incompatibleImprovements) {
+    super(incompatibleImprovements);
+  }
+
+  /**
+   * What the current thread loaded since tracking started.
+   */
+  public static class Tracking {
+    /** The template files loaded. */
+    public final Set<Path> loadedTemplates = new LinkedHashSet<>();
+    /** The nanoseconds spent parsing each template that was not in the template cache, by template name. */
+    public final Map<String, Long> parseNanos = new LinkedHashMap<>();
+
+    /**
+     * @return The nanoseconds spent parsing templates.
+     */
+    public long getTotalParseNanos() {
+      long total = 0;
+      for (long nanos : parseNanos.values()) {
+        total += nanos;
+      }
+      return total;
+    }
+  }
+
+  /**
+   * Starts recording the templates loaded by the current thread, if the configuration supports it.
+   * @return The record updated until {@link #stopTracking(Configuration)} is called, or null if the configuration
+   * does not track templates.
+   */
+  public static Tracking startTracking(Configuration config) {
+    if (!(config instanceof TrackingConfiguration)) {
+      return null;
+    }
+    Tracking tracking = new Tracking();
+    ((TrackingConfiguration) config).tracking.set(tracking);
+    return tracking;
+  }
+
+  public static void stopTracking(Configuration config) {
+    if (config instanceof TrackingConfiguration) {
+      ((TrackingConfiguration) config).tracking.remove();
+    }
+  }
+
+  /**
+   * All the other getTemplate methods, and the ones used by <code>#include</code> and <code>#import</code>, end up
+   * calling this one.
+   */
+  @Override
+  public Template getTemplate(String name, Locale locale, Object customLookupCondition, String encoding,
+      boolean parseAsFTL, boolean ignoreMissing) throws IOException {
+    long start = System.nanoTime();
+    Template template = super.getTemplate(name, locale, customLookupCondition, encoding, parseAsFTL, ignoreMissing);
+    long elapsed = System.nanoTime() - start;
+    templateLookups.incrementAndGet();
+    Tracking current = tracking.get();
+    if (template != null && seenTemplates.put(template, Boolean.TRUE) == null) {
+      // A template object not returned before was just parsed.
+      parsedTemplates.incrementAndGet();
+      if (current != null) {
+        current.parseNanos.merge(template.getName(), elapsed, Long::sum);
+      }
+    }
+    if (current != null && template != null && getTemplateLoader() instanceof FileTemplateLoader) {
+      File baseDir = ((FileTemplateLoader) getTemplateLoader()).baseDir;
+      current.loadedTemplates.add(new File(baseDir, template.getSourceName()).toPath());
+    }
+    return template;
+  }
+
+  /**
+   * @return The number of templates looked up so far, including the ones included or imported.
+   */
+  public long getTemplateLookups() {
+    return templateLookups.get();
+  }
+
+  /**
+   * @return The number of template lookups that had to parse the template.
+   */
+  public long getParsedTemplates() {
+    return parsedTemplates.get();
+  }
+}
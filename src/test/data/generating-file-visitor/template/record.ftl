@@ -0,0 +1 @@
+${name}: ${description}
\ No newline at end of file
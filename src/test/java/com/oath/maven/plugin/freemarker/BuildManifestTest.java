@@ -0,0 +1,346 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.testng.annotations.Test;
+
+import freemarker.template.Configuration;
+
+public class BuildManifestTest extends GenerationTestSupport {
+
+  private final File manifestFile = new File(testDir, "state/manifest.json");
+
+  public BuildManifestTest() {
+    super("build-manifest");
+  }
+
+  @Test
+  public void upToDateAfterTimestampChangeTest() throws IOException {
+    generate("config");
+    assertEquals("Value: test value", read(outputFile));
+
+    // A fresh checkout or cache restore changes every timestamp, but not the content.
+    long past = System.currentTimeMillis() - 100_000;
+    outputFile.setLastModified(past);
+    generatorFile.setLastModified(past + 10_000);
+    templateFile.setLastModified(past + 10_000);
+
+    BuildManifest manifest = loadManifest("config");
+    assertNull(manifest.checkStaleness(generator(context(manifest), outputFile, null)));
+    generate("config");
+    assertEquals(past, outputFile.lastModified());
+  }
+
+  @Test
+  public void staleReasonsTest() throws IOException {
+    generate("config");
+
+    assertEquals(BuildManifest.Reason.CONFIGURATION_CHANGED, check("other config"));
+
+    write(generatorFile, "{\"templateName\": \"test.ftl\", \"dataModel\": {}}");
+    assertEquals(BuildManifest.Reason.GENERATOR_CHANGED, check("config"));
+    generate("config");
+    assertNull(check("config"));
+
+    write(templateFile, "Changed: ${testVar}");
+    assertEquals(BuildManifest.Reason.TEMPLATE_CHANGED, check("config"));
+    generate("config");
+    assertEquals("Changed: test value", read(outputFile));
+
+    write(outputFile, "Edited by hand");
+    assertEquals(BuildManifest.Reason.OUTPUT_CHANGED, check("config"));
+    generate("config");
+    assertEquals("Changed: test value", read(outputFile));
+
+    outputFile.delete();
+    generate("config");
+    assertEquals("Changed: test value", read(outputFile));
+  }
+
+  @Test
+  public void importedTemplateTest() throws IOException {
+    write(new File(templateDir, "lib.ftl"), "<#macro show value>Value: ${value}</#macro>");
+    write(new File(templateDir, "header.ftl"), "<#import \"lib.ftl\" as lib>");
+    write(templateFile, "<#include \"header.ftl\"><@lib.show testVar/>");
+    generate("config");
+    assertEquals("Value: test value", read(outputFile));
+    assertNull(check("config"));
+
+    // Only reachable through the include of header.ftl.
+    write(new File(templateDir, "lib.ftl"), "<#macro show value>Library changed: ${value}</#macro>");
+    assertEquals(BuildManifest.Reason.TEMPLATE_CHANGED, check("config"));
+    generate("config");
+    assertEquals("Library changed: test value", read(outputFile));
+    assertNull(check("config"));
+  }
+
+  @Test
+  public void removeOrphanedOutputsTest() throws IOException {
+    generate("config");
+    File unrelatedFile = new File(outputDir, "not-generated.txt");
+    write(unrelatedFile, "Not in the manifest");
+
+    // The generator still exists.
+    BuildManifest manifest = loadManifest("config");
+    assertTrue(manifest.removeOrphanedOutputs().isEmpty());
+    assertTrue(outputFile.isFile());
+
+    generatorFile.delete();
+    manifest = loadManifest("config");
+    assertEquals(Collections.singletonList(testDir.toPath().toAbsolutePath().resolve("generated-files/test.txt")),
+        manifest.removeOrphanedOutputs());
+    manifest.save();
+    assertFalse(outputFile.exists());
+    assertTrue(unrelatedFile.isFile());
+
+    // Forgotten once removed.
+    assertTrue(loadManifest("config").removeOrphanedOutputs().isEmpty());
+  }
+
+  @Test
+  public void sharedOutputTest() throws IOException {
+    generate("config");
+
+    // Another execution, with a manifest of its own, writes the same output.
+    write(templateFile, "Other: ${testVar}");
+    BuildManifest other = BuildManifest.create(new File(testDir, "state/other-manifest.json"), testDir.toPath(), "config");
+    other.load();
+    generator(context(other), outputFile, null).generate(createConfiguration());
+    other.save();
+
+    // The output is no longer the one this execution generated: it is forgotten, not deleted.
+    generatorFile.delete();
+    BuildManifest manifest = loadManifest("config");
+    assertTrue(manifest.removeOrphanedOutputs().isEmpty());
+    manifest.save();
+    assertEquals("Other: test value", read(outputFile));
+    assertTrue(loadManifest("config").removeOrphanedOutputs().isEmpty());
+
+    // The other execution still deletes it.
+    other = BuildManifest.create(new File(testDir, "state/other-manifest.json"), testDir.toPath(), "config");
+    other.load();
+    assertEquals(Collections.singletonList(outputFile.toPath().toAbsolutePath()), other.removeOrphanedOutputs());
+    assertFalse(outputFile.exists());
+  }
+
+  @Test
+  public void generatorFingerprintTest() throws IOException {
+    File otherOutputFile = new File(outputDir, "other.txt");
+    BuildManifest manifest = loadManifest("config");
+    generator(context(manifest), outputFile, "first").generate(createConfiguration());
+    generator(context(manifest), otherOutputFile, "second").generate(createConfiguration());
+    manifest.save();
+
+    // Another entry of the same generator file changed: only the fingerprint of this entry counts.
+    write(generatorFile, "{\"outputs\": []}");
+    manifest = loadManifest("config");
+    assertNull(manifest.checkStaleness(generator(context(manifest), outputFile, "first")));
+    assertEquals(BuildManifest.Reason.GENERATOR_CHANGED,
+        manifest.checkStaleness(generator(context(manifest), otherOutputFile, "changed")));
+
+    // A generator file that failed may not have reached the other output yet.
+    assertTrue(manifest.removeOrphanedOutputs(Collections.singleton(generatorFile.toPath())).isEmpty());
+    assertTrue(otherOutputFile.isFile());
+
+    // The generator file no longer lists the other output.
+    assertEquals(Collections.singletonList(otherOutputFile.toPath().toAbsolutePath()),
+        manifest.removeOrphanedOutputs());
+    assertTrue(outputFile.isFile());
+  }
+
+  @Test
+  public void trackedDataAccessTest() throws IOException {
+    write(templateFile, "Value: ${testVar}");
+    dataModel.put("unusedVar", "unused value");
+    generateTracked("config", "settings");
+    assertEquals("Value: test value", read(outputFile));
+
+    // Neither the generator file nor the pom property change affects what the template reads.
+    write(generatorFile, "{\"templateName\": \"test.ftl\", \"dataModel\": {\"unusedVar\": \"changed\"}}");
+    dataModel.put("unusedVar", "changed");
+    BuildManifest manifest = loadManifest("other config", "settings");
+    assertNull(manifest.checkStaleness(generator(trackingContext(manifest), outputFile, null), createConfiguration()));
+    manifest.save();
+    assertNull(check("other config"));
+
+    // Without checking the data read, or with other settings, the changes count.
+    manifest = loadManifest("config", "settings");
+    assertEquals(BuildManifest.Reason.CONFIGURATION_CHANGED, manifest.checkStaleness(generator(trackingContext(manifest), outputFile, null)));
+    manifest = loadManifest("config", "other settings");
+    assertEquals(BuildManifest.Reason.CONFIGURATION_CHANGED,
+        manifest.checkStaleness(generator(trackingContext(manifest), outputFile, null), createConfiguration()));
+
+    write(generatorFile, "{\"templateName\": \"test.ftl\"}");
+    dataModel.put("testVar", "changed");
+    manifest = loadManifest("other config", "settings");
+    assertEquals(BuildManifest.Reason.GENERATOR_CHANGED,
+        manifest.checkStaleness(generator(trackingContext(manifest), outputFile, null), createConfiguration()));
+    generateTracked("other config", "settings");
+    assertEquals("Value: changed", read(outputFile));
+  }
+
+  @Test
+  public void planTest() throws IOException {
+    File libFile = new File(templateDir, "lib.ftl");
+    write(libFile, "<#macro show value>Value: ${value}</#macro>");
+    write(templateFile, "<#import \"lib.ftl\" as lib><@lib.show testVar/>");
+    GenerationPlan plan = new GenerationPlan();
+    GenerationContext context = GenerationContext.builder().addBuildManifest(loadManifest("config")).addPlan(plan).create();
+    generator(context, outputFile, null).generate(createConfiguration());
+    assertFalse(outputFile.exists());
+    assertEquals(Collections.singletonList("generated-files/test.txt: NEW_OUTPUT"), plan.describe(testDir.toPath()));
+
+    generate("config");
+    long generated = outputFile.lastModified();
+    write(libFile, "<#macro show value>Library changed: ${value}</#macro>");
+    plan = new GenerationPlan();
+    context = GenerationContext.builder().addBuildManifest(loadManifest("config")).addPlan(plan).create();
+    generator(context, outputFile, null).generate(createConfiguration());
+    assertEquals(Collections.singletonList("generated-files/test.txt: TEMPLATE_CHANGED (template/lib.ftl)"),
+        plan.describe(testDir.toPath()));
+    assertEquals("Value: test value", read(outputFile));
+    assertEquals(generated, outputFile.lastModified());
+
+    // Nothing was recorded: the output is still stale.
+    assertEquals(BuildManifest.Reason.TEMPLATE_CHANGED, check("config"));
+    File planFile = new File(testDir, "state/plan.json");
+    plan.write(planFile, testDir.toPath(), 3);
+    assertTrue(read(planFile).contains("\"input\": \"template/lib.ftl\""));
+  }
+
+  @Test
+  public void referencedFilesTest() throws IOException {
+    Path shared = new File(testDir, "shared/names.json").toPath().toAbsolutePath();
+    BuildManifest manifest = loadManifest("config");
+    OutputGenerator.builder()
+        .addPomLastModifiedTimestamp(0)
+        .addGeneratorLocation(generatorFile.toPath())
+        .addTemplateLocation(templateFile.toPath())
+        .addOutputLocation(outputFile.toPath())
+        .addDataModel(dataModel)
+        .addGenerationContext(context(manifest))
+        .addReferencedFiles(Collections.singleton(shared))
+        .create()
+        .generate(createConfiguration());
+    manifest.save();
+
+    // The next build, such as an incremental one, finds the generator file from the referenced file.
+    manifest = loadManifest("config");
+    assertEquals(Collections.singleton(shared), manifest.getReferencedFiles());
+    assertEquals(Collections.singleton(generatorFile.toPath().toAbsolutePath()), manifest.findGenerators(shared));
+    assertTrue(manifest.findGenerators(new File(testDir, "shared/other.json").toPath()).isEmpty());
+
+    // Generated again without the reference, which is forgotten.
+    write(generatorFile, "{\"changed\": true}");
+    generator(context(manifest), outputFile, null).generate(createConfiguration());
+    manifest.save();
+    manifest = loadManifest("config");
+    assertTrue(manifest.getReferencedFiles().isEmpty());
+    assertTrue(manifest.findGenerators(shared).isEmpty());
+  }
+
+  @Test
+  public void nextBuildTest() throws IOException {
+    BuildManifest manifest = loadManifest("config");
+    generator(context(manifest), outputFile, null).generate(createConfiguration());
+    assertEquals(Collections.singleton(generatorFile.toPath().toAbsolutePath()),
+        manifest.findGenerators(templateFile.toPath()));
+    assertTrue(manifest.findGenerators(new File(templateDir, "other.ftl").toPath()).isEmpty());
+
+    // The watch goal generates again in the same process: the template is hashed again.
+    write(templateFile, "Changed: ${testVar}");
+    manifest.nextBuild();
+    assertEquals(BuildManifest.Reason.TEMPLATE_CHANGED, manifest.checkStaleness(generator(context(manifest), outputFile, null)));
+    generator(context(manifest), outputFile, null).generate(createConfiguration());
+    assertEquals("Changed: test value", read(outputFile));
+    manifest.nextBuild();
+    assertNull(manifest.checkStaleness(generator(context(manifest), outputFile, null)));
+  }
+
+  @Test
+  public void newOutputTest() {
+    BuildManifest manifest = loadManifest("config");
+    assertEquals(BuildManifest.Reason.NEW_OUTPUT, manifest.checkStaleness(generator(context(manifest), outputFile, null)));
+  }
+
+  @Test
+  public void failedOutputTest() throws IOException {
+    generate("config");
+    write(templateFile, "Value: ${missingVar}");
+
+    BuildManifest manifest = loadManifest("config");
+    OutputGenerator generator = generator(context(manifest), outputFile, null);
+    Configuration config = createConfiguration();
+    assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+      generator.generate(config);
+    });
+    manifest.save();
+
+    assertEquals(BuildManifest.Reason.NEW_OUTPUT, check("config"));
+    assertTrue(outputFile.isFile());
+
+    // The output left behind is still known, and removed along with its generator file.
+    generatorFile.delete();
+    manifest = loadManifest("config");
+    assertEquals(Collections.singletonList(outputFile.toPath().toAbsolutePath()), manifest.removeOrphanedOutputs());
+    assertFalse(outputFile.exists());
+  }
+
+  @Test
+  public void unreadableManifestTest() throws IOException {
+    manifestFile.getParentFile().mkdirs();
+    write(manifestFile, "not a manifest");
+    BuildManifest manifest = BuildManifest.create(manifestFile, testDir.toPath(), "config");
+    assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+      manifest.load();
+    }).withMessage("Could not read build manifest: " + manifestFile);
+  }
+
+  private void generate(String configurationHash) throws IOException {
+    BuildManifest manifest = loadManifest(configurationHash);
+    generator(context(manifest), outputFile, null).generate(createConfiguration());
+    manifest.save();
+  }
+
+  /**
+   * Each generation simulates a separate build, with its own template cache.
+   */
+  private void generateTracked(String configurationHash, String settingsHash) throws IOException {
+    BuildManifest manifest = loadManifest(configurationHash, settingsHash);
+    generator(trackingContext(manifest), outputFile, null).generate(createConfiguration());
+    manifest.save();
+  }
+
+  private BuildManifest.Reason check(String configurationHash) {
+    BuildManifest manifest = loadManifest(configurationHash);
+    return manifest.checkStaleness(generator(context(manifest), outputFile, null));
+  }
+
+  private BuildManifest loadManifest(String configurationHash) {
+    BuildManifest manifest = BuildManifest.create(manifestFile, testDir.toPath(), configurationHash);
+    manifest.load();
+    return manifest;
+  }
+
+  private BuildManifest loadManifest(String configurationHash, String settingsHash) {
+    BuildManifest manifest = BuildManifest.create(manifestFile, testDir.toPath(), configurationHash, settingsHash);
+    manifest.load();
+    return manifest;
+  }
+
+  private static GenerationContext context(BuildManifest manifest) {
+    return GenerationContext.builder().addBuildManifest(manifest).create();
+  }
+
+  private static GenerationContext trackingContext(BuildManifest manifest) {
+    return GenerationContext.builder().addBuildManifest(manifest).addTrackDataAccess(true).create();
+  }
+}
@@ -0,0 +1,169 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.GsonBuilder;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateMethodModelEx;
+
+public class DataAccessTrackerTest extends Assert {
+
+  private Configuration config;
+  private Properties pomProperties;
+  private Map<String, Object> dataModel;
+
+  @BeforeMethod
+  public void before() throws Exception {
+    config = new Configuration(Configuration.VERSION_2_3_23);
+    pomProperties = new Properties();
+    pomProperties.setProperty("used", "pom value");
+    pomProperties.setProperty("unused", "other value");
+    dataModel = new HashMap<>();
+    dataModel.put("title", "Rows");
+    dataModel.put("unused", "not read");
+    List<Object> rows = new ArrayList<>();
+    rows.add(row("a", 1));
+    rows.add(row("b", 2));
+    dataModel.put("rows", rows);
+    setPomProperties();
+  }
+
+  @Test
+  public void unreadChangesMatchTest() throws Exception {
+    DataAccessTracker tracker = render("${title} ${pomProperties.used}<#list rows as row> ${row.name}</#list>",
+        "Rows pom value a b");
+    assertTrue(tracker.isTrackable());
+
+    dataModel.put("unused", "changed");
+    pomProperties.setProperty("unused", "changed");
+    setPomProperties();
+    row(1).put("count", 20);
+    assertTrue(matches(tracker));
+
+    row(1).put("name", "changed");
+    assertFalse(matches(tracker));
+  }
+
+  @Test
+  public void readChangesDontMatchTest() throws Exception {
+    DataAccessTracker tracker = render("${pomProperties.used} ${rows?size} <#if missing??>missing</#if>",
+        "pom value 2 ");
+    assertTrue(matches(tracker));
+
+    pomProperties.setProperty("used", "changed");
+    setPomProperties();
+    assertFalse(matches(tracker));
+    pomProperties.setProperty("used", "pom value");
+    setPomProperties();
+    assertTrue(matches(tracker));
+
+    rows().add(row("c", 3));
+    assertFalse(matches(tracker));
+    rows().remove(2);
+    assertTrue(matches(tracker));
+
+    dataModel.put("missing", "now here");
+    assertFalse(matches(tracker));
+  }
+
+  @Test
+  public void hashKeysTest() throws Exception {
+    Map<String, Object> settings = new LinkedHashMap<>();
+    settings.put("first", "1");
+    dataModel.put("settings", settings);
+    DataAccessTracker tracker = render("<#list settings?keys as key>${key}</#list>", "first");
+
+    settings.put("first", "changed");
+    assertTrue(matches(tracker));
+    settings.put("second", "2");
+    assertFalse(matches(tracker));
+  }
+
+  @Test
+  public void streamedArrayTest() throws Exception {
+    File dataFile = new File("target/test-output/data-access-tracker/test.txt.json");
+    dataFile.getParentFile().mkdirs();
+    writeRows(dataFile, "{\"name\": \"a\", \"count\": 1}, {\"name\": \"b\", \"count\": 2}");
+    dataModel = streamedDataModel(dataFile);
+    DataAccessTracker tracker = render("<#list rows as row>${row.name}<#sep>,</#list>", "a,b");
+
+    writeRows(dataFile, "{\"name\": \"a\", \"count\": 10}, {\"name\": \"b\", \"count\": 20}");
+    assertTrue(DataAccessTracker.matches(tracker.getPaths(), tracker.getHash(), streamedDataModel(dataFile), config));
+    writeRows(dataFile, "{\"name\": \"a\"}, {\"name\": \"b\"}, {\"name\": \"c\"}");
+    assertFalse(DataAccessTracker.matches(tracker.getPaths(), tracker.getHash(), streamedDataModel(dataFile), config));
+  }
+
+  @Test
+  public void methodIsUntrackableTest() throws Exception {
+    dataModel.put("upper", (TemplateMethodModelEx) arguments -> String.valueOf(arguments.get(0)).toUpperCase());
+    DataAccessTracker tracker = render("${upper(title)}", "ROWS");
+    assertFalse(tracker.isTrackable());
+    assertTrue(tracker.getPaths().isEmpty());
+  }
+
+  private DataAccessTracker render(String source, String expected) throws IOException, TemplateException {
+    DataAccessTracker tracker = new DataAccessTracker();
+    Template template = new Template("test", new StringReader(source), config);
+    StringWriter out = new StringWriter();
+    template.process(tracker.track(dataModel, config), out);
+    assertEquals(expected, out.toString());
+    return tracker;
+  }
+
+  private boolean matches(DataAccessTracker tracker) {
+    return DataAccessTracker.matches(tracker.getPaths(), tracker.getHash(), dataModel, config);
+  }
+
+  private static void writeRows(File dataFile, String rows) throws IOException {
+    Files.write(dataFile.toPath(), ("{\"templateName\": \"test.ftl\", \"dataModel\": {\"rows\": [" + rows + "]}}")
+        .getBytes(StandardCharsets.UTF_8));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> streamedDataModel(File dataFile) {
+    return (Map<String, Object>) LazyJsonModel.read(dataFile, new GsonBuilder().setLenient().create()).get("dataModel");
+  }
+
+  private void setPomProperties() {
+    config.setSharedVariable(SharedVariables.POM_PROPERTIES,
+        SharedVariables.wrapProperties(pomProperties, config.getObjectWrapper()));
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Object> rows() {
+    return (List<Object>) dataModel.get("rows");
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> row(int index) {
+    return (Map<String, Object>) rows().get(index);
+  }
+
+  private static Map<String, Object> row(String name, int count) {
+    Map<String, Object> row = new HashMap<>();
+    row.put("name", name);
+    row.put("count", count);
+    return row;
+  }
+}
@@ -10,14 +10,23 @@ import java.io.IOException;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
 
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
 import org.apache.maven.project.MavenProject;
 import org.junit.Assert;
 import org.testng.annotations.BeforeClass;
@@ -26,6 +35,10 @@ import org.testng.annotations.Test;
 import freemarker.cache.FileTemplateLoader;
 import freemarker.cache.TemplateLoader;
 import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModel;
 import mockit.Deencapsulation;
 import mockit.Expectations;
 import mockit.Mocked;
@@ -34,6 +47,8 @@ import mockit.Verifications;
 public class FreeMarkerMojoTest extends Assert {
 
   public static final File testOutputDir = new File("target/test-output/freemarker-mojo");
+  // Created before any test mocks Configuration, which the wrapper checks its version against.
+  private static final ObjectWrapper objectWrapper = new DefaultObjectWrapper(Configuration.VERSION_2_3_23);
   
   @BeforeClass
   public static void beforeClass() throws IOException {
@@ -59,6 +74,7 @@ public class FreeMarkerMojoTest extends Assert {
     new Expectations(mojoExecution, generatingFileVisitor) {{
       mojoExecution.getLifecyclePhase(); result = "generate-sources";
       session.getCurrentProject(); result = project;
+      project.getProperties(); result = new Properties();
     }};
 
     FreeMarkerMojo mojo = new FreeMarkerMojo();
@@ -79,6 +95,7 @@ public class FreeMarkerMojoTest extends Assert {
     Deencapsulation.setField(mojo, "templateDirectory", new File(testCaseOutputDir, "template"));
     Deencapsulation.setField(mojo, "generatorDirectory", new File(testCaseOutputDir, "data"));
     Deencapsulation.setField(mojo, "outputDirectory", new File(testCaseOutputDir, "generated-files"));
+    Deencapsulation.setField(mojo, "stateDirectory", new File(testCaseOutputDir, "state"));
     Deencapsulation.setField(mojo, "mojo", mojoExecution);
     Deencapsulation.setField(mojo, "session", session);
 
@@ -102,14 +119,18 @@ public class FreeMarkerMojoTest extends Assert {
       Configuration config;
       MavenSession capturedSession;
       Map<String, OutputGeneratorPropertiesProvider> builders;
+      GenerationContext context;
 
       GeneratingFileVisitor.create(
           config = withCapture(), 
           capturedSession = withCapture(), 
-          builders = withCapture()); times = 1;
+          builders = withCapture(),
+          context = withCapture()); times = 1;
 
       assertEquals("UTF-8", config.getDefaultEncoding());
       assertEquals(session, capturedSession);
+      assertNotNull(context.manifest);
+      assertNull(context.executor);
       TemplateLoader loader = config.getTemplateLoader();
       assertTrue(loader instanceof FileTemplateLoader);
 
@@ -135,6 +156,7 @@ public class FreeMarkerMojoTest extends Assert {
     new Expectations(mojoExecution, generatingFileVisitor) {{
       mojoExecution.getLifecyclePhase(); result = "generate-test-sources";
       session.getCurrentProject(); result = project;
+      project.getProperties(); result = new Properties();
     }};
 
     FreeMarkerMojo mojo = new FreeMarkerMojo();
@@ -145,6 +167,7 @@ public class FreeMarkerMojoTest extends Assert {
     Deencapsulation.setField(mojo, "templateDirectory", new File(testCaseOutputDir, "template"));
     Deencapsulation.setField(mojo, "generatorDirectory", new File(testCaseOutputDir, "data"));
     Deencapsulation.setField(mojo, "outputDirectory", new File(testCaseOutputDir, "generated-files"));
+    Deencapsulation.setField(mojo, "stateDirectory", new File(testCaseOutputDir, "state"));
     Deencapsulation.setField(mojo, "mojo", mojoExecution);
     Deencapsulation.setField(mojo, "session", session);
 
@@ -158,7 +181,466 @@ public class FreeMarkerMojoTest extends Assert {
     }};
   }
 
+  @Test
+  public void execute_parallelTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked MojoExecution mojoExecution,
+      @Mocked GeneratingFileVisitor generatingFileVisitor,
+      @Mocked Files files
+      ) throws MojoExecutionException, MojoFailureException, IOException {
+
+    new Expectations(mojoExecution, generatingFileVisitor) {{
+      mojoExecution.getLifecyclePhase(); result = "generate-sources";
+      session.getCurrentProject(); result = project;
+      project.getProperties(); result = new Properties();
+    }};
+
+    FreeMarkerMojo mojo = new FreeMarkerMojo();
+
+    File testCaseOutputDir = new File(testOutputDir, "parallelTest");
+    Deencapsulation.setField(mojo, "freeMarkerVersion", "2.3.23");
+    Deencapsulation.setField(mojo, "sourceDirectory", testCaseOutputDir);
+    Deencapsulation.setField(mojo, "templateDirectory", new File(testCaseOutputDir, "template"));
+    Deencapsulation.setField(mojo, "generatorDirectory", new File(testCaseOutputDir, "data"));
+    Deencapsulation.setField(mojo, "outputDirectory", new File(testCaseOutputDir, "generated-files"));
+    Deencapsulation.setField(mojo, "stateDirectory", new File(testCaseOutputDir, "state"));
+    Deencapsulation.setField(mojo, "mojo", mojoExecution);
+    Deencapsulation.setField(mojo, "session", session);
+    Deencapsulation.setField(mojo, "parallel", true);
+    Deencapsulation.setField(mojo, "threadCount", 3);
+
+    new File(testCaseOutputDir, "data").mkdirs();
+    new File(testCaseOutputDir, "template").mkdirs();
+
+    mojo.execute();
+
+    new Verifications() {{
+      GenerationContext context;
+      GeneratingFileVisitor.create((Configuration) any, session, (Map<String, OutputGeneratorPropertiesProvider>) any,
+          context = withCapture()); times = 1;
+      assertTrue(context.executor.isShutdown());
+    }};
+  }
+
   @SuppressWarnings({"rawtypes", "unchecked"})
+  @Test
+  public void execute_cacheConfigurationTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked MojoExecution mojoExecution,
+      @Mocked GeneratingFileVisitor generatingFileVisitor,
+      @Mocked Files files
+      ) throws MojoExecutionException, MojoFailureException, IOException {
+
+    Properties pomProperties = new Properties();
+    new Expectations(mojoExecution, generatingFileVisitor) {{
+      mojoExecution.getLifecyclePhase(); result = "generate-sources";
+      session.getCurrentProject(); result = project;
+      project.getProperties(); result = pomProperties;
+    }};
+
+    FreeMarkerMojo mojo = new FreeMarkerMojo();
+
+    File testCaseOutputDir = new File(testOutputDir, "cacheConfigurationTest");
+    Deencapsulation.setField(mojo, "freeMarkerVersion", "2.3.23");
+    Deencapsulation.setField(mojo, "sourceDirectory", testCaseOutputDir);
+    Deencapsulation.setField(mojo, "templateDirectory", new File(testCaseOutputDir, "template"));
+    Deencapsulation.setField(mojo, "generatorDirectory", new File(testCaseOutputDir, "data"));
+    Deencapsulation.setField(mojo, "outputDirectory", new File(testCaseOutputDir, "generated-files"));
+    Deencapsulation.setField(mojo, "stateDirectory", new File(testCaseOutputDir, "state"));
+    Deencapsulation.setField(mojo, "mojo", mojoExecution);
+    Deencapsulation.setField(mojo, "session", session);
+    Deencapsulation.setField(mojo, "cacheConfiguration", true);
+
+    new File(testCaseOutputDir, "data").mkdirs();
+    new File(testCaseOutputDir, "template").mkdirs();
+
+    ConfigurationCache.clear();
+    mojo.execute();
+    mojo.execute();
+    // Other pom properties can't share the configuration, which holds them.
+    pomProperties.setProperty("pomVar", "pom value");
+    mojo.execute();
+
+    assertEquals(1, ConfigurationCache.getHits());
+    assertEquals(2, ConfigurationCache.getMisses());
+    ConfigurationCache.clear();
+
+    new Verifications() {{
+      List<Configuration> configs = new ArrayList<>();
+      GeneratingFileVisitor.create(withCapture(configs), session, (Map<String, OutputGeneratorPropertiesProvider>) any,
+          (GenerationContext) any); times = 3;
+      assertSame(configs.get(0), configs.get(1));
+      assertNotSame(configs.get(0), configs.get(2));
+      assertEquals(0, configs.get(0).getTemplateUpdateDelayMilliseconds());
+    }};
+  }
+
+  @Test
+  public void execute_skipIfUnchangedTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked MojoExecution mojoExecution
+      ) throws MojoExecutionException, MojoFailureException, IOException {
+
+    new Expectations(FactoryUtil.class) {{
+      mojoExecution.getLifecyclePhase(); result = "generate-sources";
+      session.getCurrentProject(); result = project;
+      project.getProperties(); result = new Properties();
+    }};
+
+    FreeMarkerMojo mojo = new FreeMarkerMojo();
+
+    File testCaseOutputDir = new File(testOutputDir, "skipIfUnchangedTest");
+    File outputFile = new File(testCaseOutputDir, "generated-files/test.txt");
+    File generatorFile = new File(testCaseOutputDir, "data/test.txt.json");
+    Deencapsulation.setField(mojo, "freeMarkerVersion", "2.3.23");
+    Deencapsulation.setField(mojo, "sourceDirectory", testCaseOutputDir);
+    Deencapsulation.setField(mojo, "templateDirectory", new File(testCaseOutputDir, "template"));
+    Deencapsulation.setField(mojo, "generatorDirectory", new File(testCaseOutputDir, "data"));
+    Deencapsulation.setField(mojo, "outputDirectory", new File(testCaseOutputDir, "generated-files"));
+    Deencapsulation.setField(mojo, "stateDirectory", new File(testCaseOutputDir, "state"));
+    Deencapsulation.setField(mojo, "mojo", mojoExecution);
+    Deencapsulation.setField(mojo, "session", session);
+    Deencapsulation.setField(mojo, "skipIfUnchanged", true);
+
+    new File(testCaseOutputDir, "data").mkdirs();
+    new File(testCaseOutputDir, "template").mkdirs();
+    Files.write(new File(testCaseOutputDir, "template/test.ftl").toPath(), "Value: ${value}".getBytes("UTF-8"));
+    Files.write(generatorFile.toPath(), "{\"templateName\": \"test.ftl\", \"dataModel\": {\"value\": 1}}".getBytes("UTF-8"));
+
+    mojo.execute();
+    assertEquals("Value: 1", new String(Files.readAllBytes(outputFile.toPath()), "UTF-8"));
+    // Nothing changed: no configuration is created.
+    mojo.execute();
+    // A changed generator file, then a deleted output, are generated again.
+    Files.write(generatorFile.toPath(), "{\"templateName\": \"test.ftl\", \"dataModel\": {\"value\": 2}}".getBytes("UTF-8"));
+    generatorFile.setLastModified(generatorFile.lastModified() + 2000);
+    mojo.execute();
+    assertEquals("Value: 2", new String(Files.readAllBytes(outputFile.toPath()), "UTF-8"));
+    assertTrue(outputFile.delete());
+    mojo.execute();
+    assertEquals("Value: 2", new String(Files.readAllBytes(outputFile.toPath()), "UTF-8"));
+
+    new Verifications() {{
+      FactoryUtil.createConfiguration("2.3.23"); times = 3;
+      project.addCompileSourceRoot(anyString); times = 4;
+    }};
+  }
+
+  @Test
+  public void execute_dryRunTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked MojoExecution mojoExecution
+      ) throws MojoExecutionException, MojoFailureException, IOException {
+
+    new Expectations() {{
+      mojoExecution.getLifecyclePhase(); result = "generate-sources";
+      session.getCurrentProject(); result = project;
+      project.getProperties(); result = new Properties();
+    }};
+
+    FreeMarkerMojo mojo = new FreeMarkerMojo();
+
+    File testCaseOutputDir = new File(testOutputDir, "dryRunTest");
+    File stateDir = new File(testCaseOutputDir, "state");
+    File outputFile = new File(testCaseOutputDir, "generated-files/test.txt");
+    File generatorFile = new File(testCaseOutputDir, "data/test.txt.json");
+    File manifestFile = new File(stateDir, "default-manifest.json");
+    File fingerprintFile = new File(stateDir, "default-inputs.sha256");
+    File planFile = new File(stateDir, "default-plan.json");
+    Deencapsulation.setField(mojo, "freeMarkerVersion", "2.3.23");
+    Deencapsulation.setField(mojo, "sourceDirectory", testCaseOutputDir);
+    Deencapsulation.setField(mojo, "templateDirectory", new File(testCaseOutputDir, "template"));
+    Deencapsulation.setField(mojo, "generatorDirectory", new File(testCaseOutputDir, "data"));
+    Deencapsulation.setField(mojo, "outputDirectory", new File(testCaseOutputDir, "generated-files"));
+    Deencapsulation.setField(mojo, "stateDirectory", stateDir);
+    Deencapsulation.setField(mojo, "mojo", mojoExecution);
+    Deencapsulation.setField(mojo, "session", session);
+    Deencapsulation.setField(mojo, "skipIfUnchanged", true);
+    Deencapsulation.setField(mojo, "parsedDataCacheSize", 64);
+    Deencapsulation.setField(mojo, "dryRun", true);
+
+    new File(testCaseOutputDir, "data").mkdirs();
+    new File(testCaseOutputDir, "template").mkdirs();
+    Files.write(new File(testCaseOutputDir, "template/test.ftl").toPath(), "Value: ${value}".getBytes("UTF-8"));
+    Files.write(generatorFile.toPath(), "{\"templateName\": \"test.ftl\", \"dataModel\": {\"value\": 1}}".getBytes("UTF-8"));
+
+    // Nothing is generated, and no state is kept: only the plan is written.
+    mojo.execute();
+    assertFalse(outputFile.exists());
+    assertFalse(manifestFile.exists());
+    assertFalse(fingerprintFile.exists());
+    assertFalse(new File(stateDir, "parsed-data").exists());
+    String plan = new String(Files.readAllBytes(planFile.toPath()), "UTF-8");
+    assertTrue(plan.contains("\"target/test-output/freemarker-mojo/dryRunTest/generated-files/test.txt\": {"));
+    assertTrue(plan.contains("\"reason\": \"NEW_OUTPUT\""));
+
+    // After a real build, a changed generator file is planned without touching the state of that build.
+    Deencapsulation.setField(mojo, "dryRun", false);
+    mojo.execute();
+    assertEquals("Value: 1", new String(Files.readAllBytes(outputFile.toPath()), "UTF-8"));
+    byte[] manifest = Files.readAllBytes(manifestFile.toPath());
+    byte[] fingerprint = Files.readAllBytes(fingerprintFile.toPath());
+    long cacheEntries;
+    try (Stream<Path> entries = Files.list(new File(stateDir, "parsed-data").toPath())) {
+      cacheEntries = entries.count();
+    }
+    Files.write(generatorFile.toPath(), "{\"templateName\": \"test.ftl\", \"dataModel\": {\"value\": 2}}".getBytes("UTF-8"));
+    generatorFile.setLastModified(generatorFile.lastModified() + 2000);
+    Deencapsulation.setField(mojo, "dryRun", true);
+    mojo.execute();
+    assertEquals("Value: 1", new String(Files.readAllBytes(outputFile.toPath()), "UTF-8"));
+    assertArrayEquals(manifest, Files.readAllBytes(manifestFile.toPath()));
+    assertArrayEquals(fingerprint, Files.readAllBytes(fingerprintFile.toPath()));
+    try (Stream<Path> entries = Files.list(new File(stateDir, "parsed-data").toPath())) {
+      assertEquals(cacheEntries, entries.count());
+    }
+    plan = new String(Files.readAllBytes(planFile.toPath()), "UTF-8");
+    assertTrue(plan.contains("\"reason\": \"GENERATOR_CHANGED\""));
+    assertTrue(plan.contains("\"input\": \"target/test-output/freemarker-mojo/dryRunTest/data/test.txt.json\""));
+  }
+
+  @Test(timeOut = 30_000)
+  public void execute_watchFailureTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked MojoExecution mojoExecution
+      ) throws Exception {
+
+    new Expectations() {{
+      mojoExecution.getLifecyclePhase(); result = "generate-sources";
+      session.getCurrentProject(); result = project;
+      project.getProperties(); result = new Properties();
+    }};
+
+    FreeMarkerWatchMojo mojo = new FreeMarkerWatchMojo();
+    BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+    mojo.setLog(new SystemStreamLog() {
+      @Override
+      public void info(CharSequence content) {
+        messages.add(content.toString());
+        super.info(content);
+      }
+    });
+
+    File testCaseOutputDir = new File(testOutputDir, "watchFailureTest");
+    File dataDir = new File(testCaseOutputDir, "data");
+    File outputDir = new File(testCaseOutputDir, "generated-files");
+    File generatorFile = new File(dataDir, "multi.json");
+    Deencapsulation.setField(mojo, "freeMarkerVersion", "2.3.23");
+    Deencapsulation.setField(mojo, "sourceDirectory", testCaseOutputDir);
+    Deencapsulation.setField(mojo, "templateDirectory", new File(testCaseOutputDir, "template"));
+    Deencapsulation.setField(mojo, "generatorDirectory", dataDir);
+    Deencapsulation.setField(mojo, "outputDirectory", outputDir);
+    Deencapsulation.setField(mojo, "stateDirectory", new File(testCaseOutputDir, "state"));
+    Deencapsulation.setField(mojo, "mojo", mojoExecution);
+    Deencapsulation.setField(mojo, "session", session);
+    Deencapsulation.setField(mojo, "removeOrphanedOutputs", true);
+    Deencapsulation.setField(mojo, "debounceMillis", 50L);
+
+    dataDir.mkdirs();
+    new File(testCaseOutputDir, "template").mkdirs();
+    Files.write(new File(testCaseOutputDir, "template/test.ftl").toPath(), "Value: ${value}".getBytes("UTF-8"));
+    Files.write(generatorFile.toPath(), ("{\"templateName\": \"test.ftl\", \"outputs\": ["
+        + "{\"output\": \"a.txt\", \"dataModel\": {\"value\": 1}}, {\"output\": \"b.txt\", \"dataModel\": {\"value\": 2}}, "
+        + "{\"output\": \"c.txt\", \"dataModel\": {\"value\": 3}}]}").getBytes("UTF-8"));
+
+    Thread watch = new Thread(() -> {
+      try {
+        mojo.execute();
+      } catch (MojoExecutionException | MojoFailureException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    watch.start();
+    try {
+      awaitMessage(messages, "Watching ");
+      assertEquals("Value: 3", new String(Files.readAllBytes(new File(outputDir, "c.txt").toPath()), "UTF-8"));
+
+      // The second output fails: the third one, which the generator file didn't reach, is kept.
+      replace(generatorFile, "{\"templateName\": \"test.ftl\", \"outputs\": ["
+          + "{\"output\": \"a.txt\", \"dataModel\": {\"value\": 4}}, {\"output\": \"b.txt\", \"dataModel\": {}}, "
+          + "{\"output\": \"c.txt\", \"dataModel\": {\"value\": 5}}]}");
+      awaitMessage(messages, "Processed ");
+      assertEquals("Value: 4", new String(Files.readAllBytes(new File(outputDir, "a.txt").toPath()), "UTF-8"));
+      assertEquals("Value: 3", new String(Files.readAllBytes(new File(outputDir, "c.txt").toPath()), "UTF-8"));
+
+      // Once it succeeds, the outputs it no longer lists are removed.
+      replace(generatorFile, "{\"templateName\": \"test.ftl\", \"outputs\": ["
+          + "{\"output\": \"a.txt\", \"dataModel\": {\"value\": 4}}, {\"output\": \"b.txt\", \"dataModel\": {\"value\": 6}}]}");
+      awaitMessage(messages, "Processed ");
+      assertEquals("Value: 6", new String(Files.readAllBytes(new File(outputDir, "b.txt").toPath()), "UTF-8"));
+      assertFalse(new File(outputDir, "c.txt").exists());
+    } finally {
+      watch.interrupt();
+      watch.join();
+    }
+  }
+
+  /**
+   * Replaces the file in a single move, which the watch goal sees as a single change.
+   */
+  private static void replace(File file, String content) throws IOException {
+    File temporary = new File(file.getParentFile().getParentFile(), file.getName() + ".tmp");
+    Files.write(temporary.toPath(), content.getBytes("UTF-8"));
+    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void awaitMessage(BlockingQueue<String> messages, String prefix) throws InterruptedException {
+    while (!messages.take().startsWith(prefix)) {
+      // Not the message awaited.
+    }
+  }
+
+  @Test
+  public void execute_buildContextTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked MojoExecution mojoExecution
+      ) throws MojoExecutionException, MojoFailureException, IOException {
+
+    new Expectations(FactoryUtil.class) {{
+      mojoExecution.getLifecyclePhase(); result = "generate-sources";
+      session.getCurrentProject(); result = project;
+      project.getProperties(); result = new Properties();
+      project.getFile(); result = null;
+    }};
+
+    FreeMarkerMojo mojo = new FreeMarkerMojo();
+    TestBuildContext buildContext = new TestBuildContext();
+
+    File testCaseOutputDir = new File(testOutputDir, "buildContextTest");
+    File dataDir = new File(testCaseOutputDir, "data");
+    File templateDir = new File(testCaseOutputDir, "template");
+    File outputDir = new File(testCaseOutputDir, "generated-files");
+    Deencapsulation.setField(mojo, "freeMarkerVersion", "2.3.23");
+    Deencapsulation.setField(mojo, "sourceDirectory", testCaseOutputDir);
+    Deencapsulation.setField(mojo, "templateDirectory", templateDir);
+    Deencapsulation.setField(mojo, "generatorDirectory", dataDir);
+    Deencapsulation.setField(mojo, "outputDirectory", outputDir);
+    Deencapsulation.setField(mojo, "stateDirectory", new File(testCaseOutputDir, "state"));
+    Deencapsulation.setField(mojo, "mojo", mojoExecution);
+    Deencapsulation.setField(mojo, "session", session);
+    Deencapsulation.setField(mojo, "writeIfChanged", true);
+    Deencapsulation.setField(mojo, "buildContext", buildContext);
+
+    dataDir.mkdirs();
+    templateDir.mkdirs();
+    File otherTemplate = new File(templateDir, "other.ftl");
+    File first = new File(dataDir, "first.txt.json");
+    File second = new File(dataDir, "second.txt.json");
+    Files.write(new File(templateDir, "test.ftl").toPath(), "Value: ${value}".getBytes("UTF-8"));
+    Files.write(otherTemplate.toPath(), "Other: ${value}".getBytes("UTF-8"));
+    Files.write(first.toPath(), "{\"templateName\": \"test.ftl\", \"dataModel\": {\"value\": 1}}".getBytes("UTF-8"));
+    Files.write(second.toPath(), "{\"templateName\": \"other.ftl\", \"dataModel\": {\"value\": 2}}".getBytes("UTF-8"));
+
+    // A full build refreshes every output.
+    buildContext.incremental = false;
+    mojo.execute();
+    assertEquals(2, buildContext.refreshedFiles.size());
+
+    // Nothing changed: no configuration is created.
+    buildContext.incremental = true;
+    buildContext.change();
+    mojo.execute();
+
+    // Only the changed generator file is processed.
+    Files.write(first.toPath(), "{\"templateName\": \"test.ftl\", \"dataModel\": {\"value\": 3}}".getBytes("UTF-8"));
+    buildContext.change(first);
+    mojo.execute();
+    assertEquals(Arrays.asList(new File(outputDir, "first.txt").getAbsoluteFile()), buildContext.refreshedFiles);
+
+    // The changed template regenerates the second output, whose content is the same, so it isn't refreshed.
+    Files.write(otherTemplate.toPath(), "<#-- comment -->Other: ${value}".getBytes("UTF-8"));
+    buildContext.change(otherTemplate);
+    mojo.execute();
+    assertTrue(buildContext.refreshedFiles.isEmpty());
+
+    // Errors are reported against the generator file, until it is fixed.
+    Files.write(second.toPath(), "{\"templateName\": \"missing.ftl\"}".getBytes("UTF-8"));
+    buildContext.change(second);
+    assertThatExceptionOfType(MojoExecutionException.class).isThrownBy(() -> {
+      mojo.execute();
+    });
+    assertEquals(Collections.singleton(second.getAbsoluteFile()), buildContext.errors.keySet());
+    Files.write(second.toPath(), "{\"templateName\": \"other.ftl\", \"dataModel\": {\"value\": 4}}".getBytes("UTF-8"));
+    mojo.execute();
+    assertTrue(buildContext.errors.isEmpty());
+    assertEquals("Other: 4", new String(Files.readAllBytes(new File(outputDir, "second.txt").toPath()), "UTF-8"));
+
+    new Verifications() {{
+      FactoryUtil.createConfiguration("2.3.23"); times = 5;
+    }};
+  }
+
+  @Test
+  public void execute_buildContextReferencedFilesTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked MojoExecution mojoExecution
+      ) throws MojoExecutionException, MojoFailureException, IOException {
+
+    new Expectations() {{
+      mojoExecution.getLifecyclePhase(); result = "generate-sources";
+      session.getCurrentProject(); result = project;
+      project.getProperties(); result = new Properties();
+      project.getFile(); result = null;
+    }};
+
+    FreeMarkerMojo mojo = new FreeMarkerMojo();
+    TestBuildContext buildContext = new TestBuildContext();
+
+    File testCaseOutputDir = new File(testOutputDir, "buildContextReferencedFilesTest");
+    File dataDir = new File(testCaseOutputDir, "data");
+    File templateDir = new File(testCaseOutputDir, "template");
+    File outputDir = new File(testCaseOutputDir, "generated-files");
+    Deencapsulation.setField(mojo, "freeMarkerVersion", "2.3.23");
+    Deencapsulation.setField(mojo, "sourceDirectory", testCaseOutputDir);
+    Deencapsulation.setField(mojo, "templateDirectory", templateDir);
+    Deencapsulation.setField(mojo, "generatorDirectory", dataDir);
+    Deencapsulation.setField(mojo, "outputDirectory", outputDir);
+    Deencapsulation.setField(mojo, "stateDirectory", new File(testCaseOutputDir, "state"));
+    Deencapsulation.setField(mojo, "excludes", Collections.singletonList("refs/**"));
+    Deencapsulation.setField(mojo, "mojo", mojoExecution);
+    Deencapsulation.setField(mojo, "session", session);
+    Deencapsulation.setField(mojo, "buildContext", buildContext);
+
+    new File(dataDir, "refs").mkdirs();
+    new File(testCaseOutputDir, "shared").mkdirs();
+    templateDir.mkdirs();
+    File shared = new File(testCaseOutputDir, "shared/values.json");
+    File inGenerators = new File(dataDir, "refs/values.json");
+    Files.write(new File(templateDir, "test.ftl").toPath(), "Value: ${value}".getBytes("UTF-8"));
+    Files.write(shared.toPath(), "{\"value\": 1}".getBytes("UTF-8"));
+    Files.write(inGenerators.toPath(), "{\"value\": 2}".getBytes("UTF-8"));
+    Files.write(new File(dataDir, "first.txt.json").toPath(),
+        "{\"templateName\": \"test.ftl\", \"dataModel\": {\"$ref\": \"../shared/values.json\"}}".getBytes("UTF-8"));
+    Files.write(new File(dataDir, "second.txt.json").toPath(),
+        "{\"templateName\": \"test.ftl\", \"dataModel\": {\"$ref\": \"refs/values.json\"}}".getBytes("UTF-8"));
+    buildContext.incremental = false;
+    mojo.execute();
+    assertEquals(2, buildContext.refreshedFiles.size());
+
+    // A referenced file outside of the generator directory.
+    buildContext.incremental = true;
+    Files.write(shared.toPath(), "{\"value\": 3}".getBytes("UTF-8"));
+    buildContext.change(shared);
+    mojo.execute();
+    assertEquals(Arrays.asList(new File(outputDir, "first.txt").getAbsoluteFile()), buildContext.refreshedFiles);
+    assertEquals("Value: 3", new String(Files.readAllBytes(new File(outputDir, "first.txt").toPath()), "UTF-8"));
+
+    // A referenced file in the generator directory is not processed as a generator file.
+    Files.write(inGenerators.toPath(), "{\"value\": 4}".getBytes("UTF-8"));
+    buildContext.change(inGenerators);
+    mojo.execute();
+    assertEquals(Arrays.asList(new File(outputDir, "second.txt").getAbsoluteFile()), buildContext.refreshedFiles);
+    assertEquals("Value: 4", new String(Files.readAllBytes(new File(outputDir, "second.txt").toPath()), "UTF-8"));
+    assertTrue(buildContext.errors.isEmpty());
+  }
+
   @Test
   public void execute_walkFileTreeExceptionTest(
       @Mocked MavenSession session,
@@ -171,6 +653,7 @@ public class FreeMarkerMojoTest extends Assert {
     new Expectations(mojoExecution, generatingFileVisitor) {{
       mojoExecution.getLifecyclePhase(); result = "generate-test-sources";
       session.getCurrentProject(); result = project;
+      project.getProperties(); result = new Properties();
       Files.walkFileTree((Path) any,(FileVisitor) any); result = new RuntimeException("test exception");
     }};
 
@@ -182,6 +665,7 @@ public class FreeMarkerMojoTest extends Assert {
     Deencapsulation.setField(mojo, "templateDirectory", new File(testCaseOutputDir, "template"));
     Deencapsulation.setField(mojo, "generatorDirectory", new File(testCaseOutputDir, "data"));
     Deencapsulation.setField(mojo, "outputDirectory", new File(testCaseOutputDir, "generated-files"));
+    Deencapsulation.setField(mojo, "stateDirectory", new File(testCaseOutputDir, "state"));
     Deencapsulation.setField(mojo, "mojo", mojoExecution);
     Deencapsulation.setField(mojo, "session", session);
 
@@ -204,6 +688,7 @@ public class FreeMarkerMojoTest extends Assert {
     new Expectations(config, FactoryUtil.class) {{
       FactoryUtil.createConfiguration("2.3.23"); result = config;
       config.setTemplateLoader((TemplateLoader) any); result = new RuntimeException("test exception");
+      project.getProperties(); result = new Properties();
     }};
 
     FreeMarkerMojo mojo = new FreeMarkerMojo();
@@ -215,6 +700,7 @@ public class FreeMarkerMojoTest extends Assert {
     Deencapsulation.setField(mojo, "templateDirectory", new File(testCaseOutputDir, "template"));
     Deencapsulation.setField(mojo, "generatorDirectory", new File(testCaseOutputDir, "data"));
     Deencapsulation.setField(mojo, "outputDirectory", new File(testCaseOutputDir, "generated-files"));
+    Deencapsulation.setField(mojo, "stateDirectory", new File(testCaseOutputDir, "state"));
     Deencapsulation.setField(mojo, "mojo", mojoExecution);
     Deencapsulation.setField(mojo, "session", session);
 
@@ -233,6 +719,10 @@ public class FreeMarkerMojoTest extends Assert {
       @Mocked MojoExecution mojoExecution,
       @Mocked Configuration config) throws Exception {
     
+    new Expectations() {{
+      project.getProperties(); result = new Properties();
+    }};
+
     FreeMarkerMojo mojo = new FreeMarkerMojo();
 
     File sourceDirectory = new File("src/test/data/freemarker-mojo");
@@ -243,6 +733,7 @@ public class FreeMarkerMojoTest extends Assert {
     Deencapsulation.setField(mojo, "templateDirectory", new File( sourceDirectory, "template"));
     Deencapsulation.setField(mojo, "generatorDirectory", new File( sourceDirectory, "data"));
     Deencapsulation.setField(mojo, "outputDirectory", new File(testCaseOutputDir, "generated-files"));
+    Deencapsulation.setField(mojo, "stateDirectory", new File(testCaseOutputDir, "state"));
     Deencapsulation.setField(mojo, "mojo", mojoExecution);
     Deencapsulation.setField(mojo, "session", session);
 
@@ -257,6 +748,77 @@ public class FreeMarkerMojoTest extends Assert {
     }};
   }
   
+  @Test
+  public void execute_sharedDataFilesTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked MojoExecution mojoExecution,
+      @Mocked Configuration config) throws Exception {
+
+    new Expectations() {{
+      project.getProperties(); result = new Properties();
+      config.getObjectWrapper(); result = objectWrapper;
+    }};
+
+    FreeMarkerMojo mojo = new FreeMarkerMojo();
+
+    File sourceDirectory = new File("src/test/data/freemarker-mojo");
+    File testCaseOutputDir = new File(testOutputDir, "sharedDataFiles");
+    File dataFile = new File(sourceDirectory, "shared/countries.json");
+
+    Deencapsulation.setField(mojo, "freeMarkerVersion", "2.3.23");
+    Deencapsulation.setField(mojo, "sourceDirectory", sourceDirectory);
+    Deencapsulation.setField(mojo, "templateDirectory", new File( sourceDirectory, "template"));
+    Deencapsulation.setField(mojo, "generatorDirectory", new File( sourceDirectory, "data"));
+    Deencapsulation.setField(mojo, "outputDirectory", new File(testCaseOutputDir, "generated-files"));
+    Deencapsulation.setField(mojo, "stateDirectory", new File(testCaseOutputDir, "state"));
+    Deencapsulation.setField(mojo, "sharedDataFiles", Collections.singletonList(dataFile));
+    Deencapsulation.setField(mojo, "mojo", mojoExecution);
+    Deencapsulation.setField(mojo, "session", session);
+
+    mojo.execute();
+
+    new Verifications() {{
+      TemplateModel model;
+      config.setSharedVariable("countries", model = withCapture()); times = 1;
+      assertTrue(model instanceof TemplateHashModel);
+    }};
+  }
+
+  @Test
+  public void execute_duplicateSharedVariableTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked MojoExecution mojoExecution,
+      @Mocked Configuration config) throws Exception {
+
+    new Expectations() {{
+      project.getProperties(); result = new Properties();
+    }};
+
+    FreeMarkerMojo mojo = new FreeMarkerMojo();
+
+    File sourceDirectory = new File("src/test/data/freemarker-mojo");
+    File testCaseOutputDir = new File(testOutputDir, "sharedDataFiles");
+    File dataFile = new File(sourceDirectory, "shared/countries.json");
+
+    Deencapsulation.setField(mojo, "freeMarkerVersion", "2.3.23");
+    Deencapsulation.setField(mojo, "sourceDirectory", sourceDirectory);
+    Deencapsulation.setField(mojo, "templateDirectory", new File( sourceDirectory, "template"));
+    Deencapsulation.setField(mojo, "generatorDirectory", new File( sourceDirectory, "data"));
+    Deencapsulation.setField(mojo, "outputDirectory", new File(testCaseOutputDir, "generated-files"));
+    Deencapsulation.setField(mojo, "stateDirectory", new File(testCaseOutputDir, "state"));
+    Deencapsulation.setField(mojo, "mojo", mojoExecution);
+    Deencapsulation.setField(mojo, "session", session);
+
+    // Two files can't provide the same variable.
+    Deencapsulation.setField(mojo, "sharedDataFiles", Arrays.asList(dataFile, new File(testCaseOutputDir, "countries.json")));
+    assertThatExceptionOfType(MojoExecutionException.class).isThrownBy(() -> {
+      mojo.execute();
+    }).withMessage("Duplicate shared variable name 'countries' for shared data file: "
+        + "target/test-output/freemarker-mojo/sharedDataFiles/countries.json");
+  }
+
   @Test
   public void execute_loadFreemarkerPropertiesExceptionTest(
       @Mocked MavenSession session,
@@ -279,6 +841,7 @@ public class FreeMarkerMojoTest extends Assert {
     Deencapsulation.setField(mojo, "templateDirectory", new File( sourceDirectory, "template"));
     Deencapsulation.setField(mojo, "generatorDirectory", new File( sourceDirectory, "data"));
     Deencapsulation.setField(mojo, "outputDirectory", new File(testCaseOutputDir, "generated-files"));
+    Deencapsulation.setField(mojo, "stateDirectory", new File(testCaseOutputDir, "state"));
     Deencapsulation.setField(mojo, "mojo", mojoExecution);
     Deencapsulation.setField(mojo, "session", session);
 
@@ -301,6 +864,7 @@ public class FreeMarkerMojoTest extends Assert {
     
     new Expectations() {{
       config.setSettings((Properties) any); result = new RuntimeException("test exception");
+      project.getProperties(); result = new Properties();
     }};
     
     FreeMarkerMojo mojo = new FreeMarkerMojo();
@@ -313,6 +877,7 @@ public class FreeMarkerMojoTest extends Assert {
     Deencapsulation.setField(mojo, "templateDirectory", new File( sourceDirectory, "template"));
     Deencapsulation.setField(mojo, "generatorDirectory", new File( sourceDirectory, "data"));
     Deencapsulation.setField(mojo, "outputDirectory", new File(testCaseOutputDir, "generated-files"));
+    Deencapsulation.setField(mojo, "stateDirectory", new File(testCaseOutputDir, "state"));
     Deencapsulation.setField(mojo, "mojo", mojoExecution);
     Deencapsulation.setField(mojo, "session", session);
 
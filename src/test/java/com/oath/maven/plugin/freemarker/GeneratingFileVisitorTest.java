@@ -14,6 +14,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.project.MavenProject;
@@ -43,6 +45,7 @@ public class GeneratingFileVisitorTest extends Assert {
   @BeforeClass
   public static void beforeClass() throws IOException {
   	 builders.put(".json", JsonPropertiesProvider.create(dataDir,templateDir,outputDir));
+    builders.put(".csv", RecordFilePropertiesProvider.create(templateDir, outputDir, RecordFilePropertiesProvider.Format.CSV));
     // Clean output dir before each run.
     File outputDir = new File("target/test-output/generating-file-visitor");
     if (outputDir.exists()) {
@@ -74,11 +77,9 @@ public class GeneratingFileVisitorTest extends Assert {
       @Mocked MavenProject project,
       @Mocked File mockFile,
       @Mocked BasicFileAttributes attrs) throws IOException {
-    List<MavenProject> projects = new ArrayList<>();
-    projects.add(project);
     new Expectations(session, project, mockFile) {{
       session.getCurrentProject(); result = project;
-      session.getAllProjects(); result = projects;
+      project.getParent(); result = null;
       project.getProperties(); result = pomProperties;
       attrs.isRegularFile(); result = true;
       project.getFile(); result = mockFile;
@@ -102,11 +103,9 @@ public class GeneratingFileVisitorTest extends Assert {
       @Mocked MavenProject project,
       @Mocked File mockFile,
       @Mocked BasicFileAttributes attrs) throws IOException {
-    List<MavenProject> projects = new ArrayList<>();
-    projects.add(project);
     new Expectations(session, project, mockFile) {{
       session.getCurrentProject(); result = project;
-      session.getAllProjects(); result = projects;
+      project.getParent(); result = null;
       project.getProperties(); result = pomProperties;
       attrs.isRegularFile(); result = true;
       project.getFile(); result = mockFile;
@@ -124,17 +123,152 @@ public class GeneratingFileVisitorTest extends Assert {
     assertEquals("This is a test freemarker template. Test json data: 'test value'. Test pom data: 'pom value'.", lines.get(0));
   }
 
+  @Test
+  public void functionalPomPropertiesOverrideTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked File mockFile,
+      @Mocked BasicFileAttributes attrs) throws IOException {
+    new Expectations(session, project, mockFile) {{
+      session.getCurrentProject(); result = project;
+      project.getParent(); result = null;
+      project.getProperties(); result = pomProperties;
+      attrs.isRegularFile(); result = true;
+      project.getFile(); result = mockFile;
+      mockFile.lastModified(); result = 10;
+    }};
+
+    // The data model has a pomProperties entry of its own, which doesn't hide the pom properties.
+    File file = new File(dataDir, "mydir/pom-properties-override-test.txt.json");
+    GeneratingFileVisitor gfv = GeneratingFileVisitor.create(config, session, builders);
+    assertEquals(FileVisitResult.CONTINUE, gfv.visitFile(file.toPath(), attrs));
+
+    File outputFile = new File(outputDir, "mydir/pom-properties-override-test.txt");
+    List<String> lines = Files.readAllLines(outputFile.toPath(), StandardCharsets.UTF_8);
+    assertEquals("This is a test freemarker template. Test json data: 'test value'. Test pom data: 'pom value'.", lines.get(0));
+  }
+
+  @Test
+  public void functionalMultipleOutputsTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked File mockFile,
+      @Mocked BasicFileAttributes attrs) throws IOException {
+    new Expectations(session, project, mockFile) {{
+      session.getCurrentProject(); result = project;
+      project.getParent(); result = null;
+      project.getProperties(); result = pomProperties;
+      attrs.isRegularFile(); result = true;
+      project.getFile(); result = mockFile;
+      mockFile.lastModified(); result = 10;
+    }};
+
+    File file = new File(dataDir, "mydir/multi-output-test.json");
+    GeneratingFileVisitor gfv = GeneratingFileVisitor.create(config, session, builders);
+    assertEquals(FileVisitResult.CONTINUE, gfv.visitFile(file.toPath(), attrs));
+
+    List<String> lines = Files.readAllLines(new File(outputDir, "multi/first.txt").toPath(), StandardCharsets.UTF_8);
+    assertEquals("This is a test freemarker template. Test json data: 'first value'. Test pom data: 'pom value'.", lines.get(0));
+    lines = Files.readAllLines(new File(outputDir, "multi/second.txt").toPath(), StandardCharsets.UTF_8);
+    assertEquals("This is a test freemarker template. Test pom data: 'pom value'.", lines.get(0));
+  }
+
+  @Test
+  public void functionalRecordFileTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked File mockFile,
+      @Mocked BasicFileAttributes attrs) throws IOException {
+    new Expectations(session, project, mockFile) {{
+      session.getCurrentProject(); result = project;
+      project.getParent(); result = null;
+      project.getProperties(); result = pomProperties;
+      attrs.isRegularFile(); result = true;
+      project.getFile(); result = mockFile;
+      mockFile.lastModified(); result = 10;
+    }};
+
+    File file = new File(dataDir, "records/classes.csv");
+    GeneratingFileVisitor gfv = GeneratingFileVisitor.create(config, session, builders);
+    assertEquals(FileVisitResult.CONTINUE, gfv.visitFile(file.toPath(), attrs));
+
+    assertEquals("First: plain", new String(Files.readAllBytes(new File(outputDir, "records/one/First.txt").toPath()),
+        StandardCharsets.UTF_8));
+    assertEquals("Second: quoted, with \"quotes\"\nand a line break", new String(
+        Files.readAllBytes(new File(outputDir, "records/two/Second.txt").toPath()), StandardCharsets.UTF_8));
+    assertEquals("Third: ", new String(Files.readAllBytes(new File(outputDir, "records/one/Third.txt").toPath()),
+        StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void functionalFilterTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked File mockFile) throws IOException {
+    new Expectations(session, project, mockFile) {{
+      session.getCurrentProject(); result = project;
+      project.getParent(); result = null;
+      project.getProperties(); result = pomProperties;
+      project.getFile(); result = mockFile;
+      mockFile.lastModified(); result = 10;
+    }};
+
+    // Files with unknown extensions are fatal, unless they are left out.
+    File filterDataDir = new File(outputDir, "filter/data");
+    File filterOutputDir = new File(outputDir, "filter/generated-files");
+    write(new File(filterDataDir, "api/first.txt.json"), "{\"templateName\": \"test-pom-only.ftl\"}");
+    write(new File(filterDataDir, "api/notes.md"), "Not a generator file");
+    write(new File(filterDataDir, "shared/rows.bin"), "Not a generator file");
+    write(new File(filterDataDir, "other/second.txt.json"), "{\"templateName\": \"test-pom-only.ftl\"}");
+    Map<String, OutputGeneratorPropertiesProvider> filterBuilders = new HashMap<>();
+    filterBuilders.put(".json", JsonPropertiesProvider.create(filterDataDir, templateDir, filterOutputDir));
+    GenerationContext context = GenerationContext.builder()
+        .addGeneratorFilter(GeneratorFilter.create(filterDataDir, null, Arrays.asList("shared/**", "**/*.md", "other/**")))
+        .create();
+
+    Files.walkFileTree(filterDataDir.toPath(), GeneratingFileVisitor.create(config, session, filterBuilders, context));
+
+    assertTrue(new File(filterOutputDir, "api/first.txt").isFile());
+    assertFalse(new File(filterOutputDir, "other/second.txt").exists());
+  }
+
+  @Test
+  public void pomLastModifiedTest() throws IOException {
+    File pomDir = new File(outputDir, "poms");
+    pomDir.mkdirs();
+    MavenProject parent = new MavenProject();
+    parent.setFile(new File(pomDir, "parent-pom.xml"));
+    MavenProject module = new MavenProject();
+    module.setFile(new File(pomDir, "module-pom.xml"));
+    module.setParent(parent);
+    MavenProject sibling = new MavenProject();
+    sibling.setFile(new File(pomDir, "sibling-pom.xml"));
+    sibling.setParent(parent);
+    for (MavenProject project : Arrays.asList(parent, module, sibling)) {
+      Files.write(project.getFile().toPath(), "<project/>".getBytes(StandardCharsets.UTF_8));
+    }
+    parent.getFile().setLastModified(20_000);
+    module.getFile().setLastModified(10_000);
+    sibling.getFile().setLastModified(30_000);
+
+    // Inherited from the parent, the sibling doesn't count.
+    assertEquals(20_000, GeneratingFileVisitor.getPomLastModified(module));
+    parent.getFile().setLastModified(5_000);
+    assertEquals(10_000, GeneratingFileVisitor.getPomLastModified(module));
+    assertEquals(0, GeneratingFileVisitor.getPomLastModified(null));
+  }
+
   @Test
   public void visitFile_badExtensionTest(
       @Mocked MavenSession session,
       @Mocked MavenProject project,
       @Mocked File mockFile,
       @Mocked BasicFileAttributes attrs) throws IOException {
-    List<MavenProject> projects = new ArrayList<>();
-    projects.add(project);
     new Expectations(session, project, mockFile) {{
       attrs.isRegularFile(); result = true;
-      session.getAllProjects(); result = projects;
+      session.getCurrentProject(); result = project;
+      project.getParent(); result = null;
+      project.getProperties(); result = pomProperties;
       project.getFile(); result = mockFile;
       mockFile.lastModified(); result = 10;
     }};
@@ -152,11 +286,11 @@ public class GeneratingFileVisitorTest extends Assert {
                                            @Mocked BasicFileAttributes attrs,
                                            @Mocked File mockFile
                                            ) {
-    List<MavenProject> projects = new ArrayList<>();
-    projects.add(project);
     new Expectations(session, project, mockFile) {{
       attrs.isRegularFile(); result = false;
-      session.getAllProjects(); result = projects;
+      session.getCurrentProject(); result = project;
+      project.getParent(); result = null;
+      project.getProperties(); result = pomProperties;
       project.getFile(); result = mockFile;
       mockFile.lastModified(); result = 10;
     }};
@@ -166,4 +300,111 @@ public class GeneratingFileVisitorTest extends Assert {
     GeneratingFileVisitor gfv = GeneratingFileVisitor.create(config, session, builders);
     assertEquals(FileVisitResult.CONTINUE, gfv.visitFile(dir.toPath(), attrs));
   }
+
+  @Test
+  public void parallelHappyPathTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked File mockFile,
+      @Mocked BasicFileAttributes attrs) throws IOException {
+    new Expectations(session, project, mockFile) {{
+      session.getCurrentProject(); result = project;
+      project.getParent(); result = null;
+      project.getProperties(); result = pomProperties;
+      attrs.isRegularFile(); result = true;
+      project.getFile(); result = mockFile;
+      mockFile.lastModified(); result = 10;
+    }};
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      GeneratingFileVisitor gfv = GeneratingFileVisitor.create(config, session, builders,
+          GenerationContext.builder().addExecutor(executor).create());
+      assertEquals(FileVisitResult.CONTINUE, gfv.visitFile(new File(dataDir, "mydir/success-test.txt.json").toPath(), attrs));
+      assertEquals(FileVisitResult.CONTINUE, gfv.visitFile(new File(dataDir, "mydir/success-test-2.txt.json").toPath(), attrs));
+      gfv.awaitCompletion();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    List<String> lines = Files.readAllLines(new File(outputDir, "mydir/success-test.txt").toPath(), StandardCharsets.UTF_8);
+    assertEquals("This is a test freemarker template. Test json data: 'test value'. Test pom data: 'pom value'.", lines.get(0));
+    lines = Files.readAllLines(new File(outputDir, "mydir/success-test-2.txt").toPath(), StandardCharsets.UTF_8);
+    assertEquals("This is a test freemarker template. Test pom data: 'pom value'.", lines.get(0));
+  }
+
+  @Test
+  public void parallelFailuresReportedTogetherTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked File mockFile,
+      @Mocked BasicFileAttributes attrs) throws IOException {
+    new Expectations(session, project, mockFile) {{
+      session.getCurrentProject(); result = project; minTimes = 0;
+      project.getParent(); result = null;
+      project.getProperties(); result = pomProperties; minTimes = 0;
+      attrs.isRegularFile(); result = true;
+      project.getFile(); result = mockFile;
+      mockFile.lastModified(); result = 10;
+    }};
+
+    Path missingVar = new File(dataDir, "mydir/missing-var-test.txt.json").toPath();
+    Path missingTemplateName = new File(dataDir, "mydir/missing-template-name.txt.json").toPath();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      GeneratingFileVisitor gfv = GeneratingFileVisitor.create(config, session, builders,
+          GenerationContext.builder().addExecutor(executor).create());
+      gfv.visitFile(missingVar, attrs);
+      gfv.visitFile(missingTemplateName, attrs);
+      assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+        gfv.awaitCompletion();
+      }).withMessage("2 generator file(s) failed:"
+          + System.lineSeparator() + "  " + missingVar + ": Could not process template associated with data file: " + missingVar
+          + System.lineSeparator() + "  " + missingTemplateName + ": Require json data property not found: templateName");
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void parallelBuildContextTest(
+      @Mocked MavenSession session,
+      @Mocked MavenProject project,
+      @Mocked BasicFileAttributes attrs) throws IOException {
+    new Expectations(session, project) {{
+      session.getCurrentProject(); result = project; minTimes = 0;
+      project.getParent(); result = null;
+      project.getProperties(); result = pomProperties; minTimes = 0;
+      attrs.isRegularFile(); result = true;
+      project.getFile(); result = null;
+    }};
+
+    Path success = new File(dataDir, "mydir/success-test.txt.json").toPath();
+    Path missingVar = new File(dataDir, "mydir/missing-var-test.txt.json").toPath();
+    TestBuildContext buildContext = new TestBuildContext();
+    buildContext.incremental = false;
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      GeneratingFileVisitor gfv = GeneratingFileVisitor.create(config, session, builders,
+          GenerationContext.builder().addExecutor(executor).addBuildContext(buildContext).create());
+      gfv.visitFile(success, attrs);
+      gfv.visitFile(missingVar, attrs);
+      assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+        gfv.awaitCompletion();
+      });
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // The calls made by the tasks are applied on the thread that waited for them.
+    assertEquals(Collections.singleton(Thread.currentThread()), buildContext.callingThreads);
+    assertEquals(Collections.singletonList(new File(outputDir, "mydir/success-test.txt").getAbsoluteFile()),
+        buildContext.refreshedFiles);
+    assertEquals(Collections.singleton(missingVar.toFile().getAbsoluteFile()), buildContext.errors.keySet());
+  }
+
+  private static void write(File file, String content) throws IOException {
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+  }
 }
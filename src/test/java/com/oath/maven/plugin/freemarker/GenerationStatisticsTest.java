@@ -0,0 +1,80 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+
+public class GenerationStatisticsTest extends GenerationTestSupport {
+
+  private final File statisticsFile = new File(testDir, "state/stats.json");
+
+  public GenerationStatisticsTest() {
+    super("generation-statistics");
+  }
+
+  @BeforeMethod
+  public void before() throws IOException {
+    write(new File(templateDir, "header.ftl"), "Header ");
+    write(templateFile, "<#include \"header.ftl\">Value: ${testVar}");
+  }
+
+  @Test
+  public void reportTest() throws IOException {
+    TrackingConfiguration config = createConfiguration();
+    GenerationStatistics statistics = new GenerationStatistics();
+    GenerationContext context = GenerationContext.builder().addStatistics(statistics).create();
+    statistics.recordGeneratorParse(generatorFile.toPath(), 2_000_000, 1);
+    generator(context, outputFile, null).generate(config);
+    assertEquals("Header Value: test value", read(outputFile));
+
+    // Up to date based on timestamps.
+    long past = System.currentTimeMillis() - 100_000;
+    generatorFile.setLastModified(past);
+    templateFile.setLastModified(past);
+    generator(context, outputFile, null).generate(config);
+    assertEquals(1, statistics.getRegeneratedOutputs());
+    assertEquals(1, statistics.getSkippedOutputs());
+    assertEquals(outputFile.length(), statistics.getBytesWritten());
+
+    statistics.write(statisticsFile, testDir.toPath(), config.getTemplateLookups(), config.getParsedTemplates());
+    @SuppressWarnings("unchecked")
+    Map<String, Map<String, Object>> report = new Gson().fromJson(read(statisticsFile), Map.class);
+    assertEquals(1.0, report.get("outputs").get("regenerated"));
+    assertEquals(1.0, report.get("outputs").get("skipped"));
+    assertEquals(1.0, ((Map<?, ?>) report.get("outputs").get("reasons")).get("NEW_OUTPUT"));
+    assertEquals("NEW_OUTPUT", report.get("regenerations").get("generated-files/test.txt"));
+    assertEquals(2.0, ((Map<?, ?>) report.get("generators").get("data/test.txt.json")).get("parseMillis"));
+    assertEquals(1.0, ((Map<?, ?>) report.get("templates").get("test.ftl")).get("parses"));
+    assertEquals(1.0, ((Map<?, ?>) report.get("templates").get("test.ftl")).get("renders"));
+    assertEquals(1.0, ((Map<?, ?>) report.get("templates").get("header.ftl")).get("parses"));
+    assertEquals(0.0, ((Map<?, ?>) report.get("templates").get("header.ftl")).get("renders"));
+    assertEquals(2.0, report.get("templateCache").get("misses"));
+  }
+
+  @Test
+  public void timestampReasonTest() throws IOException {
+    TrackingConfiguration config = createConfiguration();
+    GenerationStatistics statistics = new GenerationStatistics();
+    GenerationContext context = GenerationContext.builder().addStatistics(statistics).create();
+    generator(context, outputFile, null).generate(config);
+
+    outputFile.setLastModified(System.currentTimeMillis() - 100_000);
+    generator(context, outputFile, null).generate(config);
+    assertEquals(1, statistics.getRegeneratedOutputs());
+    assertEquals(0, statistics.getSkippedOutputs());
+
+    statistics.write(statisticsFile, testDir.toPath(), config.getTemplateLookups(), config.getParsedTemplates());
+    @SuppressWarnings("unchecked")
+    Map<String, Map<String, Object>> report = new Gson().fromJson(read(statisticsFile), Map.class);
+    assertEquals("GENERATOR_CHANGED", report.get("regenerations").get("generated-files/test.txt"));
+    assertEquals(2.0, report.get("templateCache").get("hits"));
+  }
+}
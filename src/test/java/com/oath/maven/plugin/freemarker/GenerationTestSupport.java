@@ -0,0 +1,99 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.testng.annotations.BeforeMethod;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.template.Configuration;
+
+/**
+ * Base of the tests that generate the output of a generator file in a directory of their own, under
+ * <code>target/test-output</code>. Before each test, the directory is emptied and holds a template, a generator file
+ * using it, and the data model of the generator file.
+ */
+public abstract class GenerationTestSupport extends Assert {
+
+  protected final File testDir;
+  protected final File templateDir;
+  protected final File dataDir;
+  protected final File outputDir;
+
+  protected final File templateFile;
+  protected final File generatorFile;
+  protected final File outputFile;
+  protected final Map<String, Object> dataModel = new HashMap<>();
+
+  protected GenerationTestSupport(String testDirName) {
+    testDir = new File("target/test-output", testDirName);
+    templateDir = new File(testDir, "template");
+    dataDir = new File(testDir, "data");
+    outputDir = new File(testDir, "generated-files");
+    templateFile = new File(templateDir, "test.ftl");
+    generatorFile = new File(dataDir, "test.txt.json");
+    outputFile = new File(outputDir, "test.txt");
+  }
+
+  @BeforeMethod
+  public void resetTestDir() throws IOException {
+    if (testDir.exists()) {
+      try (Stream<Path> paths = Files.walk(testDir.toPath())) {
+        paths.sorted(Comparator.reverseOrder())
+         .map(Path::toFile)
+         .forEach(File::delete);
+      }
+    }
+    templateDir.mkdirs();
+    dataDir.mkdirs();
+    write(templateFile, "Value: ${testVar}");
+    write(generatorFile, "{\"templateName\": \"test.ftl\"}");
+    dataModel.clear();
+    dataModel.put("testVar", "test value");
+  }
+
+  /**
+   * Each configuration has its own template cache, like a separate build.
+   */
+  protected TrackingConfiguration createConfiguration() throws IOException {
+    TrackingConfiguration config = new TrackingConfiguration(Configuration.VERSION_2_3_23);
+    config.setDefaultEncoding("UTF-8");
+    config.setTemplateLoader(new FileTemplateLoader(templateDir));
+    return config;
+  }
+
+  /**
+   * @return A generator of the output from the template, the generator file and the data model.
+   * @param fingerprint The fingerprint of the generator file's entry, null to hash the whole file.
+   */
+  protected OutputGenerator generator(GenerationContext context, File output, String fingerprint) {
+    return OutputGenerator.builder()
+        .addPomLastModifiedTimestamp(0)
+        .addGeneratorLocation(generatorFile.toPath())
+        .addGeneratorFingerprint(fingerprint)
+        .addTemplateLocation(templateFile.toPath())
+        .addOutputLocation(output.toPath())
+        .addDataModel(dataModel)
+        .addGenerationContext(context)
+        .create();
+  }
+
+  protected static void write(File file, String content) throws IOException {
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  protected static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,114 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+
+import org.junit.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class GenerationWatcherTest extends Assert {
+
+  private static final File testDir = new File("target/test-output/generation-watcher");
+  private static final File templateDir = new File(testDir, "template");
+  private static final File generatorDir = new File(testDir, "generator");
+
+  @BeforeMethod
+  public void before() throws IOException {
+    if (testDir.exists()) {
+      Files.walk(testDir.toPath())
+       .sorted(Comparator.reverseOrder())
+       .map(Path::toFile)
+       .forEach(File::delete);
+    }
+    templateDir.mkdirs();
+    generatorDir.mkdirs();
+  }
+
+  @Test(timeOut = 30_000)
+  public void changesTest() throws IOException, InterruptedException {
+    try (GenerationWatcher watcher = GenerationWatcher.create(generatorDir, templateDir, null)) {
+      Path template = write(new File(templateDir, "test.ftl"), "Value: ${testVar}");
+      Path generator = write(new File(generatorDir, "test.txt.json"), "{}");
+      write(generator.toFile(), "{\"templateName\": \"test.ftl\"}");
+
+      GenerationWatcher.Changes changes = watcher.awaitChanges(200);
+      assertEquals(Collections.singleton(absolute(template)), changes.templateFiles);
+      assertEquals(Collections.singleton(absolute(generator)), changes.generatorFiles);
+      assertFalse(changes.overflow);
+
+      // The files of a new directory count as changed, and the directory is watched from then on.
+      File subDir = new File(generatorDir, "sub");
+      subDir.mkdirs();
+      Path first = write(new File(subDir, "first.txt.json"), "{}");
+      changes = watcher.awaitChanges(200);
+      assertTrue(changes.generatorFiles.contains(absolute(first)));
+      Path second = write(new File(subDir, "second.txt.json"), "{}");
+      changes = watcher.awaitChanges(200);
+      assertEquals(Collections.singleton(absolute(second)), changes.generatorFiles);
+      assertTrue(changes.templateFiles.isEmpty());
+
+      Files.delete(template);
+      changes = watcher.awaitChanges(200);
+      assertEquals(Collections.singleton(absolute(template)), changes.templateFiles);
+    }
+  }
+
+  @Test(timeOut = 30_000)
+  public void filterTest() throws IOException, InterruptedException {
+    new File(generatorDir, "shared").mkdirs();
+    GeneratorFilter filter = GeneratorFilter.create(generatorDir, null, Collections.singletonList("shared/**"));
+    try (GenerationWatcher watcher = GenerationWatcher.create(generatorDir, templateDir, filter)) {
+      write(new File(generatorDir, "shared/excluded.json"), "{}");
+      Path included = write(new File(generatorDir, "included.txt.json"), "{}");
+
+      GenerationWatcher.Changes changes = watcher.awaitChanges(200);
+      assertEquals(Collections.singleton(absolute(included)), changes.generatorFiles);
+    }
+  }
+
+  @Test(timeOut = 30_000)
+  public void referencedFilesTest() throws IOException, InterruptedException {
+    new File(testDir, "shared").mkdirs();
+    new File(generatorDir, "refs").mkdirs();
+    Path shared = write(new File(testDir, "shared/names.json"), "{}");
+    Path inGenerators = write(new File(generatorDir, "refs/colors.json"), "{}");
+    try (GenerationWatcher watcher = GenerationWatcher.create(generatorDir, templateDir, null)) {
+      watcher.watchReferencedFiles(Arrays.asList(shared, inGenerators));
+      write(shared.toFile(), "{\"first\": \"Alice\"}");
+      write(new File(testDir, "shared/other.json"), "{}");
+      write(inGenerators.toFile(), "{\"primary\": \"red\"}");
+
+      // Referenced files are never generator files, and the other files next to them are ignored.
+      GenerationWatcher.Changes changes = watcher.awaitChanges(200);
+      assertEquals(new HashSet<>(Arrays.asList(absolute(shared), absolute(inGenerators))), changes.referencedFiles);
+      assertTrue(changes.generatorFiles.isEmpty());
+      assertTrue(changes.templateFiles.isEmpty());
+    }
+  }
+
+  @Test
+  public void closedTest() throws IOException, InterruptedException {
+    GenerationWatcher watcher = GenerationWatcher.create(generatorDir, templateDir, null);
+    watcher.close();
+    assertNull(watcher.awaitChanges(200));
+  }
+
+  private static Path absolute(Path path) {
+    return path.toAbsolutePath().normalize();
+  }
+
+  private static Path write(File file, String content) throws IOException {
+    return Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+  }
+}
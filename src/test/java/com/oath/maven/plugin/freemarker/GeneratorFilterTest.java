@@ -0,0 +1,86 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+public class GeneratorFilterTest extends Assert {
+
+  private static final File generatorDir = new File("src/main/freemarker/generator");
+
+  @Test
+  public void everythingTest() {
+    GeneratorFilter filter = GeneratorFilter.create(generatorDir, null, null);
+    assertTrue(filter.isIncludedDirectory(path("any/dir")));
+    assertTrue(filter.isIncludedFile(path("any/dir/file.txt")));
+  }
+
+  @Test
+  public void includesTest() {
+    GeneratorFilter filter = GeneratorFilter.create(generatorDir, Arrays.asList("api/v2/**/*.json", "*.csv"),
+        null);
+    assertTrue(filter.isIncludedDirectory(generatorDir.toPath()));
+    assertTrue(filter.isIncludedDirectory(path("api")));
+    assertTrue(filter.isIncludedDirectory(path("api/v2")));
+    assertTrue(filter.isIncludedDirectory(path("api/v2/deep/er")));
+    assertFalse(filter.isIncludedDirectory(path("api/v1")));
+    assertFalse(filter.isIncludedDirectory(path("shared")));
+
+    assertTrue(filter.isIncludedFile(path("api/v2/model/Customer.java.json")));
+    assertFalse(filter.isIncludedFile(path("api/v2/model/notes.txt")));
+    assertTrue(filter.isIncludedFile(path("rows.csv")));
+    assertFalse(filter.isIncludedFile(path("nested/rows.csv")));
+  }
+
+  @Test
+  public void wildcardIncludeDoesNotPruneTest() {
+    GeneratorFilter filter = GeneratorFilter.create(generatorDir, Collections.singletonList("**/*.json"), null);
+    assertTrue(filter.isIncludedDirectory(path("any/dir")));
+    assertTrue(filter.isIncludedFile(path("any/dir/file.json")));
+    assertTrue(filter.isIncludedFile(path("top.json")));
+    assertFalse(filter.isIncludedFile(path("top.csv")));
+  }
+
+  @Test
+  public void zeroDirectoriesTest() {
+    GeneratorFilter filter = GeneratorFilter.create(generatorDir, Collections.singletonList("api/**/*.json"),
+        Collections.singletonList("api/**/drafts/"));
+    assertTrue(filter.isIncludedFile(path("api/x.json")));
+    assertTrue(filter.isIncludedFile(path("api/v2/x.json")));
+    assertFalse(filter.isIncludedFile(path("x.json")));
+    assertFalse(filter.isIncludedFile(path("api/drafts/x.json")));
+    assertFalse(filter.isIncludedFile(path("api/v2/drafts/x.json")));
+    assertFalse(filter.isIncludedDirectory(path("api/drafts")));
+    assertTrue(filter.isIncludedDirectory(path("api/v2")));
+  }
+
+  @Test
+  public void excludesTest() {
+    GeneratorFilter filter = GeneratorFilter.create(generatorDir, null, Arrays.asList("shared/**", "**/*.md"));
+    assertFalse(filter.isIncludedDirectory(path("shared")));
+    assertTrue(filter.isIncludedDirectory(path("api")));
+    assertFalse(filter.isIncludedFile(path("shared/data.json")));
+    assertFalse(filter.isIncludedFile(path("api/README.md")));
+    assertTrue(filter.isIncludedFile(path("api/Customer.java.json")));
+  }
+
+  @Test
+  public void excludedFileNameIsNotPrunedTest() {
+    // Only a pattern ending in /** excludes a whole directory.
+    GeneratorFilter filter = GeneratorFilter.create(generatorDir, null, Collections.singletonList("**/*.md"));
+    assertTrue(filter.isIncludedDirectory(path("docs.md")));
+    assertTrue(filter.isIncludedFile(path("docs.md/data.json")));
+    assertFalse(filter.isIncludedFile(path("docs.md/README.md")));
+  }
+
+  private static Path path(String relative) {
+    return new File(generatorDir, relative).toPath();
+  }
+}
@@ -5,6 +5,7 @@ package com.oath.maven.plugin.freemarker;
 
 import com.google.gson.Gson;
 import com.google.gson.stream.JsonReader;
+import freemarker.template.SimpleScalar;
 import mockit.Expectations;
 import mockit.Mocked;
 import mockit.Verifications;
@@ -13,12 +14,17 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.lang.reflect.Type;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
+import static org.testng.Assert.assertNotEquals;
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
 import static org.testng.internal.junit.ArrayAsserts.assertArrayEquals;
 
 public class JsonPropertiesProviderTest {
@@ -103,4 +109,85 @@ public class JsonPropertiesProviderTest {
 			toTest.providePropertiesFromFile(path, builder);
 		}).withMessage("visitFile() given file not in sourceDirectory: src/test/data/generating-file-visitor/badPath/success-test.txt.json");
 	}
+
+	@Test
+	public void testMultipleOutputs() {
+		Path path = dataDir.toPath().resolve("mydir/multi-output-test.json");
+		List<OutputGenerator.OutputGeneratorBuilder> builders = new ArrayList<>();
+		JsonPropertiesProvider toTest = JsonPropertiesProvider.create(dataDir, templateDir, outputDir);
+		toTest.provideOutputsFromFile(path, () -> {
+			OutputGenerator.OutputGeneratorBuilder builder = OutputGenerator.builder()
+					.addGeneratorLocation(path)
+					.addPomLastModifiedTimestamp(0);
+			builders.add(builder);
+			return builder;
+		});
+
+		assertEquals(2, builders.size());
+		OutputGenerator first = builders.get(0).create();
+		OutputGenerator second = builders.get(1).create();
+		assertEquals(templateDir.toPath().resolve("test.ftl"), first.templateLocation);
+		assertEquals(outputDir.toPath().toAbsolutePath().resolve("multi/first.txt"), first.outputLocation);
+		assertEquals("first value", first.dataModel.get("testVar"));
+		assertEquals(templateDir.toPath().resolve("test-pom-only.ftl"), second.templateLocation);
+		assertEquals(outputDir.toPath().toAbsolutePath().resolve("multi/second.txt"), second.outputLocation);
+		assertTrue(second.dataModel.isEmpty());
+		assertNotNull(first.generatorFingerprint);
+		assertNotEquals(first.generatorFingerprint, second.generatorFingerprint);
+	}
+
+	@Test
+	public void testMultipleOutputsRequireSupplier(@Mocked OutputGenerator.OutputGeneratorBuilder builder) {
+		Path path = dataDir.toPath().resolve("mydir/multi-output-test.json");
+		JsonPropertiesProvider toTest = JsonPropertiesProvider.create(dataDir, templateDir, outputDir);
+
+		assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+			toTest.providePropertiesFromFile(path, builder);
+		}).withMessage("Json data file has several outputs: src/test/data/generating-file-visitor/data/mydir/multi-output-test.json");
+	}
+
+	@Test
+	public void testPrimitiveArrays() {
+		Path path = dataDir.toPath().resolve("mydir/multi-output-test.json");
+		List<OutputGenerator.OutputGeneratorBuilder> builders = new ArrayList<>();
+		JsonPropertiesProvider toTest = JsonPropertiesProvider.create(dataDir, templateDir, outputDir,
+				JsonPropertiesProvider.ParsingMode.PRIMITIVE_ARRAYS);
+		toTest.provideOutputsFromFile(path, () -> {
+			OutputGenerator.OutputGeneratorBuilder builder = OutputGenerator.builder()
+					.addGeneratorLocation(path)
+					.addPomLastModifiedTimestamp(0);
+			builders.add(builder);
+			return builder;
+		});
+
+		assertEquals(2, builders.size());
+		OutputGenerator first = builders.get(0).create();
+		assertEquals("first value", first.dataModel.get("testVar"));
+		assertEquals(outputDir.toPath().toAbsolutePath().resolve("multi/first.txt"), first.outputLocation);
+		assertNotNull(first.generatorFingerprint);
+	}
+
+	@Test
+	public void testTemplateModel() {
+		List<OutputGenerator> generators = new ArrayList<>();
+		for (JsonPropertiesProvider.ParsingMode mode : Arrays.asList(JsonPropertiesProvider.ParsingMode.MAP,
+				JsonPropertiesProvider.ParsingMode.TEMPLATE_MODEL)) {
+			Path path = dataDir.toPath().resolve("mydir/multi-output-test.json");
+			List<OutputGenerator.OutputGeneratorBuilder> builders = new ArrayList<>();
+			JsonPropertiesProvider.create(dataDir, templateDir, outputDir, mode).provideOutputsFromFile(path, () -> {
+				OutputGenerator.OutputGeneratorBuilder builder = OutputGenerator.builder()
+						.addGeneratorLocation(path)
+						.addPomLastModifiedTimestamp(0);
+				builders.add(builder);
+				return builder;
+			});
+			generators.add(builders.get(0).create());
+		}
+
+		OutputGenerator first = generators.get(1);
+		assertEquals("first value", ((SimpleScalar) first.dataModel.get("testVar")).getAsString());
+		assertEquals(outputDir.toPath().toAbsolutePath().resolve("multi/first.txt"), first.outputLocation);
+		// The fingerprint is computed from the java values of the models.
+		assertEquals(generators.get(0).generatorFingerprint, first.generatorFingerprint);
+	}
 }
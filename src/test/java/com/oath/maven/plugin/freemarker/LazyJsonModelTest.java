@@ -0,0 +1,94 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+public class LazyJsonModelTest extends Assert {
+
+  private static final File testDir = new File("target/test-output/lazy-json");
+  private static final File dataFile = new File(testDir, "test.txt.json");
+
+  private final Gson gson = new GsonBuilder().setLenient().create();
+
+  @BeforeMethod
+  public void before() throws IOException {
+    testDir.mkdirs();
+    Files.write(dataFile.toPath(), ("{\"templateName\": \"test.ftl\", \"ignored\": [1, 2], \"dataModel\": {"
+        + "\"title\": \"Rows\", \"rows\": [{\"name\": \"a\"}, {\"name\": \"b\"}, {\"name\": \"c\"}],"
+        + "\"nested\": {\"empty\": []}}}").getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void renderTest() throws IOException, TemplateException {
+    Map<String, Object> data = LazyJsonModel.read(dataFile, gson);
+    assertEquals("test.ftl", data.get("templateName"));
+    assertFalse(data.containsKey("ignored"));
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> dataModel = (Map<String, Object>) data.get("dataModel");
+    String rendered = render("${title}: ${rows?size}<#list rows as row> ${row.name}</#list>"
+        + "<#list rows as row> again ${row.name}</#list>"
+        + "<#if nested.empty?has_content> not empty</#if>", dataModel);
+    assertEquals("Rows: 3 a b c again a again b again c", rendered);
+  }
+
+  @Test
+  public void sizeCountedOnceTest() throws IOException, TemplateException {
+    @SuppressWarnings("unchecked")
+    Map<String, Object> dataModel = (Map<String, Object>) LazyJsonModel.read(dataFile, gson).get("dataModel");
+    // Objects are read in full, only the arrays under them are lazy.
+    assertTrue(dataModel.get("nested") instanceof Map);
+    assertTrue(((Map<?, ?>) dataModel.get("nested")).get("empty") instanceof LazyJsonModel.LazyJsonSequence);
+
+    assertEquals("abc", render("<#list rows as row>${row.name}</#list>", dataModel));
+    // Counted by the complete iteration: the file isn't read again.
+    Files.write(dataFile.toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+    assertEquals("3", render("${rows?size}", dataModel));
+  }
+
+  @Test
+  public void closeAfterBreakTest() throws IOException, TemplateException {
+    @SuppressWarnings("unchecked")
+    Map<String, Object> dataModel = (Map<String, Object>) LazyJsonModel.read(dataFile, gson).get("dataModel");
+    assertEquals("a", render("<#list rows as row>${row.name}<#break></#list>", dataModel));
+    assertTrue(dataModel instanceof Closeable);
+    ((Closeable) dataModel).close();
+  }
+
+  @Test
+  public void parsingExceptionTest() throws IOException {
+    Files.write(dataFile.toPath(), "[\"not an object\"]".getBytes(StandardCharsets.UTF_8));
+    assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+      LazyJsonModel.read(dataFile, gson);
+    }).withMessage("Could not parse json data file: " + dataFile);
+  }
+
+  private static String render(String source, Map<String, Object> dataModel) throws IOException, TemplateException {
+    Template template = new Template("test", new StringReader(source), new Configuration(Configuration.VERSION_2_3_23));
+    StringWriter out = new StringWriter();
+    template.process(dataModel, out);
+    return out.toString();
+  }
+}
@@ -16,6 +16,7 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 import org.testng.annotations.BeforeMethod;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Type;
@@ -154,6 +155,85 @@ public class OutputGeneratorTest {
 		assertTrue(lastMod < outputFile.lastModified());
 	}
 
+	@Test
+	public void generate_writeIfChangedTest() throws IOException {
+		GenerationContext context = GenerationContext.builder().addWriteIfChanged(true).create();
+		File file = new File(dataDir, "mydir/success-test.txt.json");
+		File outputFile = new File(outputDir, "mydir/write-if-changed-test.txt");
+		File templateFile = new File(templateDir, "test.ftl");
+		OutputGenerator.OutputGeneratorBuilder builder = OutputGenerator.builder()
+			 .addPomLastModifiedTimestamp(0)
+			 .addGeneratorLocation(file.toPath())
+			 .addOutputLocation(outputFile.toPath())
+			 .addTemplateLocation(templateFile.toPath())
+			 .addDataModel(dataModel)
+			 .addGenerationContext(context);
+		builder.create().generate(config);
+		List<String> lines = Files.readAllLines(outputFile.toPath(), StandardCharsets.UTF_8);
+		assertEquals("This is a test freemarker template. Test json data: 'test value'. Test pom data: 'pom value'.", lines.get(0));
+		assertEquals(0, context.getUnchangedWrites());
+
+		// Stale by timestamp, but rendering gives the same content: the file is left alone.
+		long lastMod = file.lastModified() - 1000; // File system may only keep 1 second precision.
+		outputFile.setLastModified(lastMod);
+		builder.create().generate(config);
+		assertEquals(lastMod, outputFile.lastModified());
+		assertEquals(1, context.getUnchangedWrites());
+
+		// Different content is written.
+		dataModel.put("testVar", "new value");
+		builder.create().generate(config);
+		assertTrue(lastMod < outputFile.lastModified());
+		lines = Files.readAllLines(outputFile.toPath(), StandardCharsets.UTF_8);
+		assertEquals("This is a test freemarker template. Test json data: 'new value'. Test pom data: 'pom value'.", lines.get(0));
+		assertEquals(1, context.getUnchangedWrites());
+	}
+
+	@Test
+	public void generate_outputEncodingTest() throws IOException {
+		GenerationContext context = GenerationContext.builder().addOutputEncoding(StandardCharsets.ISO_8859_1).create();
+		File outputFile = new File(outputDir, "mydir/output-encoding-test.txt");
+		dataModel.put("testVar", "café");
+		OutputGenerator.builder()
+			 .addPomLastModifiedTimestamp(0)
+			 .addGeneratorLocation(new File(dataDir, "mydir/success-test.txt.json").toPath())
+			 .addOutputLocation(outputFile.toPath())
+			 .addTemplateLocation(new File(templateDir, "test.ftl").toPath())
+			 .addDataModel(dataModel)
+			 .addGenerationContext(context)
+			 .create().generate(config);
+		List<String> lines = Files.readAllLines(outputFile.toPath(), StandardCharsets.ISO_8859_1);
+		assertEquals("This is a test freemarker template. Test json data: 'café'. Test pom data: 'pom value'.", lines.get(0));
+	}
+
+	@Test
+	public void generate_failedRenderKeepsOutputTest() throws IOException {
+		File file = new File(dataDir, "mydir/success-test.txt.json");
+		File outputFile = new File(outputDir, "mydir/failed-render-test.txt");
+		OutputGenerator.OutputGeneratorBuilder builder = OutputGenerator.builder()
+			 .addPomLastModifiedTimestamp(0)
+			 .addGeneratorLocation(file.toPath())
+			 .addOutputLocation(outputFile.toPath())
+			 .addTemplateLocation(new File(templateDir, "test.ftl").toPath())
+			 .addDataModel(dataModel);
+		builder.create().generate(config);
+		byte[] content = Files.readAllBytes(outputFile.toPath());
+
+		long lastMod = file.lastModified() - 1000; // File system may only keep 1 second precision.
+		outputFile.setLastModified(lastMod);
+		dataModel.remove("testVar");
+		OutputGenerator generator = builder.create();
+		Assertions.assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+			generator.generate(config);
+		});
+
+		// The previous output is left as it was, still stale, and no temporary file is left behind.
+		assertArrayEquals(content, Files.readAllBytes(outputFile.toPath()));
+		assertEquals(lastMod, outputFile.lastModified());
+		String[] tempFiles = outputFile.getParentFile().list((dir, name) -> name.endsWith(".tmp"));
+		assertEquals(0, tempFiles.length);
+	}
+
 	@Test
 	public void generate_badTemplateNameTest(){
 		OutputGenerator.OutputGeneratorBuilder builder = OutputGenerator.builder();
@@ -189,6 +269,34 @@ public class OutputGeneratorTest {
 		}).withMessage("Could not process template associated with data file: src/test/data/generating-file-visitor/data/mydir/missing-var-test.txt.json");
 	}
 
+	@Test
+	public void generate_closeFailureTest() {
+		File file = new File(dataDir, "mydir/close-failure-test.txt.json");
+		File outputFile = new File(outputDir, "mydir/close-failure-test.txt");
+		Map<String, Object> closeableModel = new CloseFailingModel();
+		closeableModel.putAll(dataModel);
+		OutputGenerator generator = OutputGenerator.builder()
+			 .addPomLastModifiedTimestamp(0)
+			 .addGeneratorLocation(file.toPath())
+			 .addTemplateLocation(new File(templateDir, "test.ftl").toPath())
+			 .addOutputLocation(outputFile.toPath())
+			 .addDataModel(closeableModel)
+			 .create();
+
+		// After a successful render, the failure to close is the error.
+		Assertions.assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+			generator.generate(config);
+		}).withMessage("Could not close data model of data file: " + file);
+
+		// After a failed render, it doesn't hide why the render failed.
+		closeableModel.remove("testVar");
+		outputFile.delete();
+		Throwable thrown = Assertions.catchThrowable(() -> generator.generate(config));
+		assertEquals("Could not process template associated with data file: " + file, thrown.getMessage());
+		assertEquals(1, thrown.getSuppressed().length);
+		assertEquals("Could not close data model of data file: " + file, thrown.getSuppressed()[0].getMessage());
+	}
+
 	@Test
 	public void generate_badParentTest() throws IOException {
 		OutputGenerator.OutputGeneratorBuilder builder = OutputGenerator.builder();
@@ -236,4 +344,13 @@ public class OutputGeneratorTest {
 			generator.generate(config);
 		}).withMessage("Could not create directory: " + parentDir.getAbsoluteFile().toString());
 	}
+
+	private static class CloseFailingModel extends HashMap<String, Object> implements Closeable {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void close() throws IOException {
+			throw new IOException("test exception");
+		}
+	}
 }
@@ -0,0 +1,172 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+public class ParsedDataCacheTest extends Assert {
+
+  private static final File testDir = new File("target/test-output/parsed-data-cache");
+  private static final File cacheDir = new File(testDir, "cache");
+
+  private final Gson gson = new GsonBuilder().setLenient().create();
+  private final Type stringObjectMap = new TypeToken<Map<String, Object>>() { } .getType();
+  private final AtomicInteger parses = new AtomicInteger();
+
+  @BeforeMethod
+  public void before() throws IOException {
+    if (testDir.exists()) {
+      Files.walk(testDir.toPath())
+       .sorted(Comparator.reverseOrder())
+       .map(Path::toFile)
+       .forEach(File::delete);
+    }
+    testDir.mkdirs();
+    parses.set(0);
+  }
+
+  @Test
+  public void hitTest() throws IOException {
+    Path file = write("data.json", "{\"name\": \"a\", \"count\": 2, \"flag\": true, \"none\": null, "
+        + "\"rows\": [{\"id\": 1.5}, \"text\"], \"unicode\": \"été\"}");
+    ParsedDataCache cache = ParsedDataCache.create(cacheDir, 1024 * 1024);
+
+    Map<String, Object> parsed = cache.get(file, parser());
+    Map<String, Object> decoded = cache.get(file, parser());
+    assertEquals(1, parses.get());
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertEquals(parsed, decoded);
+    assertEquals(Arrays.asList("name", "count", "flag", "none", "rows", "unicode"),
+        Arrays.asList(decoded.keySet().toArray()));
+
+    // Survives the build, and a change of content misses.
+    assertEquals(parsed, ParsedDataCache.create(cacheDir, 1024 * 1024).get(file, parser()));
+    assertEquals(1, parses.get());
+    write("data.json", "{\"name\": \"b\"}");
+    assertEquals("b", cache.get(file, parser()).get("name"));
+    assertEquals(2, parses.get());
+  }
+
+  @Test
+  public void corruptEntryTest() throws IOException {
+    Path file = write("data.json", "{\"name\": \"a\"}");
+    ParsedDataCache cache = ParsedDataCache.create(cacheDir, 1024 * 1024);
+    cache.get(file, parser());
+    File[] entries = cacheDir.listFiles();
+    assertEquals(1, entries.length);
+    Files.write(entries[0].toPath(), new byte[] { 1, 2, 3 });
+
+    assertEquals("a", cache.get(file, parser()).get("name"));
+    assertEquals(2, parses.get());
+    assertEquals(0, cache.getHits());
+    assertEquals("a", cache.get(file, parser()).get("name"));
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void truncatedEntryTest() throws IOException {
+    Path file = write("data.json", "{\"name\": \"a\", \"rows\": [1, 2, 3]}");
+    ParsedDataCache cache = ParsedDataCache.create(cacheDir, 1024 * 1024);
+    cache.get(file, parser());
+    File[] entries = cacheDir.listFiles();
+    assertEquals(1, entries.length);
+    byte[] entry = Files.readAllBytes(entries[0].toPath());
+    Files.write(entries[0].toPath(), Arrays.copyOf(entry, entry.length - 1));
+
+    // Parsed again rather than decoded short, and cached whole.
+    assertEquals(Arrays.asList(1.0, 2.0, 3.0), cache.get(file, parser()).get("rows"));
+    assertEquals(2, parses.get());
+    assertEquals(0, cache.getHits());
+    assertEquals(entry.length, entries[0].length());
+  }
+
+  @Test
+  public void evictTest() throws IOException {
+    ParsedDataCache unbounded = ParsedDataCache.create(cacheDir, Long.MAX_VALUE);
+    // Entries of the same size.
+    Path first = write("first.json", "{\"name\": \"one\"}");
+    Path second = write("second.json", "{\"name\": \"two\"}");
+    Path third = write("third.json", "{\"name\": \"six\"}");
+    unbounded.get(first, parser());
+    unbounded.get(second, parser());
+    unbounded.get(third, parser());
+    File[] entries = cacheDir.listFiles();
+    assertEquals(3, entries.length);
+    long past = System.currentTimeMillis() - 100_000;
+    for (File entry : entries) {
+      entry.setLastModified(past);
+    }
+    assertEquals(0, unbounded.evict());
+
+    // Reading the first and third entries makes the second one the least recently used.
+    unbounded.get(first, parser());
+    unbounded.get(third, parser());
+    ParsedDataCache bounded = ParsedDataCache.create(cacheDir, entries[0].length() * 2);
+    assertEquals(1, bounded.evict());
+    assertEquals(2, cacheDir.listFiles().length);
+    bounded.get(first, parser());
+    bounded.get(third, parser());
+    assertEquals(2, bounded.getHits());
+    bounded.get(second, parser());
+    assertEquals(1, bounded.getMisses());
+  }
+
+  @Test
+  public void providerTest() throws IOException {
+    File dataDir = new File("src/test/data/generating-file-visitor/data");
+    File templateDir = new File("src/test/data/generating-file-visitor/template");
+    File outputDir = new File(testDir, "generated-files");
+    Path path = dataDir.toPath().resolve("mydir/success-test.txt.json");
+    ParsedDataCache cache = ParsedDataCache.create(cacheDir, 1024 * 1024);
+    JsonPropertiesProvider provider = JsonPropertiesProvider.create(dataDir, templateDir, outputDir,
+        JsonPropertiesProvider.ParsingMode.MAP, cache);
+
+    for (int i = 0; i < 2; i++) {
+      OutputGenerator.OutputGeneratorBuilder builder = OutputGenerator.builder()
+          .addGeneratorLocation(path)
+          .addPomLastModifiedTimestamp(0);
+      provider.providePropertiesFromFile(path, builder);
+      OutputGenerator generator = builder.create();
+      assertEquals("test value", generator.dataModel.get("testVar"));
+      assertEquals(templateDir.toPath().resolve("test.ftl"), generator.templateLocation);
+    }
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  private Function<byte[], Map<String, Object>> parser() {
+    return content -> {
+      parses.incrementAndGet();
+      return gson.fromJson(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8),
+          stringObjectMap);
+    };
+  }
+
+  private static Path write(String name, String content) throws IOException {
+    Path path = new File(testDir, name).toPath();
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    return path;
+  }
+}
@@ -0,0 +1,62 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import com.google.gson.stream.JsonReader;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import it.unimi.dsi.fastutil.doubles.DoubleList;
+import it.unimi.dsi.fastutil.ints.IntList;
+
+public class PrimitiveArrayParserTest extends Assert {
+
+  @Test
+  public void parseTest() throws IOException {
+    Map<String, Object> data = parse("{\"ints\": [1, 2, -3], \"doubles\": [1, 2.5, 1e10], \"mixed\": [1, \"two\", null],"
+        + " \"empty\": [], \"nested\": {\"rows\": [[1, 2], [3.5]]}, \"text\": \"value\", \"flag\": true, \"none\": null}");
+
+    IntList ints = (IntList) ((NumberSequenceModel) data.get("ints")).getWrappedObject();
+    assertArrayEquals(new int[] { 1, 2, -3 }, ints.toIntArray());
+    DoubleList doubles = (DoubleList) ((NumberSequenceModel) data.get("doubles")).getWrappedObject();
+    assertArrayEquals(new double[] { 1, 2.5, 1e10 }, doubles.toDoubleArray(), 0);
+    assertEquals(Arrays.asList(1.0, "two", null), data.get("mixed"));
+    assertTrue(((List<?>) data.get("empty")).isEmpty());
+    @SuppressWarnings("unchecked")
+    List<Object> rows = (List<Object>) ((Map<String, Object>) data.get("nested")).get("rows");
+    assertEquals(2, ((NumberSequenceModel) rows.get(0)).size());
+    assertEquals("value", data.get("text"));
+    assertEquals(Boolean.TRUE, data.get("flag"));
+    assertTrue(data.containsKey("none"));
+  }
+
+  @Test
+  public void renderTest() throws IOException, TemplateException {
+    Map<String, Object> data = parse("{\"ints\": [1, 2, 3], \"doubles\": [0.5, 1.5], \"mixed\": [1, \"two\"]}");
+    Configuration config = new Configuration(Configuration.VERSION_2_3_23);
+    Template template = new Template("test", new StringReader("${ints?size} ${ints[1]}<#list ints as i> ${i * 2}</#list>"
+        + " <#list doubles as d>${d?c}<#sep>,</#list> ${ints?seq_contains(3)?c} <#list mixed as m>${m}</#list>"
+        + "<#if ints[3]??> out of range</#if>"), config);
+    StringWriter out = new StringWriter();
+    template.process(data, out);
+    assertEquals("3 2 2 4 6 0.5,1.5 true 1two", out.toString());
+  }
+
+  private static Map<String, Object> parse(String json) throws IOException {
+    try (JsonReader reader = new JsonReader(new StringReader(json))) {
+      return PrimitiveArrayParser.read(reader);
+    }
+  }
+}
@@ -0,0 +1,179 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import mockit.Mocked;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+
+public class RecordFilePropertiesProviderTest {
+	private File testDir = new File("src/test/data/generating-file-visitor");
+	private File dataDir = new File(testDir, "data");
+	private File templateDir = new File(testDir, "template");
+	private File outputDir = new File("target/test-output/generating-file-visitor");
+	private File badDataDir = new File("target/test-output/record-file-properties-provider");
+
+	@Test
+	public void testCsvRecords() {
+		List<OutputGenerator> generators = provide(RecordFilePropertiesProvider.Format.CSV, "records/classes.csv");
+
+		assertEquals(3, generators.size());
+		OutputGenerator first = generators.get(0);
+		assertEquals(templateDir.toPath().resolve("record.ftl"), first.templateLocation);
+		assertEquals(outputDir.toPath().toAbsolutePath().resolve("records/one/First.txt"), first.outputLocation);
+		assertEquals(Arrays.asList("name", "package", "description"), new ArrayList<>(first.dataModel.keySet()));
+		assertEquals("plain", first.dataModel.get("description"));
+		OutputGenerator second = generators.get(1);
+		assertEquals(outputDir.toPath().toAbsolutePath().resolve("records/two/Second.txt"), second.outputLocation);
+		assertEquals("quoted, with \"quotes\"\nand a line break", second.dataModel.get("description"));
+		assertEquals("", generators.get(2).dataModel.get("description"));
+		assertNotEquals(first.generatorFingerprint, second.generatorFingerprint);
+	}
+
+	@Test
+	public void testByteOrderMark() {
+		List<OutputGenerator> generators = provide(RecordFilePropertiesProvider.Format.CSV, "records/bom.csv");
+
+		assertEquals(1, generators.size());
+		assertEquals(outputDir.toPath().toAbsolutePath().resolve("records/one/First.txt"), generators.get(0).outputLocation);
+		assertEquals(Arrays.asList("name", "package", "description"),
+				new ArrayList<>(generators.get(0).dataModel.keySet()));
+	}
+
+	@Test
+	public void testJsonLinesRecords() {
+		List<OutputGenerator> generators = provide(RecordFilePropertiesProvider.Format.JSON_LINES, "records/classes.jsonl");
+
+		assertEquals(2, generators.size());
+		assertEquals(outputDir.toPath().toAbsolutePath().resolve("records/one/First.txt"), generators.get(0).outputLocation);
+		assertNull(generators.get(0).dataModel.get("fields"));
+		assertEquals(outputDir.toPath().toAbsolutePath().resolve("records/two/Second.txt"), generators.get(1).outputLocation);
+		assertEquals(Arrays.asList("a", "b"), generators.get(1).dataModel.get("fields"));
+	}
+
+	@Test
+	public void testRecordsAreStreamed() throws IOException {
+		Path path = write("streamed.jsonl", "# templateName: record.ftl\n# output: {name}.txt\n{\"name\": \"first\"}\nnot json\n");
+		List<OutputGenerator.OutputGeneratorBuilder> builders = new ArrayList<>();
+		RecordFilePropertiesProvider toTest = RecordFilePropertiesProvider.create(templateDir, outputDir,
+				RecordFilePropertiesProvider.Format.JSON_LINES);
+
+		assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+			toTest.provideOutputsFromFile(path, builder(path, builders));
+		}).withMessage("Could not parse json lines data file: " + path + " at line 4");
+		// The first record was handed over before the second one was read.
+		assertEquals(1, builders.size());
+		assertEquals("first", builders.get(0).create().dataModel.get("name"));
+	}
+
+	@Test
+	public void testMissingDirective() throws IOException {
+		Path path = write("missing-output.csv", "# templateName: record.ftl\nname\nfirst\n");
+		RecordFilePropertiesProvider toTest = RecordFilePropertiesProvider.create(templateDir, outputDir,
+				RecordFilePropertiesProvider.Format.CSV);
+
+		assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+			toTest.provideOutputsFromFile(path, builder(path, new ArrayList<>()));
+		}).withMessage("Require record file directive not found: output in " + path);
+	}
+
+	@Test
+	public void testUnknownDirective() throws IOException {
+		Path path = write("unknown-directive.csv", "# templateName: record.ftl\n# outptu: {name}.txt\nname\nfirst\n");
+		RecordFilePropertiesProvider toTest = RecordFilePropertiesProvider.create(templateDir, outputDir,
+				RecordFilePropertiesProvider.Format.CSV);
+
+		assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+			toTest.provideOutputsFromFile(path, builder(path, new ArrayList<>()));
+		}).withMessage("Unknown record file directive: outptu in " + path);
+	}
+
+	@Test
+	public void testFieldCountMismatch() throws IOException {
+		Path path = write("mismatch.csv", "# templateName: record.ftl\n# output: {name}.txt\nname,package\nfirst\n");
+		RecordFilePropertiesProvider toTest = RecordFilePropertiesProvider.create(templateDir, outputDir,
+				RecordFilePropertiesProvider.Format.CSV);
+
+		assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+			toTest.provideOutputsFromFile(path, builder(path, new ArrayList<>()));
+		}).withMessage("Could not parse csv data file: " + path + " at line 4");
+	}
+
+	@Test
+	public void testCsvSyntaxErrorLine() throws IOException {
+		Path path = write("unterminated.csv", "# templateName: record.ftl\n# output: {name}.txt\nname,description\r\n"
+				+ "first,\"two\r\nlines\"\r\nsecond,\"unterminated\n");
+		List<OutputGenerator.OutputGeneratorBuilder> builders = new ArrayList<>();
+		RecordFilePropertiesProvider toTest = RecordFilePropertiesProvider.create(templateDir, outputDir,
+				RecordFilePropertiesProvider.Format.CSV);
+
+		assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+			toTest.provideOutputsFromFile(path, builder(path, builders));
+		}).withMessage("Could not parse csv data file: " + path + " at line 6");
+		assertEquals(1, builders.size());
+	}
+
+	@Test
+	public void testOutputNotInOutputDirectory() throws IOException {
+		Path path = write("escape.csv", "# templateName: record.ftl\n# output: {name}.txt\nname\n../../escaped\n");
+		RecordFilePropertiesProvider toTest = RecordFilePropertiesProvider.create(templateDir, outputDir,
+				RecordFilePropertiesProvider.Format.CSV);
+
+		assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+			toTest.provideOutputsFromFile(path, builder(path, new ArrayList<>()));
+		}).withMessage("Output not in outputDirectory: ../../escaped.txt in " + path);
+	}
+
+	@Test
+	public void testSingleOutputRequiresSingleRecord(@Mocked OutputGenerator.OutputGeneratorBuilder builder) {
+		Path path = dataDir.toPath().resolve("records/classes.csv");
+		RecordFilePropertiesProvider toTest = RecordFilePropertiesProvider.create(templateDir, outputDir,
+				RecordFilePropertiesProvider.Format.CSV);
+
+		assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+			toTest.providePropertiesFromFile(path, builder);
+		}).withMessage("Record file has several outputs: " + path);
+	}
+
+	private List<OutputGenerator> provide(RecordFilePropertiesProvider.Format format, String name) {
+		Path path = dataDir.toPath().resolve(name);
+		List<OutputGenerator.OutputGeneratorBuilder> builders = new ArrayList<>();
+		RecordFilePropertiesProvider.create(templateDir, outputDir, format).provideOutputsFromFile(path,
+				builder(path, builders));
+		return builders.stream().map(OutputGenerator.OutputGeneratorBuilder::create).collect(Collectors.toList());
+	}
+
+	private static Supplier<OutputGenerator.OutputGeneratorBuilder> builder(Path path,
+			List<OutputGenerator.OutputGeneratorBuilder> builders) {
+		return () -> {
+			OutputGenerator.OutputGeneratorBuilder builder = OutputGenerator.builder()
+					.addGeneratorLocation(path)
+					.addPomLastModifiedTimestamp(0);
+			builders.add(builder);
+			return builder;
+		};
+	}
+
+	private Path write(String name, String content) throws IOException {
+		badDataDir.mkdirs();
+		Path path = badDataDir.toPath().resolve(name);
+		Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+		return path;
+	}
+}
@@ -0,0 +1,259 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+
+import freemarker.template.Configuration;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateModelIterator;
+
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
+
+public class ReferencedDataCacheTest extends Assert {
+
+  private static final File testDir = new File("target/test-output/referenced-data-cache");
+
+  private final Gson gson = new Gson();
+
+  @BeforeMethod
+  public void before() throws IOException {
+    if (testDir.exists()) {
+      Files.walk(testDir.toPath())
+       .sorted(Comparator.reverseOrder())
+       .map(Path::toFile)
+       .forEach(File::delete);
+    }
+    new File(testDir, "shared").mkdirs();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void resolveTest() throws IOException {
+    write("shared/colors.json", "{\"primary\": [\"red\", \"blue\"], \"unit\": {\"$ref\": \"units.json#/length\"}}");
+    write("shared/units.json", "{\"length\": \"mm\", \"mass\": \"kg\"}");
+    Path generator = write("generator.json", "{}");
+    ReferencedDataCache cache = ReferencedDataCache.create(1024 * 1024);
+
+    Map<Path, String> references = new TreeMap<>();
+    Map<String, Object> first = parse("{\"colors\": {\"$ref\": \"shared/colors.json\"}, "
+        + "\"rows\": [{\"$ref\": \"shared/colors.json#/primary/1\"}], \"other\": {\"$ref\": 1}}");
+    assertSame(first, cache.resolve(first, generator, references));
+    assertEquals(parse("{\"colors\": {\"primary\": [\"red\", \"blue\"], \"unit\": \"mm\"}, \"rows\": [\"blue\"], "
+        + "\"other\": {\"$ref\": 1}}"), first);
+    assertEquals(Arrays.asList("colors.json", "units.json"), fileNames(references.keySet()));
+    assertEquals(ContentHash.ofFile(testDir.toPath().resolve("shared/units.json")),
+        references.get(testDir.toPath().resolve("shared/units.json").toAbsolutePath().normalize()));
+
+    // Parsed once, shared read-only.
+    Map<String, Object> second = parse("{\"colors\": {\"$ref\": \"shared/colors.json\"}}");
+    Map<Path, String> secondReferences = new TreeMap<>();
+    cache.resolve(second, generator, secondReferences);
+    assertSame(first.get("colors"), second.get("colors"));
+    assertEquals(references, secondReferences);
+    assertEquals(2, cache.getMisses());
+    assertEquals(2, cache.getHits());
+    assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() ->
+        ((Map<String, Object>) second.get("colors")).put("primary", null));
+    assertEquals(2, cache.getReferencedFiles().size());
+  }
+
+  @Test
+  public void changeTest() throws IOException {
+    write("shared/units.json", "{\"length\": \"mm\"}");
+    write("shared/colors.json", "{\"unit\": {\"$ref\": \"units.json\"}}");
+    Path generator = write("generator.json", "{}");
+    ReferencedDataCache cache = ReferencedDataCache.create(1024 * 1024);
+    Map<Path, String> before = new TreeMap<>();
+    cache.resolve(parse("{\"colors\": {\"$ref\": \"shared/colors.json\"}}"), generator, before);
+
+    // A change to a file referenced by a referenced file is seen too.
+    write("shared/units.json", "{\"length\": \"cm\", \"mass\": \"g\"}");
+    Map<Path, String> after = new TreeMap<>();
+    Map<String, Object> dataModel = parse("{\"colors\": {\"$ref\": \"shared/colors.json\"}}");
+    cache.resolve(dataModel, generator, after);
+    assertEquals("cm", ((Map<?, ?>) ((Map<?, ?>) ((Map<?, ?>) dataModel.get("colors")).get("unit"))).get("length"));
+    assertFalse(before.equals(after));
+    assertEquals(4, cache.getMisses());
+  }
+
+  @Test
+  public void evictTest() throws IOException {
+    write("shared/a.json", "[1]");
+    write("shared/b.json", "[2]");
+    write("shared/c.json", "[3]");
+    Path generator = write("generator.json", "{}");
+    // Room for two files.
+    ReferencedDataCache cache = ReferencedDataCache.create(7);
+
+    for (String name : Arrays.asList("a", "b", "a", "c", "a", "b")) {
+      cache.resolve(parse("{\"value\": {\"$ref\": \"shared/" + name + ".json\"}}"), generator, new TreeMap<>());
+    }
+    // b is dropped when c is added, a being used more recently.
+    assertEquals(2, cache.getHits());
+    assertEquals(4, cache.getMisses());
+  }
+
+  @Test
+  public void errorTest() throws IOException {
+    write("shared/a.json", "{\"b\": {\"$ref\": \"b.json\"}}");
+    write("shared/b.json", "{\"a\": {\"$ref\": \"a.json\"}}");
+    Path generator = write("generator.json", "{}");
+    ReferencedDataCache cache = ReferencedDataCache.create(1024 * 1024);
+
+    assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+        cache.resolve(parse("{\"a\": {\"$ref\": \"shared/a.json\"}}"), generator, new TreeMap<>()))
+        .withMessageStartingWith("Cyclic json reference: a.json in ");
+    assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+        cache.resolve(parse("{\"a\": {\"$ref\": \"shared/missing.json\"}}"), generator, new TreeMap<>()))
+        .withMessageStartingWith("Could not read json reference: shared/missing.json in ");
+    assertThatExceptionOfType(RuntimeException.class).isThrownBy(() ->
+        cache.resolve(parse("{\"a\": {\"$ref\": \"shared/b.json#/c\"}}"), generator, new TreeMap<>()))
+        .withMessageStartingWith("Cyclic json reference: ");
+  }
+
+  @Test
+  public void providerTest() throws IOException {
+    File dataDir = new File(testDir, "data");
+    File templateDir = new File(testDir, "template");
+    File outputDir = new File(testDir, "generated-files");
+    dataDir.mkdirs();
+    write("shared/names.json", "{\"first\": \"Alice\"}");
+    Path single = write("data/single.txt.json", "{\"templateName\": \"test.ftl\", "
+        + "\"dataModel\": {\"$ref\": \"../shared/names.json\"}}");
+    Path multi = write("data/multi.json", "{\"templateName\": \"test.ftl\", \"outputs\": ["
+        + "{\"output\": \"a.txt\", \"dataModel\": {\"names\": {\"$ref\": \"../shared/names.json\"}}}, "
+        + "{\"output\": \"b.txt\", \"dataModel\": {\"name\": \"Bob\"}}]}");
+    ReferencedDataCache cache = ReferencedDataCache.create(1024 * 1024);
+    JsonPropertiesProvider provider = JsonPropertiesProvider.create(dataDir, templateDir, outputDir,
+        JsonPropertiesProvider.ParsingMode.MAP, null, cache,
+        Configuration.getDefaultObjectWrapper(Configuration.VERSION_2_3_23));
+
+    List<OutputGenerator> before = generate(provider, single, multi);
+    assertEquals("Alice", before.get(0).dataModel.get("first"));
+    assertEquals("Alice", ((Map<?, ?>) before.get(1).dataModel.get("names")).get("first"));
+    assertNotNull(before.get(0).generatorFingerprint);
+
+    write("shared/names.json", "{\"first\": \"Caroline\"}");
+    List<OutputGenerator> after = generate(provider, single, multi);
+    assertEquals("Caroline", after.get(0).dataModel.get("first"));
+    // Only the outputs referencing the changed file are stale.
+    assertFalse(before.get(0).generatorFingerprint.equals(after.get(0).generatorFingerprint));
+    assertFalse(before.get(1).generatorFingerprint.equals(after.get(1).generatorFingerprint));
+    assertEquals(before.get(2).generatorFingerprint, after.get(2).generatorFingerprint);
+  }
+
+  @Test
+  public void primitiveArraysTest() throws IOException {
+    write("shared/numbers.json", "{\"values\": [1, 2, 3], \"names\": [\"a\"]}");
+    new File(testDir, "data").mkdirs();
+    Path generator = write("data/numbers.txt.json", "{\"templateName\": \"test.ftl\", "
+        + "\"dataModel\": {\"numbers\": {\"$ref\": \"../shared/numbers.json\"}}}");
+    JsonPropertiesProvider provider = provider(JsonPropertiesProvider.ParsingMode.PRIMITIVE_ARRAYS);
+
+    Map<?, ?> numbers = (Map<?, ?>) generate(provider, generator).get(0).dataModel.get("numbers");
+    // Parsed like the generator files of the mode.
+    assertTrue(numbers.get("values") instanceof NumberSequenceModel);
+    assertEquals(Arrays.asList("a"), numbers.get("names"));
+  }
+
+  @Test
+  public void streamingTest() throws IOException, TemplateModelException {
+    write("shared/names.json", "{\"first\": \"Alice\"}");
+    new File(testDir, "data").mkdirs();
+    Path object = write("data/object.txt.json", "{\"templateName\": \"test.ftl\", "
+        + "\"dataModel\": {\"names\": {\"$ref\": \"../shared/names.json\"}}}");
+    Path array = write("data/array.txt.json", "{\"templateName\": \"test.ftl\", "
+        + "\"dataModel\": {\"rows\": [{\"$ref\": \"../shared/names.json\"}]}}");
+    JsonPropertiesProvider provider = provider(JsonPropertiesProvider.ParsingMode.STREAMING);
+
+    assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> generate(provider, object))
+        .withMessage("$ref is not supported in the STREAMING parsing mode: ../shared/names.json in " + object.toFile());
+    // Streamed arrays are only read when listed.
+    TemplateCollectionModel rows = (TemplateCollectionModel) generate(provider, array).get(0).dataModel.get("rows");
+    TemplateModelIterator it = rows.iterator();
+    assertThatExceptionOfType(TemplateModelException.class).isThrownBy(it::next)
+        .withMessage("$ref is not supported in the STREAMING parsing mode: ../shared/names.json in dataModel.rows from "
+            + array.toFile());
+  }
+
+  @Test
+  public void templateModelTest() throws IOException {
+    write("shared/names.json", "{\"first\": \"Alice\"}");
+    new File(testDir, "data").mkdirs();
+    Path generator = write("data/names.txt.json", "{\"templateName\": \"test.ftl\", "
+        + "\"dataModel\": {\"names\": {\"$ref\": \"../shared/names.json\"}}}");
+    JsonPropertiesProvider provider = provider(JsonPropertiesProvider.ParsingMode.TEMPLATE_MODEL);
+
+    try {
+      generate(provider, generator);
+      fail("Expected the reference to be rejected");
+    } catch (RuntimeException e) {
+      assertEquals("Could not parse json data file: " + generator.toFile(), e.getMessage());
+      assertEquals("$ref is not supported in the TEMPLATE_MODEL parsing mode: ../shared/names.json",
+          e.getCause().getMessage());
+    }
+  }
+
+  private static JsonPropertiesProvider provider(JsonPropertiesProvider.ParsingMode parsingMode) {
+    return JsonPropertiesProvider.create(new File(testDir, "data"), new File(testDir, "template"),
+        new File(testDir, "generated-files"), parsingMode, null,
+        JsonPropertiesProvider.createReferencedDataCache(1024 * 1024, parsingMode),
+        Configuration.getDefaultObjectWrapper(Configuration.VERSION_2_3_23));
+  }
+
+  private static List<OutputGenerator> generate(JsonPropertiesProvider provider, Path... paths) {
+    List<OutputGenerator.OutputGeneratorBuilder> builders = new ArrayList<>();
+    for (Path path : paths) {
+      provider.provideOutputsFromFile(path, () -> {
+        OutputGenerator.OutputGeneratorBuilder builder = OutputGenerator.builder()
+            .addGeneratorLocation(path)
+            .addPomLastModifiedTimestamp(0);
+        builders.add(builder);
+        return builder;
+      });
+    }
+    List<OutputGenerator> generators = new ArrayList<>();
+    for (OutputGenerator.OutputGeneratorBuilder builder : builders) {
+      generators.add(builder.create());
+    }
+    return generators;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> parse(String json) {
+    return gson.fromJson(json, Map.class);
+  }
+
+  private static List<String> fileNames(Iterable<Path> paths) {
+    List<String> names = new ArrayList<>();
+    for (Path path : paths) {
+      names.add(path.getFileName().toString());
+    }
+    return names;
+  }
+
+  private static Path write(String name, String content) throws IOException {
+    Path path = new File(testDir, name).toPath();
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    return path;
+  }
+}
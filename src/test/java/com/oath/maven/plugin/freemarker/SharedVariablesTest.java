@@ -0,0 +1,60 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+public class SharedVariablesTest extends Assert {
+
+  private final Configuration config = new Configuration(Configuration.VERSION_2_3_23);
+
+  @Test
+  public void wrapPropertiesTest() throws IOException, TemplateException {
+    Properties properties = new Properties();
+    properties.setProperty("pomVar", "pom value");
+    config.setSharedVariable(SharedVariables.POM_PROPERTIES,
+        SharedVariables.wrapProperties(properties, config.getObjectWrapper()));
+
+    // A snapshot: later changes are not seen.
+    properties.setProperty("pomVar", "changed");
+    assertEquals("pom value", render("${pomProperties.pomVar}"));
+  }
+
+  @Test
+  public void loadDataFileTest() throws IOException, TemplateException {
+    File dataFile = new File("src/test/data/freemarker-mojo/shared/countries.json");
+    assertEquals("countries", SharedVariables.variableName(dataFile));
+    config.setSharedVariable("countries", SharedVariables.loadDataFile(dataFile, config.getObjectWrapper()));
+    assertEquals("FR France 33, JP Japan 81",
+        render("<#list countries?keys as code>${code} ${countries[code].name} ${countries[code].dialCode}<#sep>, </#list>"));
+  }
+
+  @Test
+  public void loadDataFileExceptionTest() {
+    File dataFile = new File("src/test/data/freemarker-mojo/shared/missing.json");
+    assertThatExceptionOfType(RuntimeException.class).isThrownBy(() -> {
+      SharedVariables.loadDataFile(dataFile, config.getObjectWrapper());
+    }).withMessage("Could not parse shared data file: " + dataFile);
+  }
+
+  private String render(String source) throws IOException, TemplateException {
+    StringWriter out = new StringWriter();
+    new Template("test", new StringReader(source), config).process(new HashMap<String, Object>(), out);
+    return out.toString();
+  }
+}
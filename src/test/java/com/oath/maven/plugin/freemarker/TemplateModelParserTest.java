@@ -0,0 +1,118 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.testng.annotations.Test;
+
+import com.google.gson.stream.JsonReader;
+
+import freemarker.template.Configuration;
+import freemarker.template.SimpleHash;
+import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
+import freemarker.template.SimpleSequence;
+import freemarker.template.Template;
+import freemarker.template.TemplateBooleanModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModelException;
+
+public class TemplateModelParserTest extends Assert {
+
+  @Test
+  public void parseTest() throws IOException {
+    Map<String, Object> data = parse("{\"templateName\": \"test.ftl\", \"count\": 2, \"dataModel\": {\"text\": \"value\","
+        + " \"id\": 9007199254740993, \"rows\": [1, {\"b\": true, \"a\": null}], \"flag\": false, \"none\": null}}");
+
+    // The properties of the generator file stay java values.
+    assertEquals("test.ftl", data.get("templateName"));
+    assertEquals(2, data.get("count"));
+    @SuppressWarnings("unchecked")
+    Map<String, Object> dataModel = (Map<String, Object>) data.get("dataModel");
+    assertEquals(Arrays.asList("text", "id", "rows", "flag", "none"), Arrays.asList(dataModel.keySet().toArray()));
+    assertEquals("value", ((SimpleScalar) dataModel.get("text")).getAsString());
+    assertEquals(9007199254740993L, ((SimpleNumber) dataModel.get("id")).getAsNumber());
+    assertTrue(dataModel.get("rows") instanceof SimpleSequence);
+    assertEquals(TemplateBooleanModel.FALSE, dataModel.get("flag"));
+    assertTrue(dataModel.containsKey("none"));
+
+    Map<String, Object> expected = new LinkedHashMap<>();
+    expected.put("b", true);
+    expected.put("a", null);
+    assertEquals(Arrays.asList(1, expected), TemplateModelParser.toJava(dataModel.get("rows")));
+  }
+
+  @Test
+  public void outputsTest() throws IOException {
+    Map<String, Object> data = parse("{\"templateName\": \"test.ftl\", \"outputs\": [{\"output\": \"a.txt\","
+        + " \"dataModel\": {\"name\": \"a\"}}, {\"output\": \"b.txt\"}]}");
+
+    List<?> outputs = (List<?>) data.get("outputs");
+    assertEquals(2, outputs.size());
+    Map<?, ?> first = (Map<?, ?>) outputs.get(0);
+    assertEquals("a.txt", first.get("output"));
+    assertTrue(((Map<?, ?>) first.get("dataModel")).get("name") instanceof SimpleScalar);
+  }
+
+  @Test
+  public void narrowestNumberTest() {
+    assertEquals(0, TemplateModelParser.narrowestNumber("0"));
+    assertEquals(-2147483648, TemplateModelParser.narrowestNumber("-2147483648"));
+    assertEquals(2147483648L, TemplateModelParser.narrowestNumber("2147483648"));
+    assertEquals(new BigInteger("9223372036854775808"), TemplateModelParser.narrowestNumber("9223372036854775808"));
+    assertEquals(2.5, TemplateModelParser.narrowestNumber("2.5"));
+    assertEquals(0.000125, TemplateModelParser.narrowestNumber("0.000125"));
+    assertEquals(1e10, TemplateModelParser.narrowestNumber("1e10"));
+    assertEquals(new BigDecimal("0.1234567890123456789"), TemplateModelParser.narrowestNumber("0.1234567890123456789"));
+    assertEquals(new BigDecimal("1e400"), TemplateModelParser.narrowestNumber("1e400"));
+  }
+
+  @Test
+  public void renderTest() throws IOException, TemplateException {
+    Configuration config = new Configuration(Configuration.VERSION_2_3_23);
+    Map<String, Object> data = parse(config, "{\"dataModel\": {\"id\": 9007199254740993, \"ratio\": 0.5,"
+        + " \"rows\": [{\"name\": \"a\", \"n\": 1}, {\"name\": \"b\", \"n\": 2}], \"flag\": true, \"none\": null}}");
+    Template template = new Template("test", new StringReader("${id?c} ${ratio?c}<#list rows as row> ${row.name}=${row.n}"
+        + "</#list> ${flag?c} ${rows[0]?keys?join(',')}<#if none??> not null</#if>"), config);
+    StringWriter out = new StringWriter();
+    @SuppressWarnings("unchecked")
+    Map<String, Object> dataModel = (Map<String, Object>) data.get("dataModel");
+    template.process(dataModel, out);
+    assertEquals("9007199254740993 0.5 a=1 b=2 true name,n", out.toString());
+    assertTrue(((SimpleSequence) dataModel.get("rows")).get(0) instanceof SimpleHash);
+  }
+
+  @Test
+  public void objectWrapperTest() throws IOException, TemplateModelException {
+    Configuration config = new Configuration(Configuration.VERSION_2_3_22);
+    Map<String, Object> data = parse(config, "{\"dataModel\": {\"rows\": [{\"name\": \"a\"}]}}");
+
+    // The models are built with the wrapper of the configuration rendering them.
+    @SuppressWarnings("unchecked")
+    Map<String, Object> dataModel = (Map<String, Object>) data.get("dataModel");
+    SimpleSequence rows = (SimpleSequence) dataModel.get("rows");
+    assertSame(config.getObjectWrapper(), rows.getObjectWrapper());
+    assertSame(config.getObjectWrapper(), ((SimpleHash) rows.get(0)).getObjectWrapper());
+  }
+
+  private static Map<String, Object> parse(String json) throws IOException {
+    return parse(new Configuration(Configuration.VERSION_2_3_23), json);
+  }
+
+  private static Map<String, Object> parse(Configuration config, String json) throws IOException {
+    try (JsonReader reader = new JsonReader(new StringReader(json))) {
+      return TemplateModelParser.read(reader, config.getObjectWrapper());
+    }
+  }
+}
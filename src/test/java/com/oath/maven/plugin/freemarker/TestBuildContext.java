@@ -0,0 +1,90 @@
+// Copyright 2018, Oath Inc.
+// Licensed under the terms of the Apache 2.0 license. See the LICENSE file in the project root for terms.
+
+package com.oath.maven.plugin.freemarker;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.codehaus.plexus.util.Scanner;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+import org.sonatype.plexus.build.incremental.EmptyScanner;
+
+/**
+ * Stand-in for the build context of an IDE: reports the files set as changed, and records the files refreshed, the
+ * messages added and the threads they were reported on.
+ */
+class TestBuildContext extends DefaultBuildContext {
+  boolean incremental = true;
+  final Set<File> changedFiles = new LinkedHashSet<>();
+  final List<File> refreshedFiles = new ArrayList<>();
+  final Map<File, String> errors = new HashMap<>();
+  final Set<Thread> callingThreads = ConcurrentHashMap.newKeySet();
+
+  void change(File... files) {
+    changedFiles.clear();
+    for (File file : files) {
+      changedFiles.add(file.getAbsoluteFile());
+    }
+    refreshedFiles.clear();
+  }
+
+  @Override
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  @Override
+  public boolean hasDelta(File file) {
+    return !incremental || changedFiles.contains(file.getAbsoluteFile());
+  }
+
+  @Override
+  public Scanner newScanner(File basedir) {
+    return scanner(basedir, true);
+  }
+
+  @Override
+  public Scanner newDeleteScanner(File basedir) {
+    return scanner(basedir, false);
+  }
+
+  @Override
+  public void refresh(File file) {
+    callingThreads.add(Thread.currentThread());
+    refreshedFiles.add(file.getAbsoluteFile());
+  }
+
+  @Override
+  public void addMessage(File file, int line, int column, String message, int severity, Throwable cause) {
+    callingThreads.add(Thread.currentThread());
+    errors.put(file.getAbsoluteFile(), message);
+  }
+
+  @Override
+  public void removeMessages(File file) {
+    callingThreads.add(Thread.currentThread());
+    errors.remove(file.getAbsoluteFile());
+  }
+
+  private Scanner scanner(File basedir, boolean existing) {
+    List<String> files = new ArrayList<>();
+    for (File file : changedFiles) {
+      if (file.exists() == existing && file.toPath().startsWith(basedir.getAbsoluteFile().toPath())) {
+        files.add(basedir.getAbsoluteFile().toPath().relativize(file.toPath()).toString());
+      }
+    }
+    return new EmptyScanner(basedir) {
+      @Override
+      public String[] getIncludedFiles() {
+        return files.toArray(new String[0]);
+      }
+    };
+  }
+}